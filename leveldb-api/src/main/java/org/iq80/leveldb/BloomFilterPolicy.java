@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * A Bloom filter with {@code bitsPerKey} bits for each key.  Ten bits per key
+ * give a false positive rate of about one percent.  The filter format is
+ * compatible with the C++ leveldb Bloom filter.
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy
+{
+    private final int bitsPerKey;
+    private final int probes;
+
+    public BloomFilterPolicy(int bitsPerKey)
+    {
+        if (bitsPerKey <= 0) {
+            throw new IllegalArgumentException("bitsPerKey must be positive");
+        }
+        this.bitsPerKey = bitsPerKey;
+
+        // We intentionally round down to reduce probing cost a little bit
+        // 0.69 =~ ln(2)
+        this.probes = Math.max(1, Math.min(30, (int) (bitsPerKey * 0.69)));
+    }
+
+    @Override
+    public String name()
+    {
+        return "leveldb.BuiltinBloomFilter2";
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        // For small n, we can see a very high false positive rate.  Fix it
+        // by enforcing a minimum bloom filter length.
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        byte[] filter = new byte[bytes + 1];
+        // Remember # of probes in filter
+        filter[bytes] = (byte) probes;
+        for (byte[] key : keys) {
+            // Use double-hashing to generate a sequence of hash values.
+            int h = hash(key);
+            int delta = (h >>> 17) | (h << 15);  // Rotate right 17 bits
+            for (int j = 0; j < probes; j++) {
+                int bitPosition = (int) ((h & 0xFFFFFFFFL) % bits);
+                filter[bitPosition / 8] |= (1 << (bitPosition % 8));
+                h += delta;
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter, int offset, int length)
+    {
+        if (length < 2) {
+            return false;
+        }
+
+        int bits = (length - 1) * 8;
+
+        // Use the encoded k so that we can read filters generated by
+        // bloom filters created using different parameters.
+        int k = filter[offset + length - 1];
+        if (k > 30) {
+            // Reserved for potentially new encodings for short bloom filters.
+            // Consider it a match.
+            return true;
+        }
+
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);  // Rotate right 17 bits
+        for (int j = 0; j < k; j++) {
+            int bitPosition = (int) ((h & 0xFFFFFFFFL) % bits);
+            if ((filter[offset + bitPosition / 8] & (1 << (bitPosition % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * The 32-bit hash used by leveldb, similar to murmur hash.
+     */
+    private static int hash(byte[] data)
+    {
+        int m = 0xc6a4a793;
+        int h = 0xbc9f1d34 ^ (data.length * m);
+
+        // Pick up four bytes at a time
+        int i = 0;
+        for (; i + 4 <= data.length; i += 4) {
+            int w = (data[i] & 0xFF) |
+                    ((data[i + 1] & 0xFF) << 8) |
+                    ((data[i + 2] & 0xFF) << 16) |
+                    ((data[i + 3] & 0xFF) << 24);
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+
+        // Pick up remaining bytes
+        switch (data.length - i) {
+            case 3:
+                h += (data[i + 2] & 0xFF) << 16;
+                // fall through
+            case 2:
+                h += (data[i + 1] & 0xFF) << 8;
+                // fall through
+            case 1:
+                h += data[i] & 0xFF;
+                h *= m;
+                h ^= (h >>> 24);
+                break;
+        }
+        return h;
+    }
+}
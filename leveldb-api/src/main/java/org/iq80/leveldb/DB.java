@@ -18,6 +18,7 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,6 +33,17 @@ public interface DB
     byte[] get(byte[] key, ReadOptions options)
             throws DBException;
 
+    List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException;
+
+    /**
+     * Returns the values of the keys, in the order of the keys, with null for
+     * the keys not found.  All keys are read from the same state of the
+     * database, and each table is searched once for all keys it may hold.
+     */
+    List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException;
+
     @Override
     DBIterator iterator();
 
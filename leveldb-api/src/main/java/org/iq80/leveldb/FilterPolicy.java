@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Builds a small summary of the keys in each table, which lets reads skip
+ * tables that can not contain a key without reading any of their data blocks.
+ */
+public interface FilterPolicy
+{
+    /**
+     * Name of the policy.  It is stored with each filter, and filters written
+     * under another name are ignored.
+     */
+    String name();
+
+    /**
+     * Returns a filter that summarizes the given keys.
+     */
+    byte[] createFilter(List<byte[]> keys);
+
+    /**
+     * Returns false if the key was definitely not one of the keys passed to
+     * {@link #createFilter} when the filter stored in
+     * <code>filter[offset, offset + length)</code> was created.
+     */
+    boolean keyMayMatch(byte[] key, byte[] filter, int offset, int length);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Uses the first {@code prefixLength} bytes of a key as its prefix.  Keys that
+ * are shorter than that have no prefix.
+ */
+public class FixedLengthPrefixExtractor
+        implements PrefixExtractor
+{
+    private final int prefixLength;
+
+    public FixedLengthPrefixExtractor(int prefixLength)
+    {
+        if (prefixLength <= 0) {
+            throw new IllegalArgumentException("prefixLength must be positive");
+        }
+        this.prefixLength = prefixLength;
+    }
+
+    @Override
+    public String name()
+    {
+        return "leveldb.FixedLengthPrefixExtractor." + prefixLength;
+    }
+
+    @Override
+    public int prefixLength(byte[] key, int offset, int length)
+    {
+        return length >= prefixLength ? prefixLength : -1;
+    }
+}
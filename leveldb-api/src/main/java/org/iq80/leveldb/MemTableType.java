@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+public enum MemTableType
+{
+    /**
+     * Entries are kept as heap objects in a concurrent skip list.
+     */
+    SKIP_LIST,
+
+    /**
+     * Encoded entries are kept in off-heap arena chunks that are indexed by a
+     * concurrent skip list, which keeps large write buffers out of the Java heap.
+     * Only the arena counts against {@link Options#writeBufferSize()}; the index
+     * keeps a few small objects per entry on the heap.
+     */
+    OFF_HEAP_ARENA,
+
+    /**
+     * Entries are hashed by the prefix returned from {@link Options#prefixExtractor()}
+     * into buckets that each hold a small concurrent skip list, so a point lookup
+     * is one hash probe plus a search within the bucket.  Ordered iteration merges
+     * the buckets.
+     */
+    HASH_PREFIX
+}
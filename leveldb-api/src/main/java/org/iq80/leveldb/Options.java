@@ -22,18 +22,32 @@ public class Options
     private boolean createIfMissing = true;
     private boolean errorIfExists;
     private int writeBufferSize = 4 << 20;
+    private int maxWriteBufferNumber = 2;
+    private int maxBackgroundFlushes = 1;
+    private int maxBackgroundCompactions = 1;
+    private int maxSubcompactions = 1;
+    private int maxBackgroundReads = 4;
 
     private int maxOpenFiles = 1000;
 
     private int blockRestartInterval = 16;
     private int blockSize = 4 * 1024;
+    private int tableWriteBufferSize = 1 << 20;
+    private long bytesPerSync = 1 << 20;
+    private long delayedWriteRate = 16 << 20;
     private CompressionType compressionType = CompressionType.SNAPPY;
+    private MemTableType memTableType = MemTableType.SKIP_LIST;
     private boolean verifyChecksums = true;
+    private boolean useDirectReads;
     private boolean paranoidChecks;
     private boolean timeSeriesMode;
     private boolean reverseOrdering;
+    private boolean pipelinedWrites;
     private DBComparator comparator;
+    private PrefixExtractor prefixExtractor;
+    private FilterPolicy filterPolicy;
     private Logger logger;
+    private RateLimiter rateLimiter;
     private long cacheSize;
 
     static void checkArgNotNull(Object value, String name)
@@ -76,6 +90,99 @@ public class Options
         return this;
     }
 
+    public int maxWriteBufferNumber()
+    {
+        return maxWriteBufferNumber;
+    }
+
+    /**
+     * Maximum number of memtables, active and waiting to be flushed, that are
+     * held in memory before writes stall.  Must be at least 2.
+     */
+    public Options maxWriteBufferNumber(int maxWriteBufferNumber)
+    {
+        if (maxWriteBufferNumber < 2) {
+            throw new IllegalArgumentException("maxWriteBufferNumber must be at least 2");
+        }
+        this.maxWriteBufferNumber = maxWriteBufferNumber;
+        return this;
+    }
+
+    public int maxBackgroundFlushes()
+    {
+        return maxBackgroundFlushes;
+    }
+
+    /**
+     * Number of threads that write immutable memtables to level 0 tables.
+     * Flushes are scheduled ahead of compactions and never wait for them.
+     */
+    public Options maxBackgroundFlushes(int maxBackgroundFlushes)
+    {
+        if (maxBackgroundFlushes < 1) {
+            throw new IllegalArgumentException("maxBackgroundFlushes must be at least 1");
+        }
+        this.maxBackgroundFlushes = maxBackgroundFlushes;
+        return this;
+    }
+
+    public int maxBackgroundCompactions()
+    {
+        return maxBackgroundCompactions;
+    }
+
+    /**
+     * Number of threads that run compactions.  Compactions only run in
+     * parallel when their input files and key ranges do not overlap.
+     */
+    public Options maxBackgroundCompactions(int maxBackgroundCompactions)
+    {
+        if (maxBackgroundCompactions < 1) {
+            throw new IllegalArgumentException("maxBackgroundCompactions must be at least 1");
+        }
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
+    public int maxSubcompactions()
+    {
+        return maxSubcompactions;
+    }
+
+    /**
+     * Number of threads a single compaction is split across.  The input is
+     * divided into disjoint key ranges at input file boundaries, and each range
+     * is merged into its own output files.
+     */
+    public Options maxSubcompactions(int maxSubcompactions)
+    {
+        if (maxSubcompactions < 1) {
+            throw new IllegalArgumentException("maxSubcompactions must be at least 1");
+        }
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public int maxBackgroundReads()
+    {
+        return maxBackgroundReads;
+    }
+
+    /**
+     * Number of threads that read blocks ahead of iterators and look up keys
+     * of {@link ReadOptions#parallelReads() parallel} multiGets.  The threads
+     * are started on the first such read.  With zero, readahead is disabled
+     * and multiGet looks up keys one table after the other.
+     */
+    public Options maxBackgroundReads(int maxBackgroundReads)
+    {
+        if (maxBackgroundReads < 0) {
+            throw new IllegalArgumentException("maxBackgroundReads must not be negative");
+        }
+        this.maxBackgroundReads = maxBackgroundReads;
+        return this;
+    }
+
     public int maxOpenFiles()
     {
         return maxOpenFiles;
@@ -109,6 +216,63 @@ public class Options
         return this;
     }
 
+    public int tableWriteBufferSize()
+    {
+        return tableWriteBufferSize;
+    }
+
+    /**
+     * Size of the buffer in which table files are assembled before
+     * they are written.  Blocks and their trailers are gathered into writes
+     * of about this size.
+     */
+    public Options tableWriteBufferSize(int tableWriteBufferSize)
+    {
+        if (tableWriteBufferSize <= 0) {
+            throw new IllegalArgumentException("tableWriteBufferSize must be positive");
+        }
+        this.tableWriteBufferSize = tableWriteBufferSize;
+        return this;
+    }
+
+    public long bytesPerSync()
+    {
+        return bytesPerSync;
+    }
+
+    /**
+     * Number of bytes after which table files being written are synced, so
+     * the final sync of a table does not flush it all at once.  Zero syncs
+     * tables only when they are complete.
+     */
+    public Options bytesPerSync(long bytesPerSync)
+    {
+        if (bytesPerSync < 0) {
+            throw new IllegalArgumentException("bytesPerSync must not be negative");
+        }
+        this.bytesPerSync = bytesPerSync;
+        return this;
+    }
+
+    public long delayedWriteRate()
+    {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Bytes per second writes are paced to once compactions fall behind.  The
+     * rate is lowered further as the backlog approaches the point where
+     * writes stop.
+     */
+    public Options delayedWriteRate(long delayedWriteRate)
+    {
+        if (delayedWriteRate <= 0) {
+            throw new IllegalArgumentException("delayedWriteRate must be positive");
+        }
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
     public CompressionType compressionType()
     {
         return compressionType;
@@ -121,6 +285,51 @@ public class Options
         return this;
     }
 
+    public MemTableType memTableType()
+    {
+        return memTableType;
+    }
+
+    public Options memTableType(MemTableType memTableType)
+    {
+        checkArgNotNull(memTableType, "memTableType");
+        this.memTableType = memTableType;
+        return this;
+    }
+
+    public PrefixExtractor prefixExtractor()
+    {
+        return prefixExtractor;
+    }
+
+    /**
+     * Extracts the key prefix used by {@link MemTableType#HASH_PREFIX} memtables.
+     * When set, each table also stores a Bloom filter of the prefixes of its
+     * keys, built with {@link #filterPolicy()} or a ten bits per key
+     * {@link BloomFilterPolicy}, which prefix seeks use to skip tables.
+     */
+    public Options prefixExtractor(PrefixExtractor prefixExtractor)
+    {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    public FilterPolicy filterPolicy()
+    {
+        return filterPolicy;
+    }
+
+    /**
+     * Policy used to build a filter block for each table, or null to write no
+     * filters.  Reads only use filters that were written by a policy with the
+     * same name.
+     */
+    public Options filterPolicy(FilterPolicy filterPolicy)
+    {
+        this.filterPolicy = filterPolicy;
+        return this;
+    }
+
     public boolean verifyChecksums()
     {
         return verifyChecksums;
@@ -132,11 +341,32 @@ public class Options
         return this;
     }
 
+    public boolean useDirectReads()
+    {
+        return useDirectReads;
+    }
+
+    /**
+     * Read tables with {@code O_DIRECT}, bypassing the operating system page
+     * cache. Only applies when tables are not memory mapped, and is ignored
+     * on runtimes or file systems without direct I/O support (it needs JDK 10
+     * or later).
+     */
+    public Options useDirectReads(boolean useDirectReads)
+    {
+        this.useDirectReads = useDirectReads;
+        return this;
+    }
+
     public long cacheSize()
     {
         return cacheSize;
     }
 
+    /**
+     * Sets the size in bytes of the cache of uncompressed data blocks shared
+     * by all tables. Zero, the default, disables block caching.
+     */
     public Options cacheSize(long cacheSize)
     {
         this.cacheSize = cacheSize;
@@ -165,6 +395,21 @@ public class Options
         return this;
     }
 
+    public RateLimiter rateLimiter()
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Limits the rate at which flushes and compactions write tables, so they
+     * leave disk bandwidth to reads.  Unlimited if null.
+     */
+    public Options rateLimiter(RateLimiter rateLimiter)
+    {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
     public boolean paranoidChecks()
     {
         return paranoidChecks;
@@ -197,4 +442,19 @@ public class Options
         this.reverseOrdering = reverseOrdering;
         return this;
     }
+
+    public boolean pipelinedWrites()
+    {
+        return pipelinedWrites;
+    }
+
+    /**
+     * Inserts concurrent write batches into the memtable in parallel once their
+     * log record has been appended, instead of inserting them under the write lock.
+     */
+    public Options pipelinedWrites(boolean pipelinedWrites)
+    {
+        this.pipelinedWrites = pipelinedWrites;
+        return this;
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Maps a key to its prefix.  All keys that share a prefix must also be
+ * adjacent in the order defined by the database comparator.
+ */
+public interface PrefixExtractor
+{
+    String name();
+
+    /**
+     * Returns the length of the prefix of the key stored in
+     * <code>key[offset, offset + length)</code>, or -1 if the key has no prefix.
+     */
+    int prefixLength(byte[] key, int offset, int length);
+}
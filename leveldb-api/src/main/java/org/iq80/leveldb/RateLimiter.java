@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate at which the database writes the tables of
+ * flushes and compactions.  Flushes are served before compactions, so that a
+ * compaction saturating the limit does not hold up the memtable.
+ * <p>
+ * An auto-tuned limiter raises its rate while level 0 backs up, up to eight
+ * times the configured rate when writes start to slow down.
+ */
+public class RateLimiter
+{
+    public enum Priority
+    {
+        /**
+         * Memtable flushes.
+         */
+        HIGH,
+        /**
+         * Compactions.
+         */
+        LOW
+    }
+
+    // at most a tenth of a second worth of tokens is banked, and requests are
+    // split into chunks of that size
+    private static final int REFILL_PERIODS_PER_SECOND = 10;
+    private static final long REFILL_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1) / REFILL_PERIODS_PER_SECOND;
+    private static final int MAX_AUTO_TUNE_FACTOR = 8;
+
+    private final long bytesPerSecond;
+    private final boolean autoTuned;
+
+    private long rate;
+    private double available;
+    private long lastRefillNanos;
+    private int highPriorityWaiters;
+
+    private long totalBytesRequested;
+    private long totalBytesThrottled;
+    private long totalWaitNanos;
+
+    public RateLimiter(long bytesPerSecond)
+    {
+        this(bytesPerSecond, false);
+    }
+
+    public RateLimiter(long bytesPerSecond, boolean autoTuned)
+    {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.autoTuned = autoTuned;
+        this.rate = bytesPerSecond;
+        this.available = burstBytes();
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until {@code bytes} may be written.
+     */
+    public synchronized void request(long bytes, Priority priority)
+    {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority is null");
+        }
+        totalBytesRequested += Math.max(bytes, 0);
+        boolean throttled = false;
+        long start = 0;
+        while (bytes > 0) {
+            refill();
+            long chunk = Math.min(bytes, burstBytes());
+            if (!mayTake(chunk, priority)) {
+                if (!throttled) {
+                    throttled = true;
+                    start = System.nanoTime();
+                    totalBytesThrottled += bytes;
+                }
+                chunk = awaitTokens(bytes, priority);
+            }
+            available -= chunk;
+            bytes -= chunk;
+        }
+        if (throttled) {
+            totalWaitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Takes tokens for bytes that are written without waiting, such as the
+     * records written while holding the database lock.  Later requests wait
+     * for them instead.
+     */
+    public synchronized void charge(long bytes)
+    {
+        if (bytes > 0) {
+            totalBytesRequested += bytes;
+            refill();
+            available -= bytes;
+        }
+    }
+
+    /**
+     * Reports how far level 0 has backed up, from 0 when it is compacted on
+     * time to 1 when writes are slowed down.  Only changes the rate of an
+     * auto-tuned limiter.
+     */
+    public synchronized void setBacklog(double backlog)
+    {
+        if (!autoTuned) {
+            return;
+        }
+        refill();
+        backlog = Math.max(0, Math.min(1, backlog));
+        rate = bytesPerSecond + (long) ((MAX_AUTO_TUNE_FACTOR - 1) * bytesPerSecond * backlog);
+        notifyAll();
+    }
+
+    /**
+     * Returns the current rate, which differs from the configured one while an
+     * auto-tuned limiter is raised.
+     */
+    public synchronized long getBytesPerSecond()
+    {
+        return rate;
+    }
+
+    public boolean isAutoTuned()
+    {
+        return autoTuned;
+    }
+
+    public synchronized long getTotalBytesRequested()
+    {
+        return totalBytesRequested;
+    }
+
+    /**
+     * Returns the number of bytes of requests that had to wait.
+     */
+    public synchronized long getTotalBytesThrottled()
+    {
+        return totalBytesThrottled;
+    }
+
+    /**
+     * Returns the time requests spent waiting, in nanoseconds.
+     */
+    public synchronized long getTotalWaitNanos()
+    {
+        return totalWaitNanos;
+    }
+
+    private boolean mayTake(long chunk, Priority priority)
+    {
+        return available >= chunk && (priority == Priority.HIGH || highPriorityWaiters == 0);
+    }
+
+    /**
+     * Waits until the next chunk of the bytes may be taken and returns its
+     * size.  The chunk shrinks with the burst size if the rate drops meanwhile.
+     */
+    private long awaitTokens(long bytes, Priority priority)
+    {
+        if (priority == Priority.HIGH) {
+            highPriorityWaiters++;
+        }
+        long chunk = Math.min(bytes, burstBytes());
+        try {
+            while (!mayTake(chunk, priority)) {
+                long waitNanos = REFILL_PERIOD_NANOS;
+                if (available < chunk) {
+                    waitNanos = Math.min(waitNanos, (long) ((chunk - available) * TimeUnit.SECONDS.toNanos(1) / rate) + 1);
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                refill();
+                chunk = Math.min(bytes, burstBytes());
+            }
+        }
+        catch (InterruptedException e) {
+            // let the write go ahead, the tokens are paid for by later requests
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            if (priority == Priority.HIGH) {
+                highPriorityWaiters--;
+                notifyAll();
+            }
+        }
+        return chunk;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        available = Math.min(burstBytes(), available + (double) (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    private long burstBytes()
+    {
+        return Math.max(1, rate / REFILL_PERIODS_PER_SECOND);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RateLimiter{bytesPerSecond=" + bytesPerSecond + ", autoTuned=" + autoTuned + '}';
+    }
+}
@@ -22,6 +22,11 @@ public class ReadOptions
     private boolean verifyChecksums;
     private boolean fillCache = true;
     private Snapshot snapshot;
+    private byte[] iterateLowerBound;
+    private byte[] iterateUpperBound;
+    private boolean prefixSameAsStart;
+    private int readaheadSize = 256 * 1024;
+    private boolean parallelReads;
 
     public Snapshot snapshot()
     {
@@ -55,4 +60,87 @@ public class ReadOptions
         this.verifyChecksums = verifyChecksums;
         return this;
     }
+
+    public byte[] iterateLowerBound()
+    {
+        return iterateLowerBound;
+    }
+
+    /**
+     * Smallest key, inclusive, returned by iterators.  Seeks before it land on
+     * it, and tables whose keys all lie below it are not read.
+     */
+    public ReadOptions iterateLowerBound(byte[] iterateLowerBound)
+    {
+        this.iterateLowerBound = iterateLowerBound;
+        return this;
+    }
+
+    public byte[] iterateUpperBound()
+    {
+        return iterateUpperBound;
+    }
+
+    /**
+     * Key, exclusive, at which iterators stop.  Tables and blocks whose keys
+     * all lie at or above it are not read.
+     */
+    public ReadOptions iterateUpperBound(byte[] iterateUpperBound)
+    {
+        this.iterateUpperBound = iterateUpperBound;
+        return this;
+    }
+
+    public boolean prefixSameAsStart()
+    {
+        return prefixSameAsStart;
+    }
+
+    /**
+     * Confines iterators to the keys sharing the prefix of the key last
+     * seeked to, as defined by {@link Options#prefixExtractor}.  Seeks then
+     * skip the tables whose prefix filter rules out that prefix.  Has no
+     * effect without a prefix extractor or after seeking to the first or last
+     * key.
+     */
+    public ReadOptions prefixSameAsStart(boolean prefixSameAsStart)
+    {
+        this.prefixSameAsStart = prefixSameAsStart;
+        return this;
+    }
+
+    public int readaheadSize()
+    {
+        return readaheadSize;
+    }
+
+    /**
+     * Largest number of bytes iterators read ahead of a sequential scan in
+     * the background.  Readahead starts small once consecutive blocks of a
+     * table are read and grows up to this size.  Zero disables it.  Tables
+     * read through memory mappings rely on the operating system instead.
+     */
+    public ReadOptions readaheadSize(int readaheadSize)
+    {
+        if (readaheadSize < 0) {
+            throw new IllegalArgumentException("readaheadSize is negative: " + readaheadSize);
+        }
+        this.readaheadSize = readaheadSize;
+        return this;
+    }
+
+    public boolean parallelReads()
+    {
+        return parallelReads;
+    }
+
+    /**
+     * Lets {@link DB#multiGet} look up keys in different tables of a level
+     * in parallel on background threads.
+     */
+    public ReadOptions parallelReads(boolean parallelReads)
+    {
+        this.parallelReads = parallelReads;
+        return this;
+    }
 }
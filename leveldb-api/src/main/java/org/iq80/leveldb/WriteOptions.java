@@ -21,6 +21,7 @@ public class WriteOptions
 {
     private boolean sync;
     private boolean snapshot;
+    private boolean noSlowdown;
 
     public boolean sync()
     {
@@ -43,4 +44,19 @@ public class WriteOptions
         this.snapshot = snapshot;
         return this;
     }
+
+    public boolean noSlowdown()
+    {
+        return noSlowdown;
+    }
+
+    /**
+     * Fail the write with a {@link DBException} instead of delaying or
+     * blocking it while writes are stalled behind compactions.
+     */
+    public WriteOptions noSlowdown(boolean noSlowdown)
+    {
+        this.noSlowdown = noSlowdown;
+        return this;
+    }
 }
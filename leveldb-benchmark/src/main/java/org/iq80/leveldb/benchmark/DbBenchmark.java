@@ -21,16 +21,21 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
+import org.iq80.leveldb.BloomFilterPolicy;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBFactory;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.FixedLengthPrefixExtractor;
+import org.iq80.leveldb.MemTableType;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 import org.iq80.leveldb.impl.DbImpl;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Slice;
@@ -41,27 +46,64 @@ import org.iq80.leveldb.util.Snappy;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.google.common.base.Charsets.UTF_8;
-import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.EXISTING;
-import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.FRESH;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.RANDOM;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.SEQUENTIAL;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 
 public class DbBenchmark
 {
+    // benchmarks that start from an empty database
+    private static final Set<String> FRESH_BENCHMARKS = ImmutableSet.of(
+            "fillseq", "fillbatch", "fillrandom", "fillsync", "fillsyncthreaded", "fill100K");
+
+    // benchmarks that always run on a single thread
+    private static final Set<String> SINGLE_THREADED_BENCHMARKS = ImmutableSet.of(
+            "compact", "stats", "sstables", "heapprofile", "acquireload");
+
+    private static final Set<String> BENCHMARKS = ImmutableSet.<String>builder()
+            .addAll(FRESH_BENCHMARKS)
+            .addAll(SINGLE_THREADED_BENCHMARKS)
+            .add("overwrite", "readseq", "readreverse", "readrandom", "readrandomthreaded", "readhot", "readrandomsmall")
+            .add("seekrandom", "readwhilewriting", "readrandomwriterandom", "updaterandom")
+            .add("crc32c", "crc32c-pure", "crc32c-direct", "snappycomp", "snappyuncomp", "unsnap-array", "unsnap-direct")
+            .build();
+
     private final boolean useExisting;
     private final Integer writeBufferSize;
+    private final int maxWriteBufferNumber;
+    private final int maxBackgroundFlushes;
+    private final int maxBackgroundCompactions;
+    private final int maxSubcompactions;
+    private final int maxBackgroundReads;
+    private final int bloomBits;
+    private final int cacheSize;
+    private final boolean useDirectReads;
     private final File databaseDir;
     private final double compressionRatio;
-    private long startTime;
+    private final int threads;
+    private final int writeThreads;
+    private final int readThreads;
+    private final int rate;
+    private final int readWritePercent;
+    private final boolean histogram;
+    private final boolean pipelinedWrites;
+    private final MemTableType memTableType;
+    private final int prefixLength;
 
     enum Order
     {
@@ -69,30 +111,13 @@ public class DbBenchmark
         RANDOM
     }
 
-    enum DBState
-    {
-        FRESH,
-        EXISTING
-    }
-
     //    Cache cache_;
     private final List<String> benchmarks;
-    private DB db;
+    private volatile DB db;
     private final int num;
-    private int reads;
+    private final int reads;
     private final int valueSize;
     private int heapCounter;
-    private double lastOpFinish;
-    private long bytes;
-    private String message;
-    private String postMessage;
-    //    private Histogram hist_;
-    private final RandomGenerator generator;
-    private final Random random;
-
-    // State kept for progress messages
-    private int done;
-    private int nextReport;     // When to report next
 
     private final DBFactory factory;
 
@@ -106,11 +131,30 @@ public class DbBenchmark
         reads = (Integer) (flags.get(Flag.reads) == null ? flags.get(Flag.num) : flags.get(Flag.reads));
         valueSize = (Integer) flags.get(Flag.value_size);
         writeBufferSize = (Integer) flags.get(Flag.write_buffer_size);
+        maxWriteBufferNumber = (Integer) flags.get(Flag.max_write_buffer_number);
+        maxBackgroundFlushes = (Integer) flags.get(Flag.max_background_flushes);
+        maxBackgroundCompactions = (Integer) flags.get(Flag.max_background_compactions);
+        maxSubcompactions = (Integer) flags.get(Flag.max_subcompactions);
+        maxBackgroundReads = (Integer) flags.get(Flag.max_background_reads);
+        bloomBits = (Integer) flags.get(Flag.bloom_bits);
+        cacheSize = (Integer) flags.get(Flag.cache_size);
+        useDirectReads = (Boolean) flags.get(Flag.use_direct_reads);
         compressionRatio = (Double) flags.get(Flag.compression_ratio);
+        threads = (Integer) flags.get(Flag.threads);
+        writeThreads = (Integer) flags.get(Flag.write_threads);
+        readThreads = (Integer) flags.get(Flag.read_threads);
+        rate = (Integer) flags.get(Flag.rate);
+        readWritePercent = (Integer) flags.get(Flag.readwritepercent);
+        histogram = (Boolean) flags.get(Flag.histogram);
+        pipelinedWrites = (Boolean) flags.get(Flag.pipelined_writes);
+        memTableType = (MemTableType) flags.get(Flag.memtable_type);
+        prefixLength = (Integer) flags.get(Flag.prefix_length);
         useExisting = (Boolean) flags.get(Flag.use_existing_db);
         heapCounter = 0;
-        bytes = 0;
-        random = new Random(301);
+
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        Preconditions.checkArgument(rate >= 0, "rate must not be negative");
+        Preconditions.checkArgument(readWritePercent >= 0 && readWritePercent <= 100, "readwritepercent must be between 0 and 100");
 
         databaseDir = new File((String) flags.get(Flag.db));
 
@@ -124,8 +168,6 @@ public class DbBenchmark
         if (!useExisting) {
             destroyDb();
         }
-
-        generator = new RandomGenerator(compressionRatio);
     }
 
     private void run()
@@ -135,90 +177,222 @@ public class DbBenchmark
         open();
 
         for (String benchmark : benchmarks) {
-            start();
-
-            boolean known = true;
-
-            if (benchmark.equals("fillseq")) {
-                write(new WriteOptions(), SEQUENTIAL, FRESH, num, valueSize, 1);
-            }
-            else if (benchmark.equals("fillbatch")) {
-                write(new WriteOptions(), SEQUENTIAL, FRESH, num, valueSize, 1000);
-            }
-            else if (benchmark.equals("fillrandom")) {
-                write(new WriteOptions(), RANDOM, FRESH, num, valueSize, 1);
-            }
-            else if (benchmark.equals("overwrite")) {
-                write(new WriteOptions(), RANDOM, EXISTING, num, valueSize, 1);
-            }
-            else if (benchmark.equals("fillsync")) {
-                write(new WriteOptions().sync(true), RANDOM, FRESH, num / 1000, valueSize, 1);
-            }
-            else if (benchmark.equals("fill100K")) {
-                write(new WriteOptions(), RANDOM, FRESH, num / 1000, 100 * 1000, 1);
-            }
-            else if (benchmark.equals("readseq")) {
-                readSequential();
-            }
-            else if (benchmark.equals("readreverse")) {
-                readReverse();
-            }
-            else if (benchmark.equals("readrandom")) {
-                readRandom();
+            if (!BENCHMARKS.contains(benchmark)) {
+                System.err.println("Unknown benchmark: " + benchmark);
+                continue;
             }
-            else if (benchmark.equals("readhot")) {
-                readHot();
+
+            if (FRESH_BENCHMARKS.contains(benchmark)) {
+                if (useExisting) {
+                    System.out.printf("%-12s : skipping (--use_existing_db is true)\n", benchmark);
+                    continue;
+                }
+                db.close();
+                db = null;
+                destroyDb();
+                open();
             }
-            else if (benchmark.equals("readrandomsmall")) {
-                int n = reads;
-                reads /= 1000;
-                readRandom();
-                reads = n;
+
+            int threadCount = threads;
+            if (benchmark.equals("fillsyncthreaded")) {
+                threadCount = writeThreads;
             }
-            else if (benchmark.equals("compact")) {
-                compact();
+            else if (benchmark.equals("readrandomthreaded")) {
+                threadCount = readThreads;
             }
-            else if (benchmark.equals("crc32c")) {
-                crc32c(4096, "(4k per op)");
+            else if (benchmark.equals("readwhilewriting")) {
+                // one more thread keeps writing while the others read
+                threadCount++;
             }
-            else if (benchmark.equals("acquireload")) {
-                acquireLoad();
+            else if (SINGLE_THREADED_BENCHMARKS.contains(benchmark)) {
+                threadCount = 1;
             }
-            else if (benchmark.equals("snappycomp")) {
-                if (Snappy.available()) {
-                    snappyCompress();
+            runBenchmark(benchmark, threadCount);
+        }
+        db.close();
+    }
+
+    private void runBenchmark(final String benchmark, int threadCount)
+    {
+        // pace the measured threads so that together they issue --rate operations per second
+        int pacedThreads = benchmark.equals("readwhilewriting") ? threadCount - 1 : threadCount;
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * pacedThreads / rate : 0;
+
+        final SharedState shared = new SharedState(threadCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<ThreadState> states = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final ThreadState thread = new ThreadState(t, shared, new RandomGenerator(compressionRatio),
+                    new Stats(histogram || intervalNanos > 0, intervalNanos));
+            states.add(thread);
+            workers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        shared.start.await();
+                        thread.stats.start();
+                        runOperations(benchmark, thread);
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                    finally {
+                        thread.stats.stop();
+                        shared.numDone.incrementAndGet();
+                    }
                 }
+            }, benchmark + "-" + t));
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        shared.start.countDown();
+        try {
+            for (Thread worker : workers) {
+                worker.join();
             }
-            else if (benchmark.equals("snappyuncomp")) {
-                if (Snappy.available()) {
-                    snappyUncompressDirectBuffer();
-                }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        if (failure.get() != null) {
+            throw Throwables.propagate(failure.get());
+        }
+
+        Stats merged = null;
+        for (ThreadState thread : states) {
+            if (!thread.measured) {
+                continue;
             }
-            else if (benchmark.equals("unsnap-array")) {
-                if (Snappy.available()) {
-                    snappyUncompressArray();
-                }
+            if (merged == null) {
+                merged = thread.stats;
             }
-            else if (benchmark.equals("unsnap-direct")) {
-                if (Snappy.available()) {
-                    snappyUncompressDirectBuffer();
-                }
+            else {
+                merged.merge(thread.stats);
             }
-            else if (benchmark.equals("heapprofile")) {
-                heapProfile();
+        }
+        merged.report(benchmark);
+    }
+
+    private void runOperations(String benchmark, ThreadState thread)
+            throws IOException
+    {
+        if (benchmark.equals("fillseq")) {
+            write(thread, new WriteOptions(), SEQUENTIAL, num, valueSize, 1);
+        }
+        else if (benchmark.equals("fillbatch")) {
+            write(thread, new WriteOptions(), SEQUENTIAL, num, valueSize, 1000);
+        }
+        else if (benchmark.equals("fillrandom")) {
+            write(thread, new WriteOptions(), RANDOM, num, valueSize, 1);
+        }
+        else if (benchmark.equals("overwrite")) {
+            write(thread, new WriteOptions(), RANDOM, num, valueSize, 1);
+        }
+        else if (benchmark.equals("fillsync")) {
+            thread.stats.addMessage(String.format("(%d ops)", num / 1000));
+            write(thread, new WriteOptions().sync(true), RANDOM, num / 1000, valueSize, 1);
+        }
+        else if (benchmark.equals("fillsyncthreaded")) {
+            thread.stats.addMessage(String.format("(%d ops, %d threads)", num / 1000, thread.shared.total));
+            write(thread, new WriteOptions().sync(true), RANDOM, share(num / 1000, thread), valueSize, 1);
+        }
+        else if (benchmark.equals("fill100K")) {
+            thread.stats.addMessage(String.format("(%d ops)", num / 1000));
+            write(thread, new WriteOptions(), RANDOM, num / 1000, 100 * 1000, 1);
+        }
+        else if (benchmark.equals("readseq")) {
+            readSequential(thread);
+        }
+        else if (benchmark.equals("readreverse")) {
+            readReverse(thread);
+        }
+        else if (benchmark.equals("readrandom")) {
+            readRandom(thread, reads);
+        }
+        else if (benchmark.equals("readrandomthreaded")) {
+            thread.stats.addMessage(String.format("(%d ops, %d threads)", reads, thread.shared.total));
+            readRandom(thread, share(reads, thread));
+        }
+        else if (benchmark.equals("readhot")) {
+            readHot(thread);
+        }
+        else if (benchmark.equals("readrandomsmall")) {
+            readRandom(thread, reads / 1000);
+        }
+        else if (benchmark.equals("seekrandom")) {
+            seekRandom(thread);
+        }
+        else if (benchmark.equals("readwhilewriting")) {
+            readWhileWriting(thread);
+        }
+        else if (benchmark.equals("readrandomwriterandom")) {
+            readRandomWriteRandom(thread);
+        }
+        else if (benchmark.equals("updaterandom")) {
+            updateRandom(thread);
+        }
+        else if (benchmark.equals("compact")) {
+            compact();
+        }
+        else if (benchmark.equals("crc32c")) {
+            crc32c(thread, 4096, "(4k per op)", false, false);
+        }
+        else if (benchmark.equals("crc32c-pure")) {
+            crc32c(thread, 4096, "(4k per op)", true, false);
+        }
+        else if (benchmark.equals("crc32c-direct")) {
+            crc32c(thread, 4096, "(4k per op)", false, true);
+        }
+        else if (benchmark.equals("acquireload")) {
+            acquireLoad();
+        }
+        else if (benchmark.equals("snappycomp")) {
+            if (Snappy.available()) {
+                snappyCompress(thread);
             }
-            else if (benchmark.equals("stats")) {
-                printStats();
+        }
+        else if (benchmark.equals("snappyuncomp")) {
+            if (Snappy.available()) {
+                snappyUncompressDirectBuffer(thread);
             }
-            else {
-                known = false;
-                System.err.println("Unknown benchmark: " + benchmark);
+        }
+        else if (benchmark.equals("unsnap-array")) {
+            if (Snappy.available()) {
+                snappyUncompressArray(thread);
             }
-            if (known) {
-                stop(benchmark);
+        }
+        else if (benchmark.equals("unsnap-direct")) {
+            if (Snappy.available()) {
+                snappyUncompressDirectBuffer(thread);
             }
         }
-        db.close();
+        else if (benchmark.equals("heapprofile")) {
+            heapProfile();
+        }
+        else if (benchmark.equals("stats")) {
+            printStats(thread, "leveldb.stats");
+        }
+        else if (benchmark.equals("sstables")) {
+            printStats(thread, "leveldb.sstables");
+        }
+        else {
+            throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    /**
+     * Returns the part of the operations that the thread runs.
+     */
+    private static int share(int operations, ThreadState thread)
+    {
+        int threadCount = thread.shared.total;
+        return operations / threadCount + (thread.tid < operations % threadCount ? 1 : 0);
     }
 
     private void printHeader()
@@ -236,6 +410,10 @@ public class DbBenchmark
         System.out.printf("FileSize:   %.1f MB (estimated)\n",
                 (((kKeySize + valueSize * compressionRatio) * num)
                         / 1048576.0));
+        System.out.printf("Threads:    %d\n", threads);
+        if (rate > 0) {
+            System.out.printf("Rate:       %d ops/sec\n", rate);
+        }
         printWarnings();
         System.out.printf("------------------------------------------------\n");
     }
@@ -302,94 +480,46 @@ public class DbBenchmark
     {
         Options options = new Options();
         options.createIfMissing(!useExisting);
-        // todo block cache
+        if (cacheSize >= 0) {
+            options.cacheSize(cacheSize);
+        }
+        options.useDirectReads(useDirectReads);
         if (writeBufferSize != null) {
             options.writeBufferSize(writeBufferSize);
         }
-        db = factory.open(databaseDir, options);
-    }
-
-    private void start()
-    {
-        startTime = System.nanoTime();
-        bytes = 0;
-        message = null;
-        lastOpFinish = startTime;
-        // hist.clear();
-        done = 0;
-        nextReport = 100;
-    }
-
-    private void stop(String benchmark)
-    {
-        long endTime = System.nanoTime();
-        double elapsedSeconds = 1.0d * (endTime - startTime) / TimeUnit.SECONDS.toNanos(1);
-
-        // Pretend at least one op was done in case we are running a benchmark
-        // that does nto call FinishedSingleOp().
-        if (done < 1) {
-            done = 1;
-        }
-
-        if (bytes > 0) {
-            String rate = String.format("%6.1f MB/s", (bytes / 1048576.0) / elapsedSeconds);
-            if (message != null) {
-                message = rate + " " + message;
-            }
-            else {
-                message = rate;
-            }
-        }
-        else if (message == null) {
-            message = "";
+        options.maxWriteBufferNumber(maxWriteBufferNumber);
+        options.maxBackgroundFlushes(maxBackgroundFlushes);
+        options.maxBackgroundCompactions(maxBackgroundCompactions);
+        options.maxSubcompactions(maxSubcompactions);
+        options.maxBackgroundReads(maxBackgroundReads);
+        if (bloomBits >= 0) {
+            options.filterPolicy(new BloomFilterPolicy(bloomBits));
         }
-
-        System.out.printf("%-12s : %11.5f micros/op;%s%s\n",
-                benchmark,
-                elapsedSeconds * 1.0e6 / done,
-                (message == null ? "" : " "),
-                message);
-//        if (FLAGS_histogram) {
-//            System.out.printf("Microseconds per op:\n%s\n", hist_.ToString().c_str());
-//        }
-
-        if (postMessage != null) {
-            System.out.printf("\n%s\n", postMessage);
-            postMessage = null;
+        options.pipelinedWrites(pipelinedWrites);
+        options.memTableType(memTableType);
+        if (prefixLength > 0) {
+            options.prefixExtractor(new FixedLengthPrefixExtractor(prefixLength));
         }
-
+        db = factory.open(databaseDir, options);
     }
 
-    private void write(WriteOptions writeOptions, Order order, DBState state, int numEntries, int valueSize, int entriesPerBatch)
+    private void write(ThreadState thread, WriteOptions writeOptions, Order order, int numEntries, int valueSize, int entriesPerBatch)
             throws IOException
     {
-        if (state == FRESH) {
-            if (useExisting) {
-                message = "skipping (--use_existing_db is true)";
-                return;
-            }
-            db.close();
-            db = null;
-            destroyDb();
-            open();
-            start(); // Do not count time taken to destroy/open
-        }
-
-        if (numEntries != num) {
-            message = String.format("(%d ops)", numEntries);
-        }
-
         for (int i = 0; i < numEntries; i += entriesPerBatch) {
+            thread.stats.startOp(entriesPerBatch);
             WriteBatch batch = db.createWriteBatch();
             for (int j = 0; j < entriesPerBatch; j++) {
-                int k = (order == SEQUENTIAL) ? i + j : random.nextInt(num);
+                int k = (order == SEQUENTIAL) ? i + j : thread.random.nextInt(num);
                 byte[] key = formatNumber(k);
-                batch.put(key, generator.generate(valueSize));
-                bytes += valueSize + key.length;
-                finishedSingleOp();
+                batch.put(key, thread.generator.generate(valueSize));
+                thread.stats.addBytes(valueSize + key.length);
             }
             db.write(batch, writeOptions);
             batch.close();
+            for (int j = 0; j < entriesPerBatch; j++) {
+                thread.stats.finishedSingleOp();
+            }
         }
     }
 
@@ -410,77 +540,139 @@ public class DbBenchmark
         return slice;
     }
 
-    private void finishedSingleOp()
+    private void readSequential(ThreadState thread)
     {
-//        if (histogram) {
-//            todo
-//        }
-        done++;
-        if (done >= nextReport) {
-            if (nextReport < 1000) {
-                nextReport += 100;
-            }
-            else if (nextReport < 5000) {
-                nextReport += 500;
-            }
-            else if (nextReport < 10000) {
-                nextReport += 1000;
-            }
-            else if (nextReport < 50000) {
-                nextReport += 5000;
-            }
-            else if (nextReport < 100000) {
-                nextReport += 10000;
-            }
-            else if (nextReport < 500000) {
-                nextReport += 50000;
-            }
-            else {
-                nextReport += 100000;
+        for (int loops = 0; loops < 5; loops++) {
+            DBIterator iterator = db.iterator();
+            for (int i = 0; i < reads && iterator.hasNext(); i++) {
+                thread.stats.startOp(1);
+                Map.Entry<byte[], byte[]> entry = iterator.next();
+                thread.stats.addBytes(entry.getKey().length + entry.getValue().length);
+                thread.stats.finishedSingleOp();
             }
-            System.out.printf("... finished %d ops%30s\r", done, "");
-
+            Closeables.closeQuietly(iterator);
         }
     }
 
-    private void readSequential()
+    private void readReverse(ThreadState thread)
     {
         for (int loops = 0; loops < 5; loops++) {
             DBIterator iterator = db.iterator();
-            for (int i = 0; i < reads && iterator.hasNext(); i++) {
-                Map.Entry<byte[], byte[]> entry = iterator.next();
-                bytes += entry.getKey().length + entry.getValue().length;
-                finishedSingleOp();
+            iterator.seekToLast();
+            for (int i = 0; i < reads && iterator.hasPrev(); i++) {
+                thread.stats.startOp(1);
+                Map.Entry<byte[], byte[]> entry = iterator.prev();
+                thread.stats.addBytes(entry.getKey().length + entry.getValue().length);
+                thread.stats.finishedSingleOp();
             }
             Closeables.closeQuietly(iterator);
         }
     }
 
-    private void readReverse()
+    private void readRandom(ThreadState thread, int operations)
     {
-        //To change body of created methods use File | Settings | File Templates.
+        for (int i = 0; i < operations; i++) {
+            thread.stats.startOp(1);
+            byte[] key = formatNumber(thread.random.nextInt(num));
+            byte[] value = db.get(key);
+            Preconditions.checkNotNull(value, "db.get(%s) is null", new String(key, UTF_8));
+            thread.stats.addBytes(key.length + value.length);
+            thread.stats.finishedSingleOp();
+        }
     }
 
-    private void readRandom()
+    private void readHot(ThreadState thread)
     {
+        int range = (num + 99) / 100;
         for (int i = 0; i < reads; i++) {
-            byte[] key = formatNumber(random.nextInt(num));
+            thread.stats.startOp(1);
+            byte[] key = formatNumber(thread.random.nextInt(range));
             byte[] value = db.get(key);
-            Preconditions.checkNotNull(value, "db.get(%s) is null", new String(key, UTF_8));
-            bytes += key.length + value.length;
-            finishedSingleOp();
+            thread.stats.addBytes(key.length + value.length);
+            thread.stats.finishedSingleOp();
         }
     }
 
-    private void readHot()
+    private void seekRandom(ThreadState thread)
     {
-        int range = (num + 99) / 100;
+        int found = 0;
         for (int i = 0; i < reads; i++) {
-            byte[] key = formatNumber(random.nextInt(range));
+            thread.stats.startOp(1);
+            byte[] key = formatNumber(thread.random.nextInt(num));
+            DBIterator iterator = db.iterator();
+            try {
+                iterator.seek(key);
+                if (iterator.hasNext() && Arrays.equals(iterator.peekNext().getKey(), key)) {
+                    found++;
+                }
+            }
+            finally {
+                Closeables.closeQuietly(iterator);
+            }
+            thread.stats.finishedSingleOp();
+        }
+        thread.stats.addMessage(String.format("(%d of %d found)", found, reads));
+    }
+
+    private void readWhileWriting(ThreadState thread)
+    {
+        if (thread.tid > 0) {
+            readRandom(thread, reads);
+            return;
+        }
+
+        // the first thread writes until all readers are done and is not reported
+        thread.measured = false;
+        while (thread.shared.numDone.get() < thread.shared.total - 1) {
+            byte[] key = formatNumber(thread.random.nextInt(num));
+            db.put(key, thread.generator.generate(valueSize));
+        }
+    }
+
+    private void readRandomWriteRandom(ThreadState thread)
+    {
+        int readOps = 0;
+        int writeOps = 0;
+        int found = 0;
+        for (int i = 0; i < reads; i++) {
+            thread.stats.startOp(1);
+            byte[] key = formatNumber(thread.random.nextInt(num));
+            if (thread.random.nextInt(100) < readWritePercent) {
+                byte[] value = db.get(key);
+                readOps++;
+                if (value != null) {
+                    found++;
+                    thread.stats.addBytes(key.length + value.length);
+                }
+            }
+            else {
+                byte[] value = thread.generator.generate(valueSize);
+                db.put(key, value);
+                writeOps++;
+                thread.stats.addBytes(key.length + value.length);
+            }
+            thread.stats.finishedSingleOp();
+        }
+        thread.stats.addMessage(String.format("(reads:%d writes:%d found:%d)", readOps, writeOps, found));
+    }
+
+    private void updateRandom(ThreadState thread)
+    {
+        int found = 0;
+        for (int i = 0; i < reads; i++) {
+            thread.stats.startOp(1);
+            byte[] key = formatNumber(thread.random.nextInt(num));
             byte[] value = db.get(key);
-            bytes += key.length + value.length;
-            finishedSingleOp();
+            if (value != null) {
+                found++;
+                thread.stats.addBytes(key.length + value.length);
+            }
+            byte[] updated = thread.generator.generate(valueSize);
+            db.put(key, updated);
+            thread.stats.addBytes(key.length + updated.length);
+            thread.stats.finishedSingleOp();
         }
+        thread.stats.addMessage(String.format("(updates:%d found:%d)", reads, found));
     }
 
     private void compact()
@@ -494,7 +686,7 @@ public class DbBenchmark
         }
     }
 
-    private void crc32c(int blockSize, String message)
+    private void crc32c(ThreadState thread, int blockSize, String message, boolean pureJava, boolean direct)
     {
         // Checksum about 500MB of data total
         byte[] data = new byte[blockSize];
@@ -502,21 +694,40 @@ public class DbBenchmark
             data[i] = 'x';
 
         }
+        ByteBuffer directData = ByteBuffer.allocateDirect(blockSize);
+        directData.put(data).flip();
 
         long bytes = 0;
         int crc = 0;
         while (bytes < 1000 * 1048576) {
-            PureJavaCrc32C checksum = new PureJavaCrc32C();
-            checksum.update(data, 0, blockSize);
-            crc = checksum.getMaskedValue();
-            finishedSingleOp();
+            if (pureJava) {
+                PureJavaCrc32C checksum = new PureJavaCrc32C();
+                checksum.update(data, 0, blockSize);
+                crc = checksum.getMaskedValue();
+            }
+            else {
+                Crc32C checksum = new Crc32C();
+                if (direct) {
+                    checksum.update(directData);
+                }
+                else {
+                    checksum.update(data, 0, blockSize);
+                }
+                crc = checksum.getMaskedValue();
+            }
+            thread.stats.finishedSingleOp();
             bytes += blockSize;
         }
         System.out.printf("... crc=0x%x\r", crc);
 
-        this.bytes = bytes;
+        thread.stats.addBytes(bytes);
         // Print so result is not dead
-        this.message = message;
+        if (pureJava) {
+            thread.stats.addMessage(message + " pure java");
+        }
+        else {
+            thread.stats.addMessage(message + (Crc32C.isIntrinsic() ? " intrinsic" : " pure java fallback"));
+        }
     }
 
     private void acquireLoad()
@@ -524,11 +735,12 @@ public class DbBenchmark
         //To change body of created methods use File | Settings | File Templates.
     }
 
-    private void snappyCompress()
+    private void snappyCompress(ThreadState thread)
     {
-        byte[] raw = generator.generate(new Options().blockSize());
+        byte[] raw = thread.generator.generate(new Options().blockSize());
         byte[] compressedOutput = new byte[Snappy.maxCompressedLength(raw.length)];
 
+        long bytes = 0;
         long produced = 0;
 
         // attempt to compress the block
@@ -542,17 +754,18 @@ public class DbBenchmark
                 throw Throwables.propagate(ignored);
             }
 
-            finishedSingleOp();
+            thread.stats.finishedSingleOp();
         }
 
-        message = String.format("(output: %.1f%%)", (produced * 100.0) / bytes);
+        thread.stats.addBytes(bytes);
+        thread.stats.addMessage(String.format("(output: %.1f%%)", (produced * 100.0) / bytes));
     }
 
-    private void snappyUncompressArray()
+    private void snappyUncompressArray(ThreadState thread)
     {
         int inputSize = new Options().blockSize();
         byte[] compressedOutput = new byte[Snappy.maxCompressedLength(inputSize)];
-        byte[] raw = generator.generate(inputSize);
+        byte[] raw = thread.generator.generate(inputSize);
         int compressedLength;
         try {
             compressedLength = Snappy.compress(raw, 0, raw.length, compressedOutput, 0);
@@ -561,6 +774,7 @@ public class DbBenchmark
             throw Throwables.propagate(e);
         }
         // attempt to uncompress the block
+        long bytes = 0;
         while (bytes < 5L * 1024 * 1048576) {  // Compress 1G
             try {
                 Snappy.uncompress(compressedOutput, 0, compressedLength, raw, 0);
@@ -570,15 +784,16 @@ public class DbBenchmark
                 throw Throwables.propagate(ignored);
             }
 
-            finishedSingleOp();
+            thread.stats.finishedSingleOp();
         }
+        thread.stats.addBytes(bytes);
     }
 
-    private void snappyUncompressDirectBuffer()
+    private void snappyUncompressDirectBuffer(ThreadState thread)
     {
         int inputSize = new Options().blockSize();
         byte[] compressedOutput = new byte[Snappy.maxCompressedLength(inputSize)];
-        byte[] raw = generator.generate(inputSize);
+        byte[] raw = thread.generator.generate(inputSize);
         int compressedLength;
         try {
             compressedLength = Snappy.compress(raw, 0, raw.length, compressedOutput, 0);
@@ -592,6 +807,7 @@ public class DbBenchmark
         compressedBuffer.put(compressedOutput, 0, compressedLength);
 
         // attempt to uncompress the block
+        long bytes = 0;
         while (bytes < 5L * 1024 * 1048576) {  // Compress 1G
             try {
                 uncompressedBuffer.clear();
@@ -604,8 +820,9 @@ public class DbBenchmark
                 throw Throwables.propagate(ignored);
             }
 
-            finishedSingleOp();
+            thread.stats.finishedSingleOp();
         }
+        thread.stats.addBytes(bytes);
     }
 
     private void heapProfile()
@@ -620,9 +837,15 @@ public class DbBenchmark
         FileUtils.deleteRecursively(databaseDir);
     }
 
-    private void printStats()
+    private void printStats(ThreadState thread, String property)
     {
-        //To change body of created methods use File | Settings | File Templates.
+        String stats = db.getProperty(property);
+        if (stats == null) {
+            thread.stats.addMessage("(failed)");
+        }
+        else {
+            System.out.printf("\n%s\n", stats);
+        }
     }
 
     public static void main(String[] args)
@@ -663,33 +886,43 @@ public class DbBenchmark
         //      fillrandom    -- write N values in random key order in async mode
         //      overwrite     -- overwrite N values in random key order in async mode
         //      fillsync      -- write N/100 values in random key order in sync mode
+        //      fillsyncthreaded -- fillsync spread over --write_threads concurrent writers
         //      fill100K      -- write N/1000 100K values in random order in async mode
         //      readseq       -- read N times sequentially
         //      readreverse   -- read N times in reverse order
         //      readrandom    -- read N times in random order
+        //      readrandomthreaded -- readrandom spread over --read_threads concurrent readers
         //      readhot       -- read N times in random order from 1% section of DB
+        //      seekrandom    -- N random seeks
+        //      readwhilewriting -- --threads readers run readrandom while one more thread writes
+        //      readrandomwriterandom -- N random reads or writes, --readwritepercent of them reads
+        //      updaterandom  -- N random reads each followed by a write of the same key
         //      crc32c        -- repeated crc32c of 4K of data
+        //      crc32c-pure   -- crc32c using the pure java implementation only
+        //      crc32c-direct -- crc32c of 4K of data in a direct buffer
         //      acquireload   -- load N*1000 times
         //   Meta operations:
         //      compact     -- Compact the entire DB
         //      stats       -- Print DB stats
+        //      sstables    -- Print sstable info
         //      heapprofile -- Dump a heap profile (if supported by this port)
         benchmarks(ImmutableList.of(
                 "fillseq",
                 "fillseq",
                 "fillseq",
                 "fillsync",
+                "fillsyncthreaded",
                 "fillrandom",
                 "overwrite",
                 "fillseq",
                 "readrandom",
                 "readrandom",  // Extra run to allow previous compactions to quiesce
                 "readseq",
-                // "readreverse",
+                "readreverse",
                 "compact",
                 "readrandom",
                 "readseq",
-                // "readreverse",
+                "readreverse",
                 "fill100K",
                 // "crc32c",
                 "snappycomp",
@@ -716,6 +949,38 @@ public class DbBenchmark
                     }
                 },
 
+        // Number of concurrent threads to run each benchmark on
+        threads(1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Total operations per second the benchmark threads issue; 0 for no limit.
+        // Latency is then also measured from the time each operation was due,
+        // so that stalls are not hidden by the operations they delayed.
+        rate(0)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Percentage of the operations of readrandomwriterandom that are reads
+        readwritepercent(90)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
         // Print histogram of operation timings
         histogram(false)
                 {
@@ -768,6 +1033,56 @@ public class DbBenchmark
                     }
                 },
 
+        // Number of concurrent writer threads used by fillsyncthreaded
+        write_threads(32)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Number of concurrent reader threads used by readrandomthreaded
+        read_threads(4)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // If true, concurrent writers insert into the memtable in parallel
+        pipelined_writes(false)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Boolean.parseBoolean(value);
+                    }
+                },
+
+        // Memtable implementation: skip_list, off_heap_arena or hash_prefix
+        memtable_type(MemTableType.SKIP_LIST)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return MemTableType.valueOf(value.toUpperCase());
+                    }
+                },
+
+        // Length of the key prefix used by the hash_prefix memtable; 0 for none
+        prefix_length(0)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
         // Number of bytes to buffer in memtable before compacting
         // (initialized to default value by "main")
         write_buffer_size(null)
@@ -779,6 +1094,67 @@ public class DbBenchmark
                     }
                 },
 
+        // Number of memtables, including those waiting to be flushed, to keep in memory
+        max_write_buffer_number(2)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Number of background threads that flush memtables
+        max_background_flushes(1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Number of background threads that run compactions
+        max_background_compactions(1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Number of threads a single compaction is split across
+        max_subcompactions(1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Number of threads for readahead and parallel multiGet, 0 for none
+        max_background_reads(4)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // Bloom filter bits per key.
+        // Negative means use no bloom filter.
+        bloom_bits(-1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
         // Number of bytes to use as a cache of uncompressed data.
         // Negative means use default settings.
         cache_size(-1)
@@ -790,6 +1166,17 @@ public class DbBenchmark
                     }
                 },
 
+        // If true, read tables with O_DIRECT when they are not memory mapped
+        // (run with -Dleveldb.mmap=false).
+        use_direct_reads(false)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Boolean.parseBoolean(value);
+                    }
+                },
+
         // Maximum number of files to keep open at the same time (use default if == 0)
         open_files(0)
                 {
@@ -825,6 +1212,211 @@ public class DbBenchmark
         }
     }
 
+    /**
+     * State shared by all threads of a benchmark run.
+     */
+    private static final class SharedState
+    {
+        private final int total;
+        // released once all threads are started
+        private final CountDownLatch start = new CountDownLatch(1);
+        private final AtomicInteger numDone = new AtomicInteger();
+
+        private SharedState(int total)
+        {
+            this.total = total;
+        }
+    }
+
+    /**
+     * State of a single benchmark thread.
+     */
+    private static final class ThreadState
+    {
+        private final int tid;
+        private final Random random;
+        private final RandomGenerator generator;
+        private final Stats stats;
+        private final SharedState shared;
+        // false for threads that only produce load and are not reported
+        private boolean measured = true;
+
+        private ThreadState(int tid, SharedState shared, RandomGenerator generator, Stats stats)
+        {
+            this.tid = tid;
+            this.random = new Random(301 + tid);
+            this.generator = generator;
+            this.stats = stats;
+            this.shared = shared;
+        }
+    }
+
+    private static final class Stats
+    {
+        private final boolean recordLatency;
+        // time between operation starts when the rate is limited, or 0
+        private final long intervalNanos;
+        // latency of the operations themselves
+        private final Histogram histogram = new Histogram();
+        // latency from the time each operation was scheduled to start, which
+        // includes the time it waited behind slower ones (coordinated omission)
+        private final Histogram scheduledHistogram = new Histogram();
+        private long start;
+        private long finish;
+        private double seconds;
+        private long done;
+        private long nextReport;
+        private long bytes;
+        private long lastOpFinish;
+        private long nextOpStart;
+        private long opScheduledStart;
+        private String message;
+
+        private Stats(boolean recordLatency, long intervalNanos)
+        {
+            this.recordLatency = recordLatency;
+            this.intervalNanos = intervalNanos;
+        }
+
+        private void start()
+        {
+            start = System.nanoTime();
+            lastOpFinish = start;
+            nextOpStart = start;
+            done = 0;
+            nextReport = 100;
+            bytes = 0;
+            message = null;
+            histogram.clear();
+            scheduledHistogram.clear();
+        }
+
+        private void stop()
+        {
+            finish = System.nanoTime();
+            seconds = 1.0d * (finish - start) / TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private void merge(Stats other)
+        {
+            histogram.merge(other.histogram);
+            scheduledHistogram.merge(other.scheduledHistogram);
+            done += other.done;
+            bytes += other.bytes;
+            seconds += other.seconds;
+            start = Math.min(start, other.start);
+            finish = Math.max(finish, other.finish);
+
+            // Just keep the messages from one thread
+            if (message == null) {
+                message = other.message;
+            }
+        }
+
+        private void addMessage(String message)
+        {
+            if (this.message == null) {
+                this.message = message;
+            }
+            else {
+                this.message = this.message + " " + message;
+            }
+        }
+
+        private void addBytes(long bytes)
+        {
+            this.bytes += bytes;
+        }
+
+        /**
+         * Waits until the next operations are due when the rate is limited.
+         */
+        private void startOp(int operations)
+        {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            while (now < nextOpStart) {
+                LockSupport.parkNanos(nextOpStart - now);
+                now = System.nanoTime();
+            }
+            // operations that fall behind keep their schedule, so the time
+            // they are late for shows up in the scheduled latency
+            opScheduledStart = nextOpStart;
+            nextOpStart += intervalNanos * operations;
+            lastOpFinish = now;
+        }
+
+        private void finishedSingleOp()
+        {
+            if (recordLatency) {
+                long now = System.nanoTime();
+                histogram.add((now - lastOpFinish) / 1000.0);
+                if (intervalNanos > 0) {
+                    scheduledHistogram.add((now - opScheduledStart) / 1000.0);
+                }
+                lastOpFinish = now;
+            }
+
+            done++;
+            if (done >= nextReport) {
+                if (nextReport < 1000) {
+                    nextReport += 100;
+                }
+                else if (nextReport < 5000) {
+                    nextReport += 500;
+                }
+                else if (nextReport < 10000) {
+                    nextReport += 1000;
+                }
+                else if (nextReport < 50000) {
+                    nextReport += 5000;
+                }
+                else if (nextReport < 100000) {
+                    nextReport += 10000;
+                }
+                else if (nextReport < 500000) {
+                    nextReport += 50000;
+                }
+                else {
+                    nextReport += 100000;
+                }
+                System.out.printf("... finished %d ops%30s\r", done, "");
+            }
+        }
+
+        private void report(String benchmark)
+        {
+            // Pretend at least one op was done in case we are running a benchmark
+            // that does not call finishedSingleOp().
+            if (done < 1) {
+                done = 1;
+            }
+
+            String extra = message;
+            if (bytes > 0) {
+                // Rate is computed on actual elapsed time, not the sum of per-thread
+                // elapsed times.
+                double elapsedSeconds = 1.0d * (finish - start) / TimeUnit.SECONDS.toNanos(1);
+                String rate = String.format("%6.1f MB/s", (bytes / 1048576.0) / elapsedSeconds);
+                extra = message == null ? rate : rate + " " + message;
+            }
+
+            System.out.printf("%-12s : %11.5f micros/op;%s%s\n",
+                    benchmark,
+                    seconds * 1.0e6 / done,
+                    (extra == null ? "" : " "),
+                    (extra == null ? "" : extra));
+            if (recordLatency && histogram.getCount() > 0) {
+                System.out.printf("Microseconds per op:\n%s\n", histogram);
+            }
+            if (intervalNanos > 0 && scheduledHistogram.getCount() > 0) {
+                System.out.printf("Microseconds per op from its scheduled start:\n%s\n", scheduledHistogram);
+            }
+        }
+    }
+
     private static class RandomGenerator
     {
         private final Slice data;
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Distribution of operation latencies in exponentially growing buckets, like
+ * the histogram of db_bench.  Percentiles are interpolated within a bucket.
+ */
+final class Histogram
+{
+    private static final double[] BUCKET_LIMITS = bucketLimits();
+
+    private double min;
+    private double max;
+    private double count;
+    private double sum;
+    private double sumSquares;
+    private final double[] buckets = new double[BUCKET_LIMITS.length];
+
+    Histogram()
+    {
+        clear();
+    }
+
+    private static double[] bucketLimits()
+    {
+        List<Double> limits = new ArrayList<>();
+        for (int i = 1; i < 10; i++) {
+            limits.add((double) i);
+        }
+        double[] steps = {1, 1.2, 1.4, 1.6, 1.8, 2, 2.5, 3, 3.5, 4, 4.5, 5, 6, 7, 8, 9};
+        for (double scale = 10; scale <= 1e12; scale *= 10) {
+            for (double step : steps) {
+                limits.add(step * scale);
+            }
+        }
+        limits.add(Double.MAX_VALUE);
+
+        double[] result = new double[limits.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = limits.get(i);
+        }
+        return result;
+    }
+
+    void clear()
+    {
+        min = BUCKET_LIMITS[BUCKET_LIMITS.length - 1];
+        max = 0;
+        count = 0;
+        sum = 0;
+        sumSquares = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+    }
+
+    void add(double value)
+    {
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS.length - 1 && BUCKET_LIMITS[bucket] <= value) {
+            bucket++;
+        }
+        buckets[bucket] += 1.0;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        count++;
+        sum += value;
+        sumSquares += value * value;
+    }
+
+    void merge(Histogram other)
+    {
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+        sum += other.sum;
+        sumSquares += other.sumSquares;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+    }
+
+    double getCount()
+    {
+        return count;
+    }
+
+    double getMax()
+    {
+        return max;
+    }
+
+    double percentile(double p)
+    {
+        double threshold = count * (p / 100.0);
+        double cumulative = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            cumulative += buckets[bucket];
+            if (cumulative >= threshold) {
+                // scale linearly within this bucket
+                double leftPoint = (bucket == 0) ? 0 : BUCKET_LIMITS[bucket - 1];
+                double rightPoint = BUCKET_LIMITS[bucket];
+                double leftSum = cumulative - buckets[bucket];
+                double position = (threshold - leftSum) / (cumulative - leftSum);
+                double result = leftPoint + (rightPoint - leftPoint) * position;
+                return Math.max(min, Math.min(max, result));
+            }
+        }
+        return max;
+    }
+
+    double average()
+    {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    double standardDeviation()
+    {
+        if (count == 0) {
+            return 0;
+        }
+        double variance = (sumSquares * count - sum * sum) / (count * count);
+        return Math.sqrt(Math.max(0, variance));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Count: %.0f  Average: %.4f  StdDev: %.2f\n", count, average(), standardDeviation()));
+        sb.append(String.format("Min: %.4f  Median: %.4f  Max: %.4f\n", count == 0 ? 0 : min, percentile(50), max));
+        sb.append(String.format("Percentiles: P50: %.2f P75: %.2f P99: %.2f P99.9: %.2f P99.99: %.2f\n",
+                percentile(50), percentile(75), percentile(99), percentile(99.9), percentile(99.99)));
+        sb.append("------------------------------------------------------\n");
+        double cumulative = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            if (buckets[bucket] <= 0) {
+                continue;
+            }
+            cumulative += buckets[bucket];
+            sb.append(String.format("[ %7.0f, %7.0f ) %7.0f %7.3f%% %7.3f%% ",
+                    (bucket == 0) ? 0.0 : BUCKET_LIMITS[bucket - 1],
+                    BUCKET_LIMITS[bucket],
+                    buckets[bucket],
+                    100.0 * buckets[bucket] / count,
+                    100.0 * cumulative / count));
+
+            // add hash marks based on percentage; 20 marks for 100%
+            int marks = (int) (20 * (buckets[bucket] / count) + 0.5);
+            for (int i = 0; i < marks; i++) {
+                sb.append('#');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Random;
+
+/**
+ * Generates the keys and values the benchmarks work on.  The data only
+ * depends on the seed, so every fork measures the same input.
+ */
+final class BenchmarkData
+{
+    private static final long SEED = 301;
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * Returns {@code count} distinct keys of {@code keySize} bytes in ascending
+     * order.  The keys are zero padded decimal numbers, so neighbours share
+     * long prefixes like the keys of real tables.
+     */
+    static Slice[] sortedKeys(int count, int keySize)
+    {
+        int digits = String.valueOf(count).length();
+        if (keySize < digits) {
+            throw new IllegalArgumentException("keySize must be at least " + digits);
+        }
+        Slice[] keys = new Slice[count];
+        for (int i = 0; i < count; i++) {
+            String number = String.valueOf(i);
+            byte[] key = new byte[keySize];
+            for (int j = 0; j < keySize; j++) {
+                int digit = j - (keySize - number.length());
+                key[j] = (byte) (digit < 0 ? '0' : number.charAt(digit));
+            }
+            keys[i] = new Slice(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns a random permutation of {@code 0} to {@code count - 1}.
+     */
+    static int[] shuffledIndexes(int count)
+    {
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = i;
+        }
+        Random random = new Random(SEED);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = swap;
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns {@code size} bytes that compress to about half their size, like
+     * the values of db_bench.
+     */
+    static byte[] compressibleBytes(int size)
+    {
+        Random random = new Random(SEED);
+        byte[] bytes = new byte[size];
+        byte[] fragment = new byte[Math.max(1, size / 2)];
+        for (int i = 0; i < fragment.length; i++) {
+            fragment[i] = (byte) (' ' + random.nextInt(95));
+        }
+        for (int i = 0; i < size; i++) {
+            bytes[i] = fragment[i % fragment.length];
+        }
+        return bytes;
+    }
+
+    static Slice value(int valueSize)
+    {
+        return new Slice(compressibleBytes(valueSize));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockBuilder;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeks in and builds data blocks of about the default block size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBenchmark
+{
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param({"16", "100"})
+    private int valueSize;
+
+    @Param({"1", "16", "64"})
+    private int restartInterval;
+
+    private final BytewiseComparator comparator = new BytewiseComparator();
+    private Slice[] keys;
+    private int[] order;
+    private Slice value;
+    private SeekingIterator<Slice, Slice> iterator;
+    private BlockBuilder builder;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        int entries = Math.max(16, BLOCK_SIZE / (keySize + valueSize));
+        keys = BenchmarkData.sortedKeys(entries, keySize);
+        order = BenchmarkData.shuffledIndexes(entries);
+        value = BenchmarkData.value(valueSize);
+        builder = new BlockBuilder(BLOCK_SIZE * 2, restartInterval, comparator);
+        iterator = new Block(build(), comparator).iterator();
+    }
+
+    @Benchmark
+    public Entry<Slice, Slice> seek()
+    {
+        iterator.seek(keys[order[next]]);
+        next = (next + 1) % order.length;
+        return iterator.next();
+    }
+
+    /**
+     * Adds all entries of one block, so divide by the entries per block for
+     * the cost of a single add.
+     */
+    @Benchmark
+    public Slice build()
+    {
+        builder.reset();
+        for (Slice key : keys) {
+            builder.add(key, value);
+        }
+        return builder.finish();
+    }
+}
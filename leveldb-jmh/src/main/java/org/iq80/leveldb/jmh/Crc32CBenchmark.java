@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checksums log records and blocks held in heap arrays and in direct buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Crc32CBenchmark
+{
+    @Param({"100", "4096", "65536"})
+    private int size;
+
+    private final PureJavaCrc32C crc = new PureJavaCrc32C();
+    private byte[] bytes;
+    private ByteBuffer directBuffer;
+
+    @Setup
+    public void setup()
+    {
+        bytes = BenchmarkData.compressibleBytes(size);
+        directBuffer = ByteBuffer.allocateDirect(size);
+        directBuffer.put(bytes);
+        directBuffer.flip();
+    }
+
+    @Benchmark
+    public int array()
+    {
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getMaskedValue();
+    }
+
+    @Benchmark
+    public int directBuffer()
+    {
+        crc.reset();
+        crc.update(directBuffer.duplicate());
+        return crc.getMaskedValue();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.util.fpc.FpcCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and decompresses the values of a time series block with the
+ * predictor table size the time series blocks use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FpcCompressorBenchmark
+{
+    private static final int TABLE_SIZE = 2048;
+
+    @Param({"256", "4096"})
+    private int count;
+
+    private final FpcCompressor compressor = new FpcCompressor(TABLE_SIZE);
+    private double[] values;
+    private double[] decompressed;
+    private ByteBuffer buffer;
+    private ByteBuffer compressed;
+
+    @Setup
+    public void setup()
+    {
+        // a random walk, like the readings of a sensor
+        Random random = new Random(301);
+        values = new double[count];
+        double value = 100;
+        for (int i = 0; i < count; i++) {
+            value += random.nextGaussian();
+            values[i] = Math.round(value * 100) / 100.0;
+        }
+        decompressed = new double[count];
+
+        // a header byte and up to eight bytes per value
+        buffer = ByteBuffer.allocate(count * 9 + 9);
+        compressor.reset();
+        compressor.compress(buffer, values);
+        buffer.flip();
+        compressed = buffer.duplicate();
+    }
+
+    @Benchmark
+    public ByteBuffer compress()
+    {
+        compressor.reset();
+        buffer.clear();
+        compressor.compress(buffer, values);
+        return buffer;
+    }
+
+    @Benchmark
+    public double[] decompress()
+    {
+        compressor.reset();
+        compressor.decompress(compressed.duplicate(), decompressed);
+        return decompressed;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.impl.DefaultInternalKeyFactory;
+import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalKeyFactory;
+import org.iq80.leveldb.impl.ValueType;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares internal keys that differ in the last byte of the user key, which
+ * is the common case between neighbouring keys, and keys that only differ in
+ * their sequence number.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InternalKeyComparatorBenchmark
+{
+    @Param({"16", "64", "256"})
+    private int keySize;
+
+    private final InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+    private InternalKey key;
+    private InternalKey nextKey;
+    private InternalKey olderKey;
+
+    @Setup
+    public void setup()
+    {
+        InternalKeyFactory internalKeyFactory = new DefaultInternalKeyFactory();
+        Slice[] keys = BenchmarkData.sortedKeys(2, keySize);
+        key = internalKeyFactory.createInternalKey(keys[0], 2, ValueType.VALUE);
+        nextKey = internalKeyFactory.createInternalKey(keys[1], 2, ValueType.VALUE);
+        olderKey = internalKeyFactory.createInternalKey(keys[0], 1, ValueType.VALUE);
+    }
+
+    @Benchmark
+    public int compareUserKeys()
+    {
+        return comparator.compare(key, nextKey);
+    }
+
+    @Benchmark
+    public int compareSequenceNumbers()
+    {
+        return comparator.compare(key, olderKey);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.MemTableType;
+import org.iq80.leveldb.impl.ArenaMemTable;
+import org.iq80.leveldb.impl.DefaultInternalKeyFactory;
+import org.iq80.leveldb.impl.InternalKeyComparator;
+import org.iq80.leveldb.impl.InternalKeyFactory;
+import org.iq80.leveldb.impl.LookupKey;
+import org.iq80.leveldb.impl.LookupResult;
+import org.iq80.leveldb.impl.MemTable;
+import org.iq80.leveldb.impl.SkipListMemTable;
+import org.iq80.leveldb.impl.ValueType;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds entries to and looks up keys in memtables of the default write buffer
+ * size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemTableBenchmark
+{
+    private static final int WRITE_BUFFER_SIZE = 4 << 20;
+
+    @Param({"SKIP_LIST", "OFF_HEAP_ARENA"})
+    private MemTableType memTableType;
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    private final InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+    private final InternalKeyFactory internalKeyFactory = new DefaultInternalKeyFactory();
+    private Slice[] keys;
+    private int[] order;
+    private Slice value;
+    private LookupKey[] lookupKeys;
+    private MemTable filledMemTable;
+    private MemTable memTable;
+    private long sequence;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        // as many entries as fit into one write buffer
+        int entries = WRITE_BUFFER_SIZE / (keySize + valueSize);
+        keys = BenchmarkData.sortedKeys(entries, keySize);
+        order = BenchmarkData.shuffledIndexes(entries);
+        value = BenchmarkData.value(valueSize);
+
+        filledMemTable = newMemTable();
+        lookupKeys = new LookupKey[entries];
+        for (int i = 0; i < entries; i++) {
+            Slice key = keys[order[i]];
+            filledMemTable.add(internalKeyFactory.createInternalKey(key, i + 1, ValueType.VALUE), value);
+            lookupKeys[i] = new LookupKey(internalKeyFactory.createInternalKey(key, entries, ValueType.VALUE));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration()
+    {
+        memTable = newMemTable();
+        sequence = 0;
+    }
+
+    private MemTable newMemTable()
+    {
+        switch (memTableType) {
+            case OFF_HEAP_ARENA:
+                return new ArenaMemTable(comparator);
+            default:
+                return new SkipListMemTable(comparator);
+        }
+    }
+
+    @Benchmark
+    public void add()
+    {
+        // start over once the write buffer is full, like a flush would
+        if (sequence % order.length == 0) {
+            memTable = newMemTable();
+        }
+        sequence++;
+        memTable.add(internalKeyFactory.createInternalKey(keys[order[(int) (sequence % order.length)]], sequence, ValueType.VALUE), value);
+    }
+
+    @Benchmark
+    public LookupResult get()
+    {
+        LookupResult result = filledMemTable.get(lookupKeys[next]);
+        next = (next + 1) % lookupKeys.length;
+        return result;
+    }
+}
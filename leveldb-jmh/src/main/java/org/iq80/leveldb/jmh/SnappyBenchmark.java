@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.util.Snappy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compresses and uncompresses blocks that compress to about half their size
+ * with whichever Snappy implementation is on the class path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnappyBenchmark
+{
+    @Param({"4096", "65536"})
+    private int size;
+
+    private byte[] uncompressed;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] output;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        if (!Snappy.available()) {
+            throw new IllegalStateException("Snappy is not available");
+        }
+        uncompressed = BenchmarkData.compressibleBytes(size);
+        compressed = new byte[Snappy.maxCompressedLength(size)];
+        compressedLength = Snappy.compress(uncompressed, 0, size, compressed, 0);
+        output = new byte[Snappy.maxCompressedLength(size)];
+    }
+
+    @Benchmark
+    public int compress()
+            throws IOException
+    {
+        return Snappy.compress(uncompressed, 0, uncompressed.length, output, 0);
+    }
+
+    @Benchmark
+    public byte[] uncompress()
+            throws IOException
+    {
+        Snappy.uncompress(compressed, 0, compressedLength, output, 0);
+        return output;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.jmh;
+
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.SliceOutput;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes varints of a fixed encoded length.  Ints take one to
+ * five bytes and longs twice as many, up to nine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableLengthQuantityBenchmark
+{
+    private static final int VALUES = 1024;
+
+    @Param({"1", "2", "5"})
+    private int encodedLength;
+
+    private final int[] ints = new int[VALUES];
+    private final long[] longs = new long[VALUES];
+    private SliceOutput output;
+    private Slice encodedInts;
+    private Slice encodedLongs;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(301);
+        int intBits = Math.min(32, 7 * encodedLength);
+        int longBits = Math.min(63, 14 * encodedLength);
+        for (int i = 0; i < VALUES; i++) {
+            // setting the highest bit makes every value encode to the same length
+            ints[i] = (1 << (intBits - 1)) | (random.nextInt() & ((1 << (intBits - 1)) - 1));
+            longs[i] = (1L << (longBits - 1)) | (random.nextLong() & ((1L << (longBits - 1)) - 1));
+        }
+
+        output = Slices.allocate(VALUES * 10).output();
+        for (int value : ints) {
+            VariableLengthQuantity.writeVariableLengthInt(value, output);
+        }
+        encodedInts = output.slice();
+        output = Slices.allocate(VALUES * 10).output();
+        for (long value : longs) {
+            VariableLengthQuantity.writeVariableLengthLong(value, output);
+        }
+        encodedLongs = output.slice();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public SliceOutput writeInt()
+    {
+        output.reset();
+        for (int value : ints) {
+            VariableLengthQuantity.writeVariableLengthInt(value, output);
+        }
+        return output;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public int readInt()
+    {
+        SliceInput input = encodedInts.input();
+        int sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += VariableLengthQuantity.readVariableLengthInt(input);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public SliceOutput writeLong()
+    {
+        output.reset();
+        for (long value : longs) {
+            VariableLengthQuantity.writeVariableLengthLong(value, output);
+        }
+        return output;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long readLong()
+    {
+        SliceInput input = encodedLongs.input();
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += VariableLengthQuantity.readVariableLengthLong(input);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.ReverseBytewiseComparator;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_BYTE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Memtable that copies every entry into large off-heap chunks and only keeps a
+ * small node per entry on the heap.  The nodes are ordered by a concurrent skip
+ * list whose comparator reads the encoded keys directly from the chunks.  Like
+ * {@link SkipListMemTable}, adding an entry with the same internal key as an
+ * existing one replaces it; the bytes of the replaced entry stay in the arena.
+ * <p/>
+ * Entries are encoded as:
+ * <pre>
+ *   userKeyLength (int), valueLength (int), sequenceNumber (long), valueType (byte), userKey, value
+ * </pre>
+ * Chunks are never freed explicitly because readers may still reference a
+ * memtable after it has been flushed; they are reclaimed together with the
+ * memtable by the garbage collector.
+ */
+public class ArenaMemTable
+        extends MemTable
+{
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final int ENTRY_HEADER_SIZE = SIZE_OF_INT + SIZE_OF_INT + SIZE_OF_LONG + SIZE_OF_BYTE;
+    private static final int VALUE_LENGTH_OFFSET = SIZE_OF_INT;
+    private static final int SEQUENCE_OFFSET = VALUE_LENGTH_OFFSET + SIZE_OF_INT;
+    private static final int VALUE_TYPE_OFFSET = SEQUENCE_OFFSET + SIZE_OF_LONG;
+
+    // marks keys created by the time series key factory so they are decoded as such
+    private static final int TIME_SERIES_KEY = 0x80;
+
+    private final UserComparator userComparator;
+    // 1 or -1 when keys can be compared in place, 0 when they must be copied for the user comparator
+    private final int bytewiseOrder;
+    // maps each entry to itself; the value is replaced when an equal key is added
+    private final ConcurrentSkipListMap<Node, Node> index;
+    private final AtomicLong arenaBytes = new AtomicLong();
+
+    private ByteBuffer chunk;
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        userComparator = internalKeyComparator.getUserComparator();
+        if (userComparator.getClass() == BytewiseComparator.class) {
+            bytewiseOrder = 1;
+        }
+        else if (userComparator.getClass() == ReverseBytewiseComparator.class) {
+            bytewiseOrder = -1;
+        }
+        else {
+            bytewiseOrder = 0;
+        }
+
+        index = new ConcurrentSkipListMap<>(new Comparator<Node>()
+        {
+            @Override
+            public int compare(Node left, Node right)
+            {
+                return compareNodes(left, right);
+            }
+        });
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return index.isEmpty();
+    }
+
+    /**
+     * Returns the number of arena bytes consumed by entries, including replaced
+     * entries and the unusable tail of each filled chunk.  The heap used by the
+     * index, a node and a skip list node per entry, is not included.
+     */
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return arenaBytes.get();
+    }
+
+    @Override
+    public void add(InternalKey key, Slice value)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        Slice userKey = key.getUserKey();
+        int valueType = key.getValueType().getPersistentId();
+        if (key instanceof TSInternalKey) {
+            valueType |= TIME_SERIES_KEY;
+        }
+
+        Node node = allocate(ENTRY_HEADER_SIZE + userKey.length() + value.length());
+        ByteBuffer buffer = node.chunk.duplicate();
+        buffer.position(node.offset);
+        buffer.putInt(userKey.length());
+        buffer.putInt(value.length());
+        buffer.putLong(key.getSequenceNumber());
+        buffer.put((byte) valueType);
+        buffer.put(userKey.getRawArray(), userKey.getRawOffset(), userKey.length());
+        buffer.put(value.getRawArray(), value.getRawOffset(), value.length());
+
+        index.put(node, node);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        Entry<Node, Node> indexEntry = index.ceilingEntry(new Node(key.getInternalKey()));
+        if (indexEntry == null) {
+            return null;
+        }
+
+        // the value is the most recently added entry for the key
+        Node entry = indexEntry.getValue();
+
+        if (entry.userKeyEquals(key.getUserKey())) {
+            if (entry.valueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key);
+            }
+            else {
+                return LookupResult.ok(key, entry.value());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MemTableIterator iterator()
+    {
+        return new ArenaMemTableIterator();
+    }
+
+    private synchronized Node allocate(int size)
+    {
+        if (size > CHUNK_SIZE / 4) {
+            // Large entries get a chunk of their own so the current chunk is not wasted
+            arenaBytes.addAndGet(size);
+            return new Node(ByteBuffer.allocateDirect(size), 0);
+        }
+        if (chunk == null || chunk.remaining() < size) {
+            if (chunk != null) {
+                arenaBytes.addAndGet(chunk.remaining());
+            }
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        Node node = new Node(chunk, chunk.position());
+        chunk.position(chunk.position() + size);
+        arenaBytes.addAndGet(size);
+        return node;
+    }
+
+    private int compareNodes(Node left, Node right)
+    {
+        int result;
+        if (bytewiseOrder != 0) {
+            result = compareBytewise(left, right) * bytewiseOrder;
+        }
+        else {
+            result = userComparator.compare(left.userKey(), right.userKey());
+        }
+        if (result != 0) {
+            return result;
+        }
+        return Longs.compare(right.sequenceNumber(), left.sequenceNumber()); // reverse sorted version numbers
+    }
+
+    private static int compareBytewise(Node left, Node right)
+    {
+        int leftLength = left.userKeyLength();
+        int rightLength = right.userKeyLength();
+        int minLength = Math.min(leftLength, rightLength);
+        for (int i = 0; i < minLength; i++) {
+            int leftByte = 0xFF & left.userKeyByte(i);
+            int rightByte = 0xFF & right.userKeyByte(i);
+            if (leftByte != rightByte) {
+                return leftByte - rightByte;
+            }
+        }
+        return leftLength - rightLength;
+    }
+
+    /**
+     * Index entry pointing at an encoded entry in a chunk, or a search key that
+     * has not been copied into the arena.
+     */
+    private static final class Node
+    {
+        private final ByteBuffer chunk;
+        private final int offset;
+        private final InternalKey searchKey;
+
+        private Node(ByteBuffer chunk, int offset)
+        {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.searchKey = null;
+        }
+
+        private Node(InternalKey searchKey)
+        {
+            this.chunk = null;
+            this.offset = 0;
+            this.searchKey = searchKey;
+        }
+
+        private int userKeyLength()
+        {
+            if (searchKey != null) {
+                return searchKey.getUserKey().length();
+            }
+            return chunk.getInt(offset);
+        }
+
+        private byte userKeyByte(int index)
+        {
+            if (searchKey != null) {
+                return searchKey.getUserKey().getByte(index);
+            }
+            return chunk.get(offset + ENTRY_HEADER_SIZE + index);
+        }
+
+        private long sequenceNumber()
+        {
+            if (searchKey != null) {
+                return searchKey.getSequenceNumber();
+            }
+            return chunk.getLong(offset + SEQUENCE_OFFSET);
+        }
+
+        private ValueType valueType()
+        {
+            return ValueType.getValueTypeByPersistentId((byte) (chunk.get(offset + VALUE_TYPE_OFFSET) & ~TIME_SERIES_KEY));
+        }
+
+        private boolean userKeyEquals(Slice userKey)
+        {
+            int length = userKeyLength();
+            if (length != userKey.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (userKeyByte(i) != userKey.getByte(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Slice userKey()
+        {
+            if (searchKey != null) {
+                return searchKey.getUserKey();
+            }
+            return copy(offset + ENTRY_HEADER_SIZE, userKeyLength());
+        }
+
+        private Slice value()
+        {
+            int valueLength = chunk.getInt(offset + VALUE_LENGTH_OFFSET);
+            return copy(offset + ENTRY_HEADER_SIZE + userKeyLength(), valueLength);
+        }
+
+        private InternalKey key()
+        {
+            Slice userKey = userKey();
+            long sequenceNumber = sequenceNumber();
+            ValueType valueType = valueType();
+            if ((chunk.get(offset + VALUE_TYPE_OFFSET) & TIME_SERIES_KEY) != 0) {
+                return new TSInternalKey(userKey, sequenceNumber, valueType);
+            }
+            return new InternalKey(userKey, sequenceNumber, valueType);
+        }
+
+        private Slice copy(int position, int length)
+        {
+            Slice slice = Slices.allocate(length);
+            ByteBuffer buffer = chunk.duplicate();
+            buffer.position(position);
+            buffer.get(slice.getRawArray(), slice.getRawOffset(), length);
+            return slice;
+        }
+    }
+
+    private class ArenaMemTableIterator
+            extends NavigableMemTableIterator<Node>
+    {
+        public ArenaMemTableIterator()
+        {
+            seekToFirst();
+        }
+
+        @Override
+        protected Iterator<Node> ascending(Node from, boolean inclusive)
+        {
+            if (from == null) {
+                return index.values().iterator();
+            }
+            return index.tailMap(from, inclusive).values().iterator();
+        }
+
+        @Override
+        protected Iterator<Node> descending(Node from, boolean inclusive)
+        {
+            if (from == null) {
+                return index.descendingMap().values().iterator();
+            }
+            return index.headMap(from, inclusive).descendingMap().values().iterator();
+        }
+
+        @Override
+        protected Node searchElement(InternalKey key)
+        {
+            return new Node(key);
+        }
+
+        @Override
+        protected InternalEntry entry(Node node)
+        {
+            return new InternalEntry(node.key(), node.value());
+        }
+    }
+}
@@ -73,6 +73,28 @@ public class Compaction
         this.edit = new VersionEdit(internalKeyFactory);
     }
 
+    private Compaction(Compaction compaction)
+    {
+        this.inputVersion = compaction.inputVersion;
+        this.level = compaction.level;
+        this.levelInputs = compaction.levelInputs;
+        this.levelUpInputs = compaction.levelUpInputs;
+        this.grandparents = compaction.grandparents;
+        this.maxOutputFileSize = compaction.maxOutputFileSize;
+        this.inputs = compaction.inputs;
+        this.edit = compaction.edit;
+    }
+
+    /**
+     * Returns a compaction over the same inputs with its own output splitting
+     * and base level state, so that a disjoint key range of this compaction can
+     * be processed on another thread.  The edit is shared with this compaction.
+     */
+    public Compaction newSubcompaction()
+    {
+        return new Compaction(this);
+    }
+
     public int getLevel()
     {
         return level;
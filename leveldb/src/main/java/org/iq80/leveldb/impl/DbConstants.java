@@ -44,6 +44,18 @@ public final class DbConstants
      */
     public static final int L0_STOP_WRITES_TRIGGER = 12;
 
+    /**
+     * Soft limit on the estimated bytes compactions are behind.  We slow down
+     * writes at this point.
+     */
+    public static final long PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER = 64L << 30;
+
+    /**
+     * Maximum estimated bytes compactions may fall behind.  We stop writes at
+     * this point.
+     */
+    public static final long PENDING_COMPACTION_BYTES_STOP_TRIGGER = 256L << 30;
+
     /**
      * Maximum level to which a new compacted memtable is pushed if it
      * does not create overlap.  We try to push to level 2 to avoid the
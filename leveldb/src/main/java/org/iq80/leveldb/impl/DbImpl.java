@@ -19,13 +19,19 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.MemTableType;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.PrefixExtractor;
 import org.iq80.leveldb.Range;
+import org.iq80.leveldb.RateLimiter;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
@@ -34,8 +40,11 @@ import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
+import org.iq80.leveldb.impl.WriteController.StallCause;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.PrefixFilterPolicy;
 import org.iq80.leveldb.table.ReverseBytewiseComparator;
 import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
@@ -49,27 +58,39 @@ import org.iq80.leveldb.util.Snappy;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
+import static org.iq80.leveldb.impl.DbConstants.L0_COMPACTION_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
-import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
@@ -83,6 +104,11 @@ import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 public class DbImpl
         implements DB
 {
+    private static final int MAX_WRITE_GROUP_SIZE = 1 << 20;
+    private static final int SMALL_WRITE_GROUP_SIZE = 128 << 10;
+    private static final String PROPERTY_PREFIX = "leveldb.";
+    private static final String NUM_FILES_AT_LEVEL_PROPERTY = "num-files-at-level";
+
     private final Options options;
     private final File databaseDir;
     private final TableCache tableCache;
@@ -93,19 +119,51 @@ public class DbImpl
     private final ReentrantLock mutex = new ReentrantLock();
     private final Condition backgroundCondition = mutex.newCondition();
 
-    private final List<Long> pendingOutputs = newArrayList(); // todo
+    // Published under the mutex each time the memtables or the current version
+    // change; point reads pin it without taking the mutex
+    private final AtomicReference<ReadView> readView = new AtomicReference<>();
+    private final AtomicBoolean compactionSignalled = new AtomicBoolean();
+
+    // table files being written by background threads
+    private final Set<Long> pendingOutputs = Sets.newConcurrentHashSet();
+
+    // Writers waiting to commit; the head of the queue is the current group leader
+    private final Deque<Writer> writers = new ArrayDeque<>();
+    // Pipelined writers that have been logged but not yet published, in sequence order
+    private final Deque<Writer> pendingInserts = new ArrayDeque<>();
+    private final Condition pendingInsertsCondition = mutex.newCondition();
+    private long reservedSequence;
+    // delays and stops writes while flushes and compactions fall behind
+    private final WriteController writeController;
+    // cause of the delay or stop the current leader is waiting out, or null
+    private StallCause activeStall;
+    // statistics of the flushes and compactions that wrote into each level
+    private final CompactionStats[] compactionStats = new CompactionStats[NUM_LEVELS];
 
     private LogWriter log;
 
     private MemTable memTable;
-    private MemTable immutableMemTable;
+    // memtables waiting to be flushed, oldest first
+    private final Deque<ImmutableMemTable> immutableMemTables = new ArrayDeque<>();
 
     private final InternalKeyFactory internalKeyFactory;
     private final InternalKeyComparator internalKeyComparator;
+    // user filter policy applied to internal keys, or null
+    private final FilterPolicy filterPolicy;
+    private final FilterPolicy prefixFilterPolicy;
 
     private volatile Throwable backgroundException;
+    private final ExecutorService flushExecutor;
     private final ExecutorService compactionExecutor;
-    private Future<?> backgroundCompaction;
+    // runs the additional key ranges of a compaction; null without subcompactions
+    private final ExecutorService subcompactionExecutor;
+    // reads table blocks ahead of sequential scans and for parallel multiGet
+    // null if the database has no read threads
+    private final ReadExecutor readExecutor;
+    // background tasks that have been submitted and not yet finished
+    private int scheduledFlushes;
+    private int scheduledCompactions;
+    private int suspensionCounter;
 
     private ManualCompaction manualCompaction;
 
@@ -114,8 +172,14 @@ public class DbImpl
     {
         Preconditions.checkNotNull(options, "options is null");
         Preconditions.checkNotNull(databaseDir, "databaseDir is null");
+        Preconditions.checkArgument(options.memTableType() != MemTableType.HASH_PREFIX || options.prefixExtractor() != null,
+                "A prefix extractor is required for the hash prefix memtable");
         this.options = options;
 
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            compactionStats[level] = new CompactionStats();
+        }
+
         if (this.options.compressionType() == CompressionType.SNAPPY && !Snappy.available()) {
             // Disable snappy if it's not available.
             this.options.compressionType(CompressionType.NONE);
@@ -134,27 +198,29 @@ public class DbImpl
         }
         internalKeyFactory = options.timeSeriesMode() ? new TSInternalKeyFactory() : new DefaultInternalKeyFactory();
         internalKeyComparator = new InternalKeyComparator(userComparator);
-        memTable = new MemTable(internalKeyComparator);
-        immutableMemTable = null;
+        filterPolicy = options.filterPolicy() != null ? new InternalFilterPolicy(options.filterPolicy(), internalKeyFactory) : null;
+        PrefixFilterPolicy userPrefixFilterPolicy = PrefixFilterPolicy.fromOptions(options);
+        prefixFilterPolicy = userPrefixFilterPolicy != null ? new InternalFilterPolicy(userPrefixFilterPolicy, internalKeyFactory) : null;
+        memTable = newMemTable();
+
+        flushExecutor = Executors.newFixedThreadPool(options.maxBackgroundFlushes(), newThreadFactory("leveldb-flush-%s"));
+        compactionExecutor = Executors.newFixedThreadPool(options.maxBackgroundCompactions(), newThreadFactory("leveldb-compaction-%s"));
+        if (options.maxSubcompactions() > 1) {
+            // the compaction thread itself works on the first key range
+            int subcompactionThreads = options.maxBackgroundCompactions() * (options.maxSubcompactions() - 1);
+            subcompactionExecutor = Executors.newFixedThreadPool(subcompactionThreads, newThreadFactory("leveldb-subcompaction-%s"));
+        }
+        else {
+            subcompactionExecutor = null;
+        }
 
-        ThreadFactory compactionThreadFactory = new ThreadFactoryBuilder()
-                .setNameFormat("leveldb-compaction-%s")
-                .setUncaughtExceptionHandler(new UncaughtExceptionHandler()
-                {
-                    @Override
-                    public void uncaughtException(Thread t, Throwable e)
-                    {
-                        // todo need a real UncaughtExceptionHandler
-                        System.out.printf("%s%n", t);
-                        e.printStackTrace();
-                    }
-                })
-                .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        readExecutor = options.maxBackgroundReads() > 0 ? new ReadExecutor(options.maxBackgroundReads()) : null;
+        writeController = new WriteController(options.delayedWriteRate(), options.maxWriteBufferNumber());
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyFactory, internalKeyComparator), options, internalKeyFactory);
+        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyFactory, internalKeyComparator), options, internalKeyFactory, filterPolicy, prefixFilterPolicy,
+                readExecutor);
 
         // create the version set
 
@@ -177,7 +243,7 @@ public class DbImpl
                 Preconditions.checkArgument(!options.errorIfExists(), "Database '%s' exists and the error if exists option is enabled", databaseDir);
             }
 
-            versions = new VersionSet(databaseDir, tableCache, internalKeyFactory, internalKeyComparator);
+            versions = new VersionSet(databaseDir, tableCache, internalKeyFactory, internalKeyComparator, options.rateLimiter());
 
             // load  (and recover) current version
             versions.recover();
@@ -222,6 +288,7 @@ public class DbImpl
 
             // apply recovered edits
             versions.logAndApply(edit);
+            installReadView();
 
             // cleanup unused files
             deleteObsoleteFiles();
@@ -234,6 +301,23 @@ public class DbImpl
         }
     }
 
+    private static ThreadFactory newThreadFactory(String nameFormat)
+    {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setUncaughtExceptionHandler(new UncaughtExceptionHandler()
+                {
+                    @Override
+                    public void uncaughtException(Thread t, Throwable e)
+                    {
+                        // todo need a real UncaughtExceptionHandler
+                        System.out.printf("%s%n", t);
+                        e.printStackTrace();
+                    }
+                })
+                .build();
+    }
+
     @Override
     public void close()
     {
@@ -243,7 +327,7 @@ public class DbImpl
 
         mutex.lock();
         try {
-            while (backgroundCompaction != null) {
+            while (scheduledFlushes > 0 || scheduledCompactions > 0) {
                 backgroundCondition.awaitUninterruptibly();
             }
         }
@@ -251,13 +335,32 @@ public class DbImpl
             mutex.unlock();
         }
 
+        flushExecutor.shutdown();
         compactionExecutor.shutdown();
+        if (subcompactionExecutor != null) {
+            subcompactionExecutor.shutdown();
+        }
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+        }
         try {
+            flushExecutor.awaitTermination(1, TimeUnit.DAYS);
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            if (subcompactionExecutor != null) {
+                subcompactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            }
+            // reads still running must not hit closed tables
+            if (readExecutor != null) {
+                readExecutor.awaitTermination();
+            }
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        ReadView view = readView.getAndSet(null);
+        if (view != null) {
+            view.release();
+        }
         try {
             versions.destroy();
         }
@@ -272,11 +375,155 @@ public class DbImpl
         dbLock.release();
     }
 
+    /**
+     * Supports the properties of leveldb, which are
+     * {@code leveldb.num-files-at-level<N>}, {@code leveldb.stats},
+     * {@code leveldb.sstables} and {@code leveldb.approximate-memory-usage},
+     * as well as {@code leveldb.estimate-pending-compaction-bytes} and
+     * {@code leveldb.stall-micros}.  Returns null for any other name.
+     */
     @Override
     public String getProperty(String name)
     {
         checkBackgroundException();
-        return null;
+        Preconditions.checkNotNull(name, "name is null");
+        if (!name.startsWith(PROPERTY_PREFIX)) {
+            return null;
+        }
+        String property = name.substring(PROPERTY_PREFIX.length());
+        if (property.equals("approximate-memory-usage")) {
+            // only the memtables need the mutex
+            return String.valueOf(getApproximateMemoryUsage());
+        }
+
+        mutex.lock();
+        try {
+            if (property.startsWith(NUM_FILES_AT_LEVEL_PROPERTY)) {
+                int level;
+                try {
+                    level = Integer.parseInt(property.substring(NUM_FILES_AT_LEVEL_PROPERTY.length()));
+                }
+                catch (NumberFormatException e) {
+                    return null;
+                }
+                if (level < 0 || level >= NUM_LEVELS) {
+                    return null;
+                }
+                return String.valueOf(versions.numberOfFilesInLevel(level));
+            }
+            else if (property.equals("stats")) {
+                return getStats();
+            }
+            else if (property.equals("sstables")) {
+                return getSSTables();
+            }
+            else if (property.equals("estimate-pending-compaction-bytes")) {
+                return String.valueOf(versions.getPendingCompactionBytes());
+            }
+            else if (property.equals("stall-micros")) {
+                long stallNanos = 0;
+                for (StallCause cause : StallCause.values()) {
+                    stallNanos += writeController.getDelayNanos(cause) + writeController.getStopNanos(cause);
+                }
+                return String.valueOf(TimeUnit.NANOSECONDS.toMicros(stallNanos));
+            }
+            return null;
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    private String getStats()
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("                               Compactions\n");
+        sb.append("Level  Files Size(MB) Time(sec) Read(MB) Write(MB)\n");
+        sb.append("--------------------------------------------------\n");
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            int files = versions.numberOfFilesInLevel(level);
+            CompactionStats stats = compactionStats[level];
+            if (files > 0 || stats.nanos > 0) {
+                sb.append(String.format(Locale.ENGLISH, "%3d %8d %8.0f %9.0f %8.0f %9.0f\n",
+                        level,
+                        files,
+                        Compaction.totalFileSize(versions.getCurrent().getFiles(level)) / 1048576.0,
+                        stats.nanos / 1e9,
+                        stats.bytesRead / 1048576.0,
+                        stats.bytesWritten / 1048576.0));
+            }
+        }
+
+        sb.append("\n");
+        sb.append("                          Write stalls\n");
+        sb.append("Cause                    Delays Delay(sec)  Stops Stop(sec)\n");
+        sb.append("-----------------------------------------------------------\n");
+        for (StallCause cause : StallCause.values()) {
+            sb.append(String.format(Locale.ENGLISH, "%-24s %6d %10.3f %6d %9.3f\n",
+                    cause.name().toLowerCase(Locale.ENGLISH),
+                    writeController.getDelayCount(cause),
+                    writeController.getDelayNanos(cause) / 1e9,
+                    writeController.getStopCount(cause),
+                    writeController.getStopNanos(cause) / 1e9));
+        }
+        sb.append(String.format(Locale.ENGLISH, "Delayed write rate (MB/s): %.1f\n", writeController.getWriteRate() / 1048576.0));
+        sb.append(String.format(Locale.ENGLISH, "Pending compaction (MB): %.0f\n", versions.getPendingCompactionBytes() / 1048576.0));
+        return sb.toString();
+    }
+
+    private String getSSTables()
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        StringBuilder sb = new StringBuilder();
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            sb.append("--- level ").append(level).append(" ---\n");
+            for (FileMetaData file : versions.getCurrent().getFiles(level)) {
+                sb.append(' ').append(file.getNumber());
+                sb.append(':').append(file.getFileSize());
+                sb.append('[');
+                appendInternalKey(sb, file.getSmallest());
+                sb.append(" .. ");
+                appendInternalKey(sb, file.getLargest());
+                sb.append("]\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendInternalKey(StringBuilder sb, InternalKey key)
+    {
+        sb.append('\'').append(key.getUserKey().toString(UTF_8)).append('\'');
+        sb.append(" @ ").append(key.getSequenceNumber());
+        sb.append(" : ").append(key.getValueType().getPersistentId());
+    }
+
+    /**
+     * Returns the bytes held by the memtables, the open tables and the block cache.
+     */
+    private long getApproximateMemoryUsage()
+    {
+        Preconditions.checkState(!mutex.isHeldByCurrentThread());
+
+        long usage;
+        mutex.lock();
+        try {
+            usage = memTable.approximateMemoryUsage();
+            for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+                usage += immutableMemTable.memTable.approximateMemoryUsage();
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+        usage += tableCache.getApproximateMemoryUsage();
+        BlockCache blockCache = tableCache.getBlockCache();
+        if (blockCache != null) {
+            usage += blockCache.getUsage();
+        }
+        return usage;
     }
 
     private void deleteObsoleteFiles()
@@ -339,10 +586,10 @@ public class DbImpl
         mutex.lock();
         try {
             // force compaction
-            makeRoomForWrite(true);
+            commit(new Writer(null, false, false));
 
             // todo bg_error code
-            while (immutableMemTable != null) {
+            while (!immutableMemTables.isEmpty()) {
                 backgroundCondition.awaitUninterruptibly();
             }
 
@@ -383,119 +630,236 @@ public class DbImpl
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        if (backgroundCompaction != null) {
-            // Already scheduled
-        }
-        else if (shuttingDown.get()) {
+        if (shuttingDown.get()) {
             // DB is being shutdown; no more background compactions
+            return;
         }
-        else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
-            // No work to be done
+        if (suspensionCounter > 0 || backgroundException != null) {
+            // Compactions are suspended or a previous background task failed
+            return;
         }
-        else {
-            backgroundCompaction = compactionExecutor.submit(new Callable<Void>()
-            {
-                @Override
-                public Void call()
-                        throws Exception
-                {
-                    try {
-                        backgroundCall();
-                    }
-                    catch (DatabaseShutdownException ignored) {
-                    }
-                    catch (Throwable e) {
-                        backgroundException = e;
-                    }
-                    return null;
+
+        // Flushes are scheduled first and run on their own threads, so a
+        // long compaction never holds up a memtable flush
+        for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+            if (scheduledFlushes >= options.maxBackgroundFlushes()) {
+                break;
+            }
+            if (!immutableMemTable.flushing) {
+                scheduleFlush(immutableMemTable);
+            }
+        }
+
+        while (scheduledCompactions < options.maxBackgroundCompactions()) {
+            Compaction compaction;
+            boolean manual = manualCompaction != null;
+            if (manual) {
+                // Manual compactions run on their own
+                if (manualCompaction.scheduled || scheduledCompactions > 0) {
+                    break;
                 }
-            });
+                compaction = versions.compactRange(manualCompaction.level,
+                        internalKeyFactory.createInternalKey(manualCompaction.begin, internalKeyFactory.maxSequenceNumber(), VALUE),
+                        internalKeyFactory.createInternalKey(manualCompaction.end, 0, DELETION));
+                if (compaction == null) {
+                    // Nothing to compact in the range
+                    manualCompaction = null;
+                    backgroundCondition.signalAll();
+                    continue;
+                }
+                manualCompaction.scheduled = true;
+            }
+            else if (versions.needsCompaction()) {
+                compaction = versions.pickCompaction();
+                if (compaction == null) {
+                    // Every candidate overlaps a running compaction
+                    break;
+                }
+            }
+            else {
+                // No work to be done
+                break;
+            }
+            scheduleCompaction(compaction, manual);
         }
     }
 
-    public void checkBackgroundException()
+    private void scheduleFlush(final ImmutableMemTable immutableMemTable)
     {
-        Throwable e = backgroundException;
-        if (e != null) {
-            throw new BackgroundProcessingException(e);
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        // Table file numbers are handed out in memtable order, which keeps the
+        // level 0 files ordered by age however the flushes finish
+        if (immutableMemTable.fileNumber == 0) {
+            immutableMemTable.fileNumber = versions.getNextFileNumber();
+            pendingOutputs.add(immutableMemTable.fileNumber);
         }
+        immutableMemTable.flushing = true;
+        scheduledFlushes++;
+        flushExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mutex.lock();
+                try {
+                    if (!shuttingDown.get()) {
+                        backgroundFlush(immutableMemTable);
+                    }
+                }
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                finally {
+                    scheduledFlushes--;
+                    backgroundFinished();
+                }
+            }
+        });
     }
 
-    private void backgroundCall()
-            throws IOException
+    private void scheduleCompaction(final Compaction compaction, final boolean manual)
     {
-        mutex.lock();
-        try {
-            if (backgroundCompaction == null) {
-                return;
-            }
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-            try {
-                if (!shuttingDown.get()) {
-                    backgroundCompaction();
+        scheduledCompactions++;
+        compactionExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mutex.lock();
+                try {
+                    if (!shuttingDown.get()) {
+                        backgroundCompaction(compaction, manual);
+                    }
+                }
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                finally {
+                    versions.finishCompaction(compaction);
+                    if (manual) {
+                        // manual compaction complete
+                        manualCompaction = null;
+                    }
+                    scheduledCompactions--;
+                    backgroundFinished();
                 }
             }
-            finally {
-                backgroundCompaction = null;
-            }
+        });
+    }
+
+    private void backgroundFinished()
+    {
+        try {
+            // Previous compaction may have produced too many files in a level,
+            // so reschedule another compaction if needed.
+            maybeScheduleCompaction();
         }
         finally {
             try {
-                // Previous compaction may have produced too many files in a level,
-                // so reschedule another compaction if needed.
-                maybeScheduleCompaction();
+                backgroundCondition.signalAll();
             }
             finally {
-                try {
-                    backgroundCondition.signalAll();
-                }
-                finally {
-                    mutex.unlock();
-                }
+                mutex.unlock();
             }
         }
     }
 
-    private void backgroundCompaction()
+    public void checkBackgroundException()
+    {
+        Throwable e = backgroundException;
+        if (e != null) {
+            throw new BackgroundProcessingException(e);
+        }
+    }
+
+    private void backgroundFlush(ImmutableMemTable immutableMemTable)
             throws IOException
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        compactMemTableInternal();
+        // write the memtable to a new sstable, skipping empty mem tables
+        long start = System.nanoTime();
+        mutex.unlock();
+        try {
+            if (!immutableMemTable.memTable.isEmpty()) {
+                immutableMemTable.table = buildTable(immutableMemTable.memTable, immutableMemTable.fileNumber);
+            }
+        }
+        finally {
+            mutex.lock();
+        }
+        immutableMemTable.flushNanos = System.nanoTime() - start;
 
-        Compaction compaction;
-        if (manualCompaction != null) {
-            compaction = versions.compactRange(manualCompaction.level,
-                    internalKeyFactory.createInternalKey(manualCompaction.begin, internalKeyFactory.maxSequenceNumber(), VALUE),
-                    internalKeyFactory.createInternalKey(manualCompaction.end, 0, DELETION));
+        if (shuttingDown.get()) {
+            throw new DatabaseShutdownException("Database shutdown during memtable compaction");
         }
-        else {
-            compaction = versions.pickCompaction();
+        immutableMemTable.flushed = true;
+
+        // Install the flushed memtables in the order they were frozen, so that
+        // the log number only advances past logs whose data is in a table
+        boolean installed = false;
+        while (!immutableMemTables.isEmpty() && immutableMemTables.getFirst().flushed) {
+            ImmutableMemTable oldest = immutableMemTables.getFirst();
+            VersionEdit edit = new VersionEdit(internalKeyFactory);
+
+            // Note that if file size is zero, the file has been deleted and
+            // should not be added to the manifest.
+            FileMetaData meta = oldest.table;
+            int level = 0;
+            if (meta != null && meta.getFileSize() > 0) {
+                Slice minUserKey = meta.getSmallest().getUserKey();
+                Slice maxUserKey = meta.getLargest().getUserKey();
+                level = versions.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+                edit.addFile(level, meta);
+            }
+            compactionStats[level].add(oldest.flushNanos, 0, meta != null ? meta.getFileSize() : 0);
+
+            // Replace immutable memtable with the generated Table
+            edit.setPreviousLogNumber(0);
+            edit.setLogNumber(oldest.nextLogNumber);  // Earlier logs no longer needed
+            versions.logAndApply(edit);
+
+            pendingOutputs.remove(oldest.fileNumber);
+            immutableMemTables.removeFirst();
+            installed = true;
         }
 
-        if (compaction == null) {
-            // no compaction
+        if (installed) {
+            installReadView();
+            deleteObsoleteFiles();
         }
-        else if (manualCompaction == null && compaction.isTrivialMove()) {
+    }
+
+    private void backgroundCompaction(Compaction compaction, boolean manual)
+            throws IOException
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        if (!manual && compaction.isTrivialMove()) {
             // Move file to next level
             Preconditions.checkState(compaction.getLevelInputs().size() == 1);
             FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
             compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
             versions.logAndApply(compaction.getEdit());
+            installReadView();
             // log
         }
         else {
             CompactionState compactionState = new CompactionState(compaction);
-            doCompactionWork(compactionState);
-            cleanupCompaction(compactionState);
-        }
-
-        // manual compaction complete
-        if (manualCompaction != null) {
-            manualCompaction = null;
+            try {
+                doCompactionWork(compactionState);
+            }
+            finally {
+                cleanupCompaction(compactionState);
+            }
         }
     }
 
@@ -545,7 +909,7 @@ public class DbImpl
 
                 // apply entries to memTable
                 if (memTable == null) {
-                    memTable = new MemTable(internalKeyComparator);
+                    memTable = newMemTable();
                 }
                 final long[] lastSequence = { 0 };
                 writeBatch.forEach(new InsertIntoHandler(internalKeyFactory, memTable, sequenceBegin) {
@@ -590,48 +954,43 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
-        LookupKey lookupKey;
-        mutex.lock();
-        try {
-            SnapshotImpl snapshot = getSnapshot(options);
-            lookupKey = new LookupKey(internalKeyFactory.createInternalKey(Slices.wrappedBuffer(key), snapshot.getLastSequence(), ValueType.VALUE));
 
-            // First look in the memtable, then in the immutable memtable (if any).
-            LookupResult lookupResult = memTable.get(lookupKey);
-            if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
-                }
-                return value.getBytes();
-            }
-            if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
+        // Read the sequence before pinning the view: every write up to that
+        // sequence is in one of the view's memtables or in its version
+        long sequence;
+        if (options.snapshot() != null) {
+            sequence = ((SnapshotImpl) options.snapshot()).getLastSequence();
+        }
+        else {
+            sequence = versions.getLastSequence();
+        }
+        LookupKey lookupKey = new LookupKey(internalKeyFactory.createInternalKey(Slices.wrappedBuffer(key), sequence, ValueType.VALUE));
+
+        ReadView view = acquireReadView();
+        LookupResult lookupResult;
+        try {
+            // First look in the memtable, then in the immutable memtables from newest to oldest.
+            lookupResult = view.getMemTable().get(lookupKey);
+            for (MemTable immutableMemTable : view.getImmutableMemTables()) {
                 if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-                    if (value == null) {
-                        return null;
-                    }
-                    return value.getBytes();
+                    break;
                 }
+                lookupResult = immutableMemTable.get(lookupKey);
             }
-        }
-        finally {
-            mutex.unlock();
-        }
 
-        // Not in memTables; try live files in level order
-        LookupResult lookupResult = versions.get(lookupKey);
+            // Not in memTables; try live files in level order
+            if (lookupResult == null) {
+                Version version = view.getVersion();
+                lookupResult = version.get(lookupKey, options.fillCache());
 
-        // schedule compaction if necessary
-        mutex.lock();
-        try {
-            if (versions.needsCompaction()) {
-                maybeScheduleCompaction();
+                // schedule compaction if necessary
+                if (version.needsCompaction()) {
+                    signalCompaction();
+                }
             }
         }
         finally {
-            mutex.unlock();
+            view.release();
         }
 
         if (lookupResult != null) {
@@ -643,6 +1002,181 @@ public class DbImpl
         return null;
     }
 
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException
+    {
+        return multiGet(keys, new ReadOptions());
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        checkBackgroundException();
+
+        long sequence;
+        if (options.snapshot() != null) {
+            sequence = ((SnapshotImpl) options.snapshot()).getLastSequence();
+        }
+        else {
+            sequence = versions.getLastSequence();
+        }
+
+        // sorted keys visit the files of a level, and the blocks of a file, in order
+        final List<Slice> userKeys = new ArrayList<>(keys.size());
+        List<Integer> order = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            order.add(userKeys.size());
+            userKeys.add(Slices.wrappedBuffer(key));
+        }
+        final UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Collections.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return userComparator.compare(userKeys.get(left), userKeys.get(right));
+            }
+        });
+        List<LookupKey> lookupKeys = new ArrayList<>(keys.size());
+        for (int index : order) {
+            lookupKeys.add(new LookupKey(internalKeyFactory.createInternalKey(userKeys.get(index), sequence, ValueType.VALUE)));
+        }
+        MultiGetBatch batch = new MultiGetBatch(lookupKeys, userComparator);
+
+        ReadView view = acquireReadView();
+        try {
+            // First look in the memtable, then in the immutable memtables from newest to oldest.
+            for (int index = 0; index < batch.size(); index++) {
+                LookupResult lookupResult = view.getMemTable().get(batch.getKey(index));
+                for (MemTable immutableMemTable : view.getImmutableMemTables()) {
+                    if (lookupResult != null) {
+                        break;
+                    }
+                    lookupResult = immutableMemTable.get(batch.getKey(index));
+                }
+                batch.setResult(index, lookupResult);
+            }
+
+            // Not in memTables; try live files in level order
+            if (!batch.isDone()) {
+                Version version = view.getVersion();
+                version.get(batch, options.fillCache(), options.parallelReads() ? readExecutor : null);
+
+                // schedule compaction if necessary
+                if (version.needsCompaction()) {
+                    signalCompaction();
+                }
+            }
+        }
+        finally {
+            view.release();
+        }
+
+        byte[][] values = new byte[keys.size()][];
+        for (int index = 0; index < batch.size(); index++) {
+            LookupResult lookupResult = batch.getResult(index);
+            if (lookupResult != null && lookupResult.getValue() != null) {
+                values[order.get(index)] = lookupResult.getValue().getBytes();
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    private MemTable newMemTable()
+    {
+        switch (options.memTableType()) {
+            case OFF_HEAP_ARENA:
+                return new ArenaMemTable(internalKeyComparator);
+            case HASH_PREFIX:
+                return new HashPrefixMemTable(internalKeyComparator, options.prefixExtractor());
+            default:
+                return new SkipListMemTable(internalKeyComparator);
+        }
+    }
+
+    private ReadView acquireReadView()
+    {
+        while (true) {
+            ReadView view = readView.get();
+            if (view == null) {
+                throw new DatabaseShutdownException("Database has been closed");
+            }
+            if (view.tryRetain()) {
+                return view;
+            }
+        }
+    }
+
+    /**
+     * Publishes a new read view after the memtables or the current version changed.
+     */
+    private void installReadView()
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        ReadView previous = readView.getAndSet(new ReadView(memTable, getImmutableMemTables(), versions.getCurrent()));
+        if (previous != null) {
+            previous.release();
+        }
+
+        // let an auto-tuned limiter speed up compactions while level 0 backs up
+        RateLimiter rateLimiter = options.rateLimiter();
+        if (rateLimiter != null && rateLimiter.isAutoTuned()) {
+            int level0Files = versions.numberOfFilesInLevel(0);
+            rateLimiter.setBacklog((double) (level0Files - L0_COMPACTION_TRIGGER) / (L0_SLOWDOWN_WRITES_TRIGGER - L0_COMPACTION_TRIGGER));
+        }
+
+        writeController.update(versions.numberOfFilesInLevel(0), versions.getPendingCompactionBytes(), immutableMemTables.size());
+    }
+
+    /**
+     * Returns the memtables waiting to be flushed, newest first.
+     */
+    private List<MemTable> getImmutableMemTables()
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        ImmutableList.Builder<MemTable> builder = ImmutableList.builder();
+        for (Iterator<ImmutableMemTable> iterator = immutableMemTables.descendingIterator(); iterator.hasNext(); ) {
+            builder.add(iterator.next().memTable);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Asks the compaction thread to schedule a compaction without taking the mutex
+     * on the caller's thread.  At most one request is outstanding at a time.
+     */
+    private void signalCompaction()
+    {
+        if (shuttingDown.get() || !compactionSignalled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactionExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mutex.lock();
+                    try {
+                        compactionSignalled.set(false);
+                        maybeScheduleCompaction();
+                    }
+                    finally {
+                        mutex.unlock();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // database is shutting down
+            compactionSignalled.set(false);
+        }
+    }
+
     @Override
     public void put(byte[] key, byte[] value)
             throws DBException
@@ -693,13 +1227,93 @@ public class DbImpl
         try {
             long sequenceEnd;
             if (updates.size() != 0) {
-                makeRoomForWrite(false);
-                
-                // Get sequence numbers for this change set
-                long sequenceBegin;
-                boolean timeSeriesMode = DbImpl.this.options.timeSeriesMode();
+                sequenceEnd = commit(new Writer(updates, options.sync(), options.noSlowdown()));
+            }
+            else {
+                sequenceEnd = versions.getLastSequence();
+            }
+
+            if (options.snapshot()) {
+                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+            }
+            else {
+                return null;
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Queues the writer and waits until its batch has been committed.  The writer
+     * at the head of the queue acts as the leader for all writers queued behind it:
+     * it merges their batches into a single log record, appends (and optionally
+     * syncs) that record once, inserts the whole group into the memtable and then
+     * wakes the followers.  A writer without a batch forces a memtable switch.
+     * <p/>
+     * With {@link Options#pipelinedWrites()} enabled the leader only reserves the
+     * sequence numbers and appends the log record; every member of the group then
+     * inserts its own batch concurrently (see {@link #insertAndPublish}).
+     *
+     * @return the last sequence number assigned to the writer's batch
+     */
+    private long commit(Writer writer)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        // do not queue behind a leader that is waiting out a stall
+        if (writer.noSlowdown && activeStall != null) {
+            throw newWriteStallException(activeStall);
+        }
+        writers.addLast(writer);
+        while (!writer.done && writers.peekFirst() != writer) {
+            writer.condition.awaitUninterruptibly();
+        }
+        if (writer.done) {
+            if (writer.error != null) {
+                throw Throwables.propagate(writer.error);
+            }
+            if (writer.memTable != null) {
+                return insertAndPublish(writer);
+            }
+            return writer.sequenceEnd;
+        }
+
+        Writer lastWriter = writer;
+        Throwable error = null;
+        try {
+            try {
+                makeRoomForWrite(writer);
+            }
+            finally {
+                activeStall = null;
+            }
+            if (writer.batch == null) {
+                return versions.getLastSequence();
+            }
+
+            List<Writer> group = buildBatchGroup(writer);
+            lastWriter = group.get(group.size() - 1);
+            WriteBatchImpl updates = writer.batch;
+            if (group.size() > 1) {
+                updates = new WriteBatchImpl();
+                for (Writer member : group) {
+                    updates.append(member.batch);
+                }
+                // the followers ride along with the leader's delay, but their
+                // bytes still count against the writes that come next
+                writeController.charge(updates.getApproximateSize() - writer.batch.getApproximateSize());
+            }
+
+            // Get sequence numbers for this change set.  With pipelined writes
+            // the sequence reserved by earlier groups may not be published yet.
+            long lastSequence = Math.max(versions.getLastSequence(), reservedSequence);
+            long sequenceBegin;
+            long sequenceEnd;
+            boolean timeSeriesMode = DbImpl.this.options.timeSeriesMode();
 		if (timeSeriesMode) {
-		    final long[] minMax = new long[] { internalKeyFactory.maxSequenceNumber(), versions.getLastSequence() + 1 };
+		    final long[] minMax = new long[] { internalKeyFactory.maxSequenceNumber(), lastSequence + 1 };
 		    updates.forEach(new Handler() {
 			long localSequence = minMax[1];
 			
@@ -722,39 +1336,179 @@ public class DbImpl
 		    sequenceBegin = minMax[0];
 		    sequenceEnd = minMax[1];
 		} else {
-		    sequenceBegin = versions.getLastSequence() + 1;
+		    sequenceBegin = lastSequence + 1;
 	            sequenceEnd = sequenceBegin + updates.size() - 1;
 		}
-                
-                // Reserve this sequence in the version set
-                versions.setLastSequence(sequenceEnd);
+            reservedSequence = sequenceEnd;
+
+            // Hand each member of the group its own sequence range
+            long memberSequence = sequenceBegin;
+            for (Writer member : group) {
+                member.sequenceBegin = timeSeriesMode ? sequenceBegin : memberSequence;
+                memberSequence += member.batch.size();
+                member.sequenceEnd = timeSeriesMode ? sequenceEnd : memberSequence - 1;
+            }
 
-                // Log write
-                Slice record = writeWriteBatch(updates, sequenceBegin);
+            Slice record = writeWriteBatch(updates, sequenceBegin);
+            MemTable memTable = this.memTable;
+            if (options.pipelinedWrites()) {
+                // Append the record under the mutex and let every member insert
+                // its own batch once the group has been released.
                 try {
-                    log.addRecord(record, options.sync());
+                    log.addRecord(record, writer.sync);
                 }
-                catch (IOException e) {
+                catch (Throwable e) {
+                    // the sequence is reserved but the log may hold part of the record
+                    backgroundException = e;
                     throw Throwables.propagate(e);
                 }
-
-                // Update memtable
-                updates.forEach(new InsertIntoHandler(internalKeyFactory, memTable, sequenceBegin));
+                for (Writer member : group) {
+                    member.memTable = memTable;
+                    pendingInserts.addLast(member);
+                }
             }
             else {
-                sequenceEnd = versions.getLastSequence();
-            }
+                // Log write and memtable insert.  Only the leader touches the log and
+                // the memtable, so the mutex can be released while doing the I/O.
+                mutex.unlock();
+                try {
+                    log.addRecord(record, writer.sync);
+                    updates.forEach(new InsertIntoHandler(internalKeyFactory, memTable, sequenceBegin));
+                }
+                catch (Throwable e) {
+                    // the log and the memtable may now be out of step with the
+                    // sequence, so fail all later writes
+                    backgroundException = e;
+                    throw Throwables.propagate(e);
+                }
+                finally {
+                    mutex.lock();
+                }
 
-            if (options.snapshot()) {
-                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+                // Publish the new sequence only after the memtable has been updated
+                versions.setLastSequence(sequenceEnd);
             }
-            else {
-                return null;
+        }
+        catch (Throwable e) {
+            error = e;
+            throw Throwables.propagate(e);
+        }
+        finally {
+            while (true) {
+                Writer ready = writers.removeFirst();
+                if (ready != writer) {
+                    ready.error = error;
+                    ready.done = true;
+                    ready.condition.signal();
+                }
+                if (ready == lastWriter) {
+                    break;
+                }
             }
+
+            // Notify new head of write queue
+            if (!writers.isEmpty()) {
+                writers.peekFirst().condition.signal();
+            }
+        }
+
+        if (writer.memTable != null) {
+            return insertAndPublish(writer);
+        }
+        return writer.sequenceEnd;
+    }
+
+    /**
+     * Inserts the batch of a pipelined writer into the memtable without holding
+     * the mutex, then publishes the sequence numbers of all writers that have
+     * finished inserting in log order.  Returns once the writer's own sequence
+     * is visible to readers.
+     */
+    private long insertAndPublish(Writer writer)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        Throwable error = null;
+        mutex.unlock();
+        try {
+            writer.batch.forEach(new InsertIntoHandler(internalKeyFactory, writer.memTable, writer.sequenceBegin));
+        }
+        catch (Throwable e) {
+            error = e;
         }
         finally {
-            mutex.unlock();
+            mutex.lock();
+        }
+        if (error != null) {
+            // the memtable may hold part of the batch
+            backgroundException = error;
+        }
+
+        writer.inserted = true;
+        boolean published = false;
+        while (!pendingInserts.isEmpty() && pendingInserts.peekFirst().inserted) {
+            Writer ready = pendingInserts.removeFirst();
+            ready.memTable = null;
+            if (ready.sequenceEnd > versions.getLastSequence()) {
+                versions.setLastSequence(ready.sequenceEnd);
+            }
+            published = true;
+        }
+        if (published) {
+            pendingInsertsCondition.signalAll();
+        }
+        while (writer.memTable != null) {
+            pendingInsertsCondition.awaitUninterruptibly();
+        }
+
+        if (error != null) {
+            throw Throwables.propagate(error);
+        }
+        return writer.sequenceEnd;
+    }
+
+    /**
+     * Collects the leader and the writers queued directly behind it whose
+     * batches can share a single log record.
+     */
+    private List<Writer> buildBatchGroup(Writer leader)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+        Preconditions.checkState(writers.peekFirst() == leader);
+
+        // Allow the group to grow up to a maximum size, but if the
+        // original write is small, limit the growth so we do not slow
+        // down the small write too much.
+        long size = leader.batch.getApproximateSize();
+        long maxSize = MAX_WRITE_GROUP_SIZE;
+        if (size <= SMALL_WRITE_GROUP_SIZE) {
+            maxSize = size + SMALL_WRITE_GROUP_SIZE;
+        }
+
+        List<Writer> group = newArrayList();
+        for (Writer member : writers) {
+            if (member != leader) {
+                if (member.batch == null) {
+                    // Do not merge a forced memtable switch into this group
+                    break;
+                }
+                if (member.sync && !leader.sync) {
+                    // Do not include a sync write into a batch handled by a non-sync write.
+                    break;
+                }
+                if (member.noSlowdown != leader.noSlowdown) {
+                    // Do not mix writes that may be stalled with writes that may not
+                    break;
+                }
+                size += member.batch.getApproximateSize();
+                if (size > maxSize) {
+                    // Do not make batch too big
+                    break;
+                }
+            }
+            group.add(member);
         }
+        return group;
     }
 
     @Override
@@ -776,11 +1530,17 @@ public class DbImpl
         checkBackgroundException();
         mutex.lock();
         try {
-            DbIterator rawIterator = internalIterator();
+            // files and blocks outside of the bounds are never opened
+            Slice lowerBound = options.iterateLowerBound() == null ? null : Slices.wrappedBuffer(options.iterateLowerBound());
+            Slice upperBound = options.iterateUpperBound() == null ? null : Slices.wrappedBuffer(options.iterateUpperBound());
+            // prefix seeks skip the tables whose prefix filter rules out the prefix
+            PrefixExtractor prefixExtractor = options.prefixSameAsStart() ? this.options.prefixExtractor() : null;
+            DbIterator rawIterator = internalIterator(options.fillCache(), lowerBound, upperBound, prefixExtractor != null, options.readaheadSize());
 
             // filter any entries not visible in our snapshot
             SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), internalKeyFactory);
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), internalKeyFactory,
+                    lowerBound, upperBound, prefixExtractor);
             return new SeekingIteratorAdapter(snapshotIterator);
         }
         finally {
@@ -802,15 +1562,54 @@ public class DbImpl
 
     DbIterator internalIterator()
     {
+        return internalIterator(true);
+    }
+
+    DbIterator internalIterator(boolean fillCache)
+    {
+        return internalIterator(fillCache, null, null, false);
+    }
+
+    /**
+     * Returns an iterator that skips the tables and blocks holding only user
+     * keys below {@code lowerBound} or at and above {@code upperBound}.  With
+     * {@code prefixSeek} set, seeks also skip the tables whose prefix filter
+     * rules out the prefix of the target.
+     */
+    DbIterator internalIterator(boolean fillCache, Slice lowerBound, Slice upperBound, boolean prefixSeek)
+    {
+        return internalIterator(fillCache, lowerBound, upperBound, prefixSeek, 0);
+    }
+
+    /**
+     * Returns a bounded iterator whose table iterators read up to
+     * {@code readaheadSize} bytes ahead of forward scans.
+     */
+    DbIterator internalIterator(boolean fillCache, Slice lowerBound, Slice upperBound, boolean prefixSeek, int readaheadSize)
+    {
+        InternalKey lowerInternalKey = null;
+        if (lowerBound != null) {
+            lowerInternalKey = internalKeyFactory.createInternalKey(lowerBound, internalKeyFactory.maxSequenceNumber(), VALUE);
+        }
+        InternalKey upperInternalKey = null;
+        if (upperBound != null) {
+            upperInternalKey = internalKeyFactory.createInternalKey(upperBound, internalKeyFactory.maxSequenceNumber(), VALUE);
+        }
+
         mutex.lock();
         try {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            MemTableIterator iterator = null;
-            if (immutableMemTable != null) {
-                iterator = immutableMemTable.iterator();
+            // merge together the memTable, immutable memtables, and tables in version set
+            List<MemTableIterator> immutableIterators = newArrayList();
+            for (MemTable immutableMemTable : getImmutableMemTables()) {
+                immutableIterators.add(immutableMemTable.iterator(prefixSeek));
             }
             Version current = versions.getCurrent();
-            return new DbIterator(memTable.iterator(), iterator, current.getLevel0Files(), current.getLevelIterators(), internalKeyComparator);
+            return new DbIterator(memTable.iterator(prefixSeek),
+                    immutableIterators,
+                    current.getLevel0Files(fillCache, lowerInternalKey, upperInternalKey, readaheadSize),
+                    current.getLevelIterators(fillCache, lowerInternalKey, upperInternalKey, readaheadSize),
+                    internalKeyComparator,
+                    prefixSeek);
         }
         finally {
             mutex.unlock();
@@ -843,36 +1642,46 @@ public class DbImpl
         return snapshot;
     }
 
-    private void makeRoomForWrite(boolean force)
+    private void makeRoomForWrite(Writer writer)
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
+        boolean force = writer.batch == null;
         boolean allowDelay = !force;
+        StallCause stopCause = null;
+        long stopStart = 0;
 
         while (true) {
-            // todo background processing system need work
-//            if (!bg_error_.ok()) {
-//              // Yield previous error
-//              s = bg_error_;
-//              break;
-//            } else
-            if (allowDelay && versions.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
+            // Yield previous error
+            checkBackgroundException();
+            if (allowDelay && writeController.isDelayed()) {
                 // We are getting close to hitting a hard limit on the number of
-                // L0 files.  Rather than delaying a single write by several
-                // seconds when we hit the hard limit, start delaying each
-                // individual write by 1ms to reduce latency variance.  Also,
-                // this delay hands over some CPU to the compaction thread in
-                // case it is sharing the same core as the writer.
-                try {
-                    mutex.unlock();
-                    Thread.sleep(1);
+                // L0 files or pending compaction bytes.  Rather than delaying a
+                // single write by several seconds when we hit the hard limit,
+                // pace every write to the rate the controller allows to reduce
+                // latency variance.  Also, this delay hands over some CPU to the
+                // compaction thread in case it is sharing the same core as the
+                // writer.
+                StallCause cause = writeController.getDelayCause();
+                if (writer.noSlowdown) {
+                    throw newWriteStallException(cause);
                 }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
-                }
-                finally {
-                    mutex.lock();
+                long delayNanos = writeController.reserve(writer.batch.getApproximateSize());
+                if (delayNanos > 0) {
+                    beginWriteStall(cause);
+                    mutex.unlock();
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(delayNanos);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    finally {
+                        mutex.lock();
+                        activeStall = null;
+                    }
+                    writeController.recordDelay(cause, delayNanos);
                 }
 
                 // Do not delay a single write more than once
@@ -882,20 +1691,41 @@ public class DbImpl
                 // There is room in current memtable
                 break;
             }
-            else if (immutableMemTable != null) {
-                // We have filled up the current memtable, but the previous
-                // one is still being compacted, so we wait.
+            else if (immutableMemTables.size() >= options.maxWriteBufferNumber() - 1) {
+                // We have filled up the current memtable, but all previous
+                // ones are still waiting to be compacted, so we wait.
+                if (writer.noSlowdown) {
+                    throw newWriteStallException(StallCause.MEMTABLES);
+                }
+                if (stopCause == null) {
+                    stopCause = StallCause.MEMTABLES;
+                    stopStart = System.nanoTime();
+                }
+                beginWriteStall(StallCause.MEMTABLES);
                 backgroundCondition.awaitUninterruptibly();
             }
-            else if (versions.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
-                // There are too many level-0 files.
+            else if (writeController.getStopCause() != null) {
+                // There are too many level-0 files or compactions are too far behind.
 //                Log(options_.info_log, "waiting...\n");
+                if (writer.noSlowdown) {
+                    throw newWriteStallException(writeController.getStopCause());
+                }
+                if (stopCause == null) {
+                    stopCause = writeController.getStopCause();
+                    stopStart = System.nanoTime();
+                }
+                beginWriteStall(writeController.getStopCause());
                 backgroundCondition.awaitUninterruptibly();
             }
             else {
                 // Attempt to switch to a new memtable and trigger compaction of old
                 Preconditions.checkState(versions.getPrevLogNumber() == 0);
 
+                // Pipelined writers may still be inserting into the current memtable
+                while (!pendingInserts.isEmpty()) {
+                    pendingInsertsCondition.awaitUninterruptibly();
+                }
+
                 // close the existing log
                 try {
                     log.close();
@@ -914,9 +1744,10 @@ public class DbImpl
                             new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile(), e);
                 }
 
-                // create a new mem table
-                immutableMemTable = memTable;
-                memTable = new MemTable(internalKeyComparator);
+                // create a new mem table; the old one only needs logs older than the new log
+                immutableMemTables.addLast(new ImmutableMemTable(memTable, logNumber));
+                memTable = newMemTable();
+                installReadView();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -924,50 +1755,53 @@ public class DbImpl
                 maybeScheduleCompaction();
             }
         }
+
+        if (stopCause != null) {
+            writeController.recordStop(stopCause, System.nanoTime() - stopStart);
+        }
     }
 
-    public void compactMemTable()
-            throws IOException
+    /**
+     * Fails the queued writers that must not be slowed down, and those that
+     * arrive until the stall is over, rather than keeping them behind the
+     * stalled leader.
+     */
+    private void beginWriteStall(StallCause cause)
     {
-        mutex.lock();
-        try {
-            compactMemTableInternal();
-        }
-        finally {
-            mutex.unlock();
+        activeStall = cause;
+        for (Iterator<Writer> iterator = writers.iterator(); iterator.hasNext(); ) {
+            Writer queued = iterator.next();
+            if (queued.noSlowdown && queued != writers.peekFirst()) {
+                iterator.remove();
+                queued.error = newWriteStallException(cause);
+                queued.done = true;
+                queued.condition.signal();
+            }
         }
     }
 
-    private void compactMemTableInternal()
-            throws IOException
+    private static DBException newWriteStallException(StallCause cause)
     {
-        Preconditions.checkState(mutex.isHeldByCurrentThread());
-        if (immutableMemTable == null) {
-            return;
-        }
+        return new DBException("Write stalled by " + cause.name().toLowerCase(Locale.ENGLISH).replace('_', ' '));
+    }
 
+    /**
+     * Waits until every memtable that has been frozen so far is written to a table.
+     */
+    public void compactMemTable()
+            throws IOException
+    {
+        mutex.lock();
         try {
-            // Save the contents of the memtable as a new Table
-            VersionEdit edit = new VersionEdit(internalKeyFactory);
-            Version base = versions.getCurrent();
-            writeLevel0Table(immutableMemTable, edit, base);
-
-            if (shuttingDown.get()) {
-                throw new DatabaseShutdownException("Database shutdown during memtable compaction");
+            maybeScheduleCompaction();
+            while (!immutableMemTables.isEmpty() && backgroundException == null) {
+                backgroundCondition.awaitUninterruptibly();
             }
-
-            // Replace immutable memtable with the generated Table
-            edit.setPreviousLogNumber(0);
-            edit.setLogNumber(log.getFileNumber());  // Earlier logs no longer needed
-            versions.logAndApply(edit);
-
-            immutableMemTable = null;
-
-            deleteObsoleteFiles();
         }
         finally {
-            backgroundCondition.signalAll();
+            mutex.unlock();
         }
+        checkBackgroundException();
     }
 
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
@@ -983,6 +1817,7 @@ public class DbImpl
         // write the memtable to a new sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
+        long start = System.nanoTime();
         mutex.unlock();
         FileMetaData meta;
         try {
@@ -991,6 +1826,7 @@ public class DbImpl
         finally {
             mutex.lock();
         }
+        long flushNanos = System.nanoTime() - start;
         pendingOutputs.remove(fileNumber);
 
         // Note that if file size is zero, the file has been deleted and
@@ -1004,6 +1840,7 @@ public class DbImpl
             }
             edit.addFile(level, meta);
         }
+        compactionStats[level].add(flushNanos, 0, meta != null ? meta.getFileSize() : 0);
     }
 
     private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
@@ -1013,9 +1850,11 @@ public class DbImpl
         try {
             InternalKey smallest = null;
             InternalKey largest = null;
-            FileChannel channel = new FileOutputStream(file).getChannel();
+            FileChannel channel = openTableFile(file);
             try {
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyFactory, internalKeyComparator));
+                // flushes are limited ahead of compactions so the memtable drains
+                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyFactory, internalKeyComparator), filterPolicy, prefixFilterPolicy,
+                        RateLimiter.Priority.HIGH);
 
                 for (Entry<InternalKey, Slice> entry : data) {
                     // update keys
@@ -1047,8 +1886,6 @@ public class DbImpl
             // verify table can be opened
             tableCache.newIterator(fileMetaData);
 
-            pendingOutputs.remove(fileNumber);
-
             return fileMetaData;
 
         }
@@ -1069,105 +1906,237 @@ public class DbImpl
         // todo track snapshots
         compactionState.smallestSnapshot = versions.getLastSequence();
 
+        List<Slice> boundaries = getSubcompactionBoundaries(compactionState.compaction);
+
         // Release mutex while we're actually doing the compaction work
+        long start = System.nanoTime();
         mutex.unlock();
         try {
-            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+            if (boundaries.isEmpty()) {
+                compactKeyRange(compactionState, null, null);
+            }
+            else {
+                doSubcompactions(compactionState, boundaries);
+            }
+        }
+        finally {
+            mutex.lock();
+        }
 
-            Slice currentUserKey = null;
-            boolean hasCurrentUserKey = false;
+        long bytesRead = 0;
+        for (List<FileMetaData> inputs : compactionState.compaction.getInputs()) {
+            bytesRead += Compaction.totalFileSize(inputs);
+        }
+        long bytesWritten = Compaction.totalFileSize(compactionState.outputs);
+        compactionStats[compactionState.compaction.getLevel() + 1].add(System.nanoTime() - start, bytesRead, bytesWritten);
 
-            long lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
-            while (iterator.hasNext() && !shuttingDown.get()) {
-                // always give priority to compacting the current mem table
-                mutex.lock();
-                try {
-                    compactMemTableInternal();
-                }
-                finally {
-                    mutex.unlock();
-                }
+        installCompactionResults(compactionState);
+    }
 
-                InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
-                }
+    /**
+     * Picks up to {@code maxSubcompactions - 1} user keys from the input file
+     * boundaries that split the compaction into key ranges of similar file counts.
+     */
+    private List<Slice> getSubcompactionBoundaries(Compaction compaction)
+    {
+        if (subcompactionExecutor == null) {
+            return ImmutableList.of();
+        }
 
-                // Handle key/value, add to state, etc.
-                boolean drop = false;
-                // todo if key doesn't parse (it is corrupted),
-                if (false /*!ParseInternalKey(key, &ikey)*/) {
-                    // do not hide error keys
-                    currentUserKey = null;
-                    hasCurrentUserKey = false;
-                    lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
-                }
-                else {
-                    if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
-                        // First occurrence of this user key
-                        currentUserKey = key.getUserKey();
-                        hasCurrentUserKey = true;
-                        lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
-                    }
+        final UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<Slice> keys = newArrayList();
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData fileMetaData : inputs) {
+                keys.add(fileMetaData.getSmallest().getUserKey());
+                keys.add(fileMetaData.getLargest().getUserKey());
+            }
+        }
+        Collections.sort(keys, userComparator);
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
-                        drop = true; // (A)
-                    }
-                    else if (key.getValueType() == DELETION &&
-                            key.getSequenceNumber() <= compactionState.smallestSnapshot &&
-                            compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
-                        // For this user key:
-                        // (1) there is no data in higher levels
-                        // (2) data in lower levels will have larger sequence numbers
-                        // (3) data in layers that are being compacted here and have
-                        //     smaller sequence numbers will be dropped in the next
-                        //     few iterations of this loop (by rule (A) above).
-                        // Therefore this deletion marker is obsolete and can be dropped.
-                        drop = true;
-                    }
+        // the smallest key can not start a range of its own
+        List<Slice> candidates = newArrayList();
+        for (Slice key : keys) {
+            if (userComparator.compare(key, keys.get(0)) > 0 &&
+                    (candidates.isEmpty() || userComparator.compare(key, candidates.get(candidates.size() - 1)) > 0)) {
+                candidates.add(key);
+            }
+        }
 
-                    lastSequenceForKey = key.getSequenceNumber();
+        int subcompactions = Math.min(options.maxSubcompactions(), candidates.size() + 1);
+        List<Slice> boundaries = newArrayList();
+        for (int i = 1; i < subcompactions; i++) {
+            Slice boundary = candidates.get(i * candidates.size() / subcompactions);
+            if (boundaries.isEmpty() || userComparator.compare(boundary, boundaries.get(boundaries.size() - 1)) > 0) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
+    }
+
+    private void doSubcompactions(CompactionState compactionState, List<Slice> boundaries)
+            throws IOException
+    {
+        // Each sub-range is merged into its own output files; the outputs are
+        // added to the compaction in key order and installed with a single edit
+        List<CompactionState> subcompactions = newArrayList();
+        List<Future<?>> futures = newArrayList();
+        try {
+            for (int i = 0; i <= boundaries.size(); i++) {
+                final CompactionState subcompaction = new CompactionState(compactionState.compaction.newSubcompaction());
+                subcompaction.smallestSnapshot = compactionState.smallestSnapshot;
+                subcompactions.add(subcompaction);
+
+                final Slice begin = i == 0 ? null : boundaries.get(i - 1);
+                final Slice end = i == boundaries.size() ? null : boundaries.get(i);
+                if (i > 0) {
+                    futures.add(subcompactionExecutor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                                throws IOException
+                        {
+                            compactKeyRange(subcompaction, begin, end);
+                            return null;
+                        }
+                    }));
+                }
+                else {
+                    // the first range is compacted on this thread once the others are started
+                    futures.add(null);
                 }
+            }
 
-                if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
-                    }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
+            Throwable failure = null;
+            try {
+                compactKeyRange(subcompactions.get(0), null, boundaries.get(0));
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+            for (Future<?> future : futures) {
+                if (future == null) {
+                    continue;
+                }
+                try {
+                    future.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null) {
+                        failure = e;
                     }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
-
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
                     }
                 }
-                iterator.next();
             }
-
-            if (shuttingDown.get()) {
-                throw new DatabaseShutdownException("DB shutdown during compaction");
-            }
-            if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+            if (failure != null) {
+                Throwables.propagateIfInstanceOf(failure, IOException.class);
+                throw Throwables.propagate(failure);
             }
         }
         finally {
-            mutex.lock();
+            for (CompactionState subcompaction : subcompactions) {
+                compactionState.outputs.addAll(subcompaction.outputs);
+                compactionState.totalBytes += subcompaction.totalBytes;
+                if (subcompaction.builder != null) {
+                    subcompaction.builder.abandon();
+                }
+            }
+        }
+    }
+
+    private void compactKeyRange(CompactionState compactionState, Slice begin, Slice end)
+            throws IOException
+    {
+        MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+        if (begin != null) {
+            iterator.seek(internalKeyFactory.createInternalKey(begin, internalKeyFactory.maxSequenceNumber(), VALUE));
         }
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
 
-        // todo port CompactionStats code
+        Slice currentUserKey = null;
+        boolean hasCurrentUserKey = false;
 
-        installCompactionResults(compactionState);
+        long lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
+        while (iterator.hasNext() && !shuttingDown.get()) {
+            InternalKey key = iterator.peek().getKey();
+            if (end != null && userComparator.compare(key.getUserKey(), end) >= 0) {
+                break;
+            }
+            if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
+                finishCompactionOutputFile(compactionState);
+            }
+
+            // Handle key/value, add to state, etc.
+            boolean drop = false;
+            // todo if key doesn't parse (it is corrupted),
+            if (false /*!ParseInternalKey(key, &ikey)*/) {
+                // do not hide error keys
+                currentUserKey = null;
+                hasCurrentUserKey = false;
+                lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
+            }
+            else {
+                if (!hasCurrentUserKey || userComparator.compare(key.getUserKey(), currentUserKey) != 0) {
+                    // First occurrence of this user key
+                    currentUserKey = key.getUserKey();
+                    hasCurrentUserKey = true;
+                    lastSequenceForKey = internalKeyFactory.maxSequenceNumber();
+                }
+
+                if (lastSequenceForKey <= compactionState.smallestSnapshot) {
+                    // Hidden by an newer entry for same user key
+                    drop = true; // (A)
+                }
+                else if (key.getValueType() == DELETION &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                        compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
+                    // For this user key:
+                    // (1) there is no data in higher levels
+                    // (2) data in lower levels will have larger sequence numbers
+                    // (3) data in layers that are being compacted here and have
+                    //     smaller sequence numbers will be dropped in the next
+                    //     few iterations of this loop (by rule (A) above).
+                    // Therefore this deletion marker is obsolete and can be dropped.
+                    drop = true;
+                }
+
+                lastSequenceForKey = key.getSequenceNumber();
+            }
+
+            if (!drop) {
+                // Open output file if necessary
+                if (compactionState.builder == null) {
+                    openCompactionOutputFile(compactionState);
+                }
+                if (compactionState.builder.getEntryCount() == 0) {
+                    compactionState.currentSmallest = key;
+                }
+                compactionState.currentLargest = key;
+                compactionState.builder.add(key.encode(), iterator.peek().getValue());
+
+                // Close output file if it is big enough
+                if (compactionState.builder.getFileSize() >=
+                        compactionState.compaction.getMaxOutputFileSize()) {
+                    finishCompactionOutputFile(compactionState);
+                }
+            }
+            iterator.next();
+        }
+
+        if (shuttingDown.get()) {
+            throw new DatabaseShutdownException("DB shutdown during compaction");
+        }
+        if (compactionState.builder != null) {
+            finishCompactionOutputFile(compactionState);
+        }
     }
 
     private void openCompactionOutputFile(CompactionState compactionState)
-            throws FileNotFoundException
+            throws IOException
     {
         Preconditions.checkNotNull(compactionState, "compactionState is null");
         Preconditions.checkArgument(compactionState.builder == null, "compactionState builder is not null");
@@ -1182,14 +2151,22 @@ public class DbImpl
             compactionState.currentLargest = null;
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
-            compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyFactory, internalKeyComparator));
+            compactionState.outfile = openTableFile(file);
+            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyFactory, internalKeyComparator), filterPolicy, prefixFilterPolicy,
+                    RateLimiter.Priority.LOW);
         }
         finally {
             mutex.unlock();
         }
     }
 
+    private static FileChannel openTableFile(File file)
+            throws IOException
+    {
+        // the table builder buffers its writes and syncs the file as it grows
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
     private void finishCompactionOutputFile(CompactionState compactionState)
             throws IOException
     {
@@ -1240,6 +2217,7 @@ public class DbImpl
 
         try {
             versions.logAndApply(compact.compaction.getEdit());
+            installReadView();
             deleteObsoleteFiles();
         }
         catch (IOException e) {
@@ -1288,6 +2266,104 @@ public class DbImpl
         return versions.getMaxNextLevelOverlappingBytes();
     }
 
+    /**
+     * Returns the block cache, or null if {@code Options.cacheSize()} is not set.
+     */
+    public BlockCache getBlockCache()
+    {
+        return tableCache.getBlockCache();
+    }
+
+    LogWriter getLogWriter()
+    {
+        mutex.lock();
+        try {
+            return log;
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Replaces the log writer until the next memtable switch, which lets tests
+     * observe or fail the log writes.
+     */
+    void setLogWriter(LogWriter log)
+    {
+        mutex.lock();
+        try {
+            this.log = log;
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * Pool of the read threads, started on the first read handed to it so
+     * that databases that never use readahead or parallel multiGet have no
+     * read threads.
+     */
+    private static final class ReadExecutor
+            implements Executor
+    {
+        private final int threads;
+        private ExecutorService executor;
+        private boolean shutdown;
+
+        private ReadExecutor(int threads)
+        {
+            this.threads = threads;
+        }
+
+        @Override
+        public synchronized void execute(Runnable command)
+        {
+            if (shutdown) {
+                throw new RejectedExecutionException("Database is closed");
+            }
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(threads, newThreadFactory("leveldb-read-%s"));
+            }
+            executor.execute(command);
+        }
+
+        private synchronized void shutdown()
+        {
+            shutdown = true;
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        private void awaitTermination()
+                throws InterruptedException
+        {
+            ExecutorService executor;
+            synchronized (this) {
+                executor = this.executor;
+            }
+            if (executor != null) {
+                executor.awaitTermination(1, TimeUnit.DAYS);
+            }
+        }
+    }
+
+    private static final class CompactionStats
+    {
+        private long nanos;
+        private long bytesRead;
+        private long bytesWritten;
+
+        private void add(long nanos, long bytesRead, long bytesWritten)
+        {
+            this.nanos += nanos;
+            this.bytesRead += bytesRead;
+            this.bytesWritten += bytesWritten;
+        }
+    }
+
     private static class CompactionState
     {
         private final Compaction compaction;
@@ -1324,6 +2400,7 @@ public class DbImpl
         private final int level;
         private final Slice begin;
         private final Slice end;
+        private boolean scheduled;
 
         private ManualCompaction(int level, Slice begin, Slice end)
         {
@@ -1333,6 +2410,51 @@ public class DbImpl
         }
     }
 
+    private static final class ImmutableMemTable
+    {
+        private final MemTable memTable;
+        // first log file that holds writes made after this memtable was frozen
+        private final long nextLogNumber;
+
+        // set while a flush is running; the table file number is reserved when first scheduled
+        private boolean flushing;
+        private long fileNumber;
+        private FileMetaData table;
+        private long flushNanos;
+        private boolean flushed;
+
+        private ImmutableMemTable(MemTable memTable, long nextLogNumber)
+        {
+            this.memTable = memTable;
+            this.nextLogNumber = nextLogNumber;
+        }
+    }
+
+    private final class Writer
+    {
+        private final WriteBatchImpl batch;
+        private final boolean sync;
+        // fail instead of waiting while writes are stalled
+        private final boolean noSlowdown;
+        private final Condition condition = mutex.newCondition();
+
+        private boolean done;
+        private long sequenceBegin;
+        private long sequenceEnd;
+        private Throwable error;
+
+        // memtable to insert into when using pipelined writes; cleared once published
+        private MemTable memTable;
+        private boolean inserted;
+
+        private Writer(WriteBatchImpl batch, boolean sync, boolean noSlowdown)
+        {
+            this.batch = batch;
+            this.sync = sync;
+            this.noSlowdown = noSlowdown;
+        }
+    }
+
     private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize)
             throws IOException
     {
@@ -1442,44 +2564,37 @@ public class DbImpl
         }
     }
 
-    private final Object suspensionMutex = new Object();
-    private int suspensionCounter;
-
     @Override
     public void suspendCompactions()
             throws InterruptedException
     {
-        compactionExecutor.execute(new Runnable()
-        {
-            @Override
-            public void run()
-            {
-                try {
-                    synchronized (suspensionMutex) {
-                        suspensionCounter++;
-                        suspensionMutex.notifyAll();
-                        while (suspensionCounter > 0 && !compactionExecutor.isShutdown()) {
-                            suspensionMutex.wait(500);
-                        }
-                    }
-                }
-                catch (InterruptedException e) {
-                }
-            }
-        });
-        synchronized (suspensionMutex) {
-            while (suspensionCounter < 1) {
-                suspensionMutex.wait();
+        mutex.lock();
+        try {
+            suspensionCounter++;
+            while (scheduledFlushes > 0 || scheduledCompactions > 0) {
+                backgroundCondition.await();
             }
         }
+        catch (InterruptedException e) {
+            suspensionCounter--;
+            maybeScheduleCompaction();
+            throw e;
+        }
+        finally {
+            mutex.unlock();
+        }
     }
 
     @Override
     public void resumeCompactions()
     {
-        synchronized (suspensionMutex) {
+        mutex.lock();
+        try {
             suspensionCounter--;
-            suspensionMutex.notifyAll();
+            maybeScheduleCompaction();
+        }
+        finally {
+            mutex.unlock();
         }
     }
 
@@ -32,6 +32,15 @@ public class FileMetaData
         }
     };
 
+    public static final Function<FileMetaData, InternalKey> GET_SMALLEST_INTERNAL_KEY = new Function<FileMetaData, InternalKey>()
+    {
+        @Override
+        public InternalKey apply(FileMetaData fileMetaData)
+        {
+            return fileMetaData.getSmallest();
+        }
+    };
+
     private final long number;
 
     /**
@@ -55,6 +64,11 @@ public class FileMetaData
     // todo this mutable state should be moved elsewhere
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
+    /**
+     * Set while the file is an input of a running compaction
+     */
+    private volatile boolean beingCompacted;
+
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest)
     {
         this.number = number;
@@ -63,6 +77,16 @@ public class FileMetaData
         this.largest = largest;
     }
 
+    public boolean isBeingCompacted()
+    {
+        return beingCompacted;
+    }
+
+    public void setBeingCompacted(boolean beingCompacted)
+    {
+        this.beingCompacted = beingCompacted;
+    }
+
     public long getFileSize()
     {
         return fileSize;
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import org.iq80.leveldb.PrefixExtractor;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Memtable that hashes entries by key prefix into buckets, each of which is a
+ * small concurrent skip list.  Point lookups and prefix seeks only search the
+ * bucket of the key; other iteration merges all buckets into a single ordered list.
+ */
+public class HashPrefixMemTable
+        extends MemTable
+{
+    private final InternalKeyComparator internalKeyComparator;
+    private final PrefixExtractor prefixExtractor;
+    private final ConcurrentMap<Slice, ConcurrentSkipListMap<InternalKey, Slice>> buckets = new ConcurrentHashMap<>();
+    // keys for which the extractor returns no prefix
+    private final ConcurrentSkipListMap<InternalKey, Slice> noPrefixBucket;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    public HashPrefixMemTable(InternalKeyComparator internalKeyComparator, PrefixExtractor prefixExtractor)
+    {
+        Preconditions.checkNotNull(prefixExtractor, "prefixExtractor is null");
+        this.internalKeyComparator = internalKeyComparator;
+        this.prefixExtractor = prefixExtractor;
+        this.noPrefixBucket = new ConcurrentSkipListMap<>(internalKeyComparator);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        if (!noPrefixBucket.isEmpty()) {
+            return false;
+        }
+        for (ConcurrentSkipListMap<InternalKey, Slice> bucket : buckets.values()) {
+            if (!bucket.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(InternalKey key, Slice value)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        Slice prefix = prefix(key.getUserKey());
+        ConcurrentSkipListMap<InternalKey, Slice> bucket;
+        if (prefix == null) {
+            bucket = noPrefixBucket;
+        }
+        else {
+            bucket = buckets.get(prefix);
+            if (bucket == null) {
+                ConcurrentSkipListMap<InternalKey, Slice> newBucket = new ConcurrentSkipListMap<>(internalKeyComparator);
+                bucket = buckets.putIfAbsent(prefix, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+        }
+        bucket.put(key, value);
+
+        approximateMemoryUsage.addAndGet(key.length() + value.length());
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        // all versions of a user key share its prefix, so only its bucket can hold them
+        Slice prefix = prefix(key.getUserKey());
+        ConcurrentSkipListMap<InternalKey, Slice> bucket = prefix == null ? noPrefixBucket : buckets.get(prefix);
+        if (bucket == null) {
+            return null;
+        }
+
+        Entry<InternalKey, Slice> entry = bucket.ceilingEntry(key.getInternalKey());
+        if (entry == null) {
+            return null;
+        }
+
+        InternalKey entryKey = entry.getKey();
+        if (entryKey.getUserKey().equals(key.getUserKey())) {
+            if (entryKey.getValueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key);
+            }
+            else {
+                return LookupResult.ok(key, entry.getValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MemTableIterator iterator()
+    {
+        return new HashPrefixMemTableIterator(false);
+    }
+
+    /**
+     * Returns an iterator whose seeks to a key with a prefix only walk the
+     * bucket of that prefix, if {@code prefixSeek} is set.
+     */
+    @Override
+    public MemTableIterator iterator(boolean prefixSeek)
+    {
+        return new HashPrefixMemTableIterator(prefixSeek);
+    }
+
+    private Slice prefix(Slice userKey)
+    {
+        int prefixLength = prefixExtractor.prefixLength(userKey.getRawArray(), userKey.getRawOffset(), userKey.length());
+        if (prefixLength < 0) {
+            return null;
+        }
+        return userKey.slice(0, prefixLength);
+    }
+
+    /**
+     * Iterator over the entries of all buckets in order.  The buckets are merged
+     * into a sorted list once, when the iterator is first moved in total order,
+     * and every later seek or change of direction is a binary search of that
+     * list.  Entries added after the list is built are not seen, which the
+     * snapshot of a database iterator hides anyway.  With prefix seeks, a seek
+     * to a key with a prefix is confined to the bucket of that prefix and never
+     * builds the list.
+     */
+    private class HashPrefixMemTableIterator
+            extends NavigableMemTableIterator<Entry<InternalKey, Slice>>
+    {
+        private final Comparator<Entry<InternalKey, Slice>> entryComparator = new Comparator<Entry<InternalKey, Slice>>()
+        {
+            @Override
+            public int compare(Entry<InternalKey, Slice> left, Entry<InternalKey, Slice> right)
+            {
+                return internalKeyComparator.compare(left.getKey(), right.getKey());
+            }
+        };
+
+        private final boolean prefixSeek;
+        // true while positioned by a prefix seek, bucket is then null if the prefix has no entries
+        private boolean confined;
+        private ConcurrentSkipListMap<InternalKey, Slice> bucket;
+        private List<Entry<InternalKey, Slice>> merged;
+
+        public HashPrefixMemTableIterator(boolean prefixSeek)
+        {
+            this.prefixSeek = prefixSeek;
+            seekToFirst();
+        }
+
+        @Override
+        public void seekToFirst()
+        {
+            confined = false;
+            super.seekToFirst();
+        }
+
+        @Override
+        public void seek(InternalKey targetKey)
+        {
+            Slice prefix = prefixSeek ? prefix(targetKey.getUserKey()) : null;
+            confined = prefix != null;
+            bucket = confined ? buckets.get(prefix) : null;
+            super.seek(targetKey);
+        }
+
+        @Override
+        public void seekToLast()
+        {
+            confined = false;
+            super.seekToLast();
+        }
+
+        @Override
+        protected Iterator<Entry<InternalKey, Slice>> ascending(final Entry<InternalKey, Slice> from, final boolean inclusive)
+        {
+            if (confined) {
+                if (bucket == null) {
+                    return Collections.emptyIterator();
+                }
+                if (from == null) {
+                    return bucket.entrySet().iterator();
+                }
+                return bucket.tailMap(from.getKey(), inclusive).entrySet().iterator();
+            }
+            // the list is only built once the iterator is actually used
+            return new AbstractIterator<Entry<InternalKey, Slice>>()
+            {
+                private int index = -1;
+
+                @Override
+                protected Entry<InternalKey, Slice> computeNext()
+                {
+                    List<Entry<InternalKey, Slice>> entries = merged();
+                    if (index < 0) {
+                        index = from == null ? 0 : indexOf(entries, from, inclusive ? 0 : 1);
+                    }
+                    if (index >= entries.size()) {
+                        return endOfData();
+                    }
+                    return entries.get(index++);
+                }
+            };
+        }
+
+        @Override
+        protected Iterator<Entry<InternalKey, Slice>> descending(final Entry<InternalKey, Slice> from, final boolean inclusive)
+        {
+            if (confined) {
+                if (bucket == null) {
+                    return Collections.emptyIterator();
+                }
+                if (from == null) {
+                    return bucket.descendingMap().entrySet().iterator();
+                }
+                return bucket.headMap(from.getKey(), inclusive).descendingMap().entrySet().iterator();
+            }
+            return new AbstractIterator<Entry<InternalKey, Slice>>()
+            {
+                private int index = Integer.MIN_VALUE;
+
+                @Override
+                protected Entry<InternalKey, Slice> computeNext()
+                {
+                    List<Entry<InternalKey, Slice>> entries = merged();
+                    if (index == Integer.MIN_VALUE) {
+                        index = from == null ? entries.size() - 1 : indexOf(entries, from, inclusive ? 0 : -1);
+                    }
+                    if (index < 0) {
+                        return endOfData();
+                    }
+                    return entries.get(index--);
+                }
+            };
+        }
+
+        /**
+         * Returns the index of {@code element} plus {@code offset} if the list
+         * holds it, or else the index of the next greater element for a
+         * non-negative offset and of the next smaller one for a negative offset.
+         */
+        private int indexOf(List<Entry<InternalKey, Slice>> entries, Entry<InternalKey, Slice> element, int offset)
+        {
+            int index = Collections.binarySearch(entries, element, entryComparator);
+            if (index >= 0) {
+                return index + offset;
+            }
+            int insertionPoint = -index - 1;
+            return offset < 0 ? insertionPoint - 1 : insertionPoint;
+        }
+
+        private List<Entry<InternalKey, Slice>> merged()
+        {
+            if (merged == null) {
+                List<Iterator<Entry<InternalKey, Slice>>> iterators = newArrayList();
+                iterators.add(noPrefixBucket.entrySet().iterator());
+                for (ConcurrentSkipListMap<InternalKey, Slice> bucket : buckets.values()) {
+                    iterators.add(bucket.entrySet().iterator());
+                }
+                merged = newArrayList(Iterators.mergeSorted(iterators, entryComparator));
+            }
+            return merged;
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> searchElement(InternalKey key)
+        {
+            return Maps.immutableEntry(key, null);
+        }
+
+        @Override
+        protected InternalEntry entry(Entry<InternalKey, Slice> entry)
+        {
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slices;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+
+/**
+ * Applies a user supplied filter policy to the user key portion of the
+ * encoded internal keys stored in tables.
+ */
+public class InternalFilterPolicy
+        implements FilterPolicy
+{
+    private final FilterPolicy userPolicy;
+    private final InternalKeyFactory internalKeyFactory;
+
+    public InternalFilterPolicy(FilterPolicy userPolicy, InternalKeyFactory internalKeyFactory)
+    {
+        this.userPolicy = userPolicy;
+        this.internalKeyFactory = internalKeyFactory;
+    }
+
+    @Override
+    public String name()
+    {
+        return userPolicy.name();
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        List<byte[]> userKeys = newArrayListWithCapacity(keys.size());
+        for (byte[] key : keys) {
+            userKeys.add(userKey(key));
+        }
+        return userPolicy.createFilter(userKeys);
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter, int offset, int length)
+    {
+        return userPolicy.keyMayMatch(userKey(key), filter, offset, length);
+    }
+
+    private byte[] userKey(byte[] internalKey)
+    {
+        return internalKeyFactory.createInternalKey(Slices.wrappedBuffer(internalKey)).getUserKey().getBytes();
+    }
+}
@@ -19,6 +19,7 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
@@ -28,10 +29,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
 import static org.iq80.leveldb.impl.FileMetaData.GET_LARGEST_USER_KEY;
+import static org.iq80.leveldb.impl.FileMetaData.GET_SMALLEST_INTERNAL_KEY;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 
 // todo this class should be immutable
@@ -72,15 +78,52 @@ public class Level
     @Override
     public LevelIterator iterator()
     {
-        return createLevelConcatIterator(tableCache, files, internalKeyComparator);
+        return iterator(true);
+    }
+
+    public LevelIterator iterator(boolean fillCache)
+    {
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
+    /**
+     * Returns an iterator over the files that overlap the internal key range
+     * from {@code lowerBound}, inclusive, to {@code upperBound}, exclusive.
+     * Either bound may be null.  Forward scans read up to
+     * {@code readaheadSize} bytes ahead and open the next file early.
+     */
+    public LevelIterator iterator(boolean fillCache, InternalKey lowerBound, InternalKey upperBound, int readaheadSize)
+    {
+        // files are sorted and do not overlap, so the range selects a run of them
+        int from = 0;
+        if (lowerBound != null) {
+            from = ceilingEntryIndex(Lists.transform(files, GET_LARGEST_USER_KEY), lowerBound, internalKeyComparator);
+        }
+        int to = files.size();
+        if (upperBound != null) {
+            to = ceilingEntryIndex(Lists.transform(files, GET_SMALLEST_INTERNAL_KEY), upperBound, internalKeyComparator);
+        }
+        return new LevelIterator(tableCache, files.subList(from, Math.max(from, to)), internalKeyComparator, fillCache, lowerBound, upperBound,
+                readaheadSize);
     }
 
     public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator)
     {
-        return new LevelIterator(tableCache, files, internalKeyComparator);
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, true);
+    }
+
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, boolean fillCache)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, boolean fillCache,
+            int readaheadSize)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache, null, null, readaheadSize);
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, boolean fillCache)
     {
         if (files.isEmpty()) {
             return null;
@@ -117,6 +160,7 @@ public class Level
         FileMetaData lastFileRead = null;
         int lastFileReadLevel = -1;
         readStats.clear();
+        Slice encodedKey = key.getInternalKey().encode();
         for (FileMetaData fileMetaData : fileMetaDataList) {
             if (lastFileRead != null && readStats.getSeekFile() == null) {
                 // We have had more than one seek for this read.  Charge the first file.
@@ -127,8 +171,13 @@ public class Level
             lastFileRead = fileMetaData;
             lastFileReadLevel = levelNumber;
 
+            // skip the table if its filter rules the key out
+            if (!tableCache.keyMayMatch(fileMetaData, encodedKey)) {
+                continue;
+            }
+
             // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
+            InternalTableIterator iterator = tableCache.newIterator(fileMetaData, fillCache);
 
             // seek to the key
             iterator.seek(key.getInternalKey());
@@ -154,6 +203,95 @@ public class Level
         return null;
     }
 
+    /**
+     * Looks up the keys of the batch not found yet, probing each file once
+     * for the run of keys falling into it.  With an executor the files are
+     * probed in parallel.
+     */
+    public void get(final MultiGetBatch batch, final boolean fillCache, Executor executor)
+    {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        // group the sorted keys into runs sharing a file
+        List<FileRun> runs = newArrayList();
+        FileRun run = null;
+        for (int index = 0; index < batch.size(); index++) {
+            if (batch.isDone(index)) {
+                continue;
+            }
+            LookupKey key = batch.getKey(index);
+            if (run != null && run.covers(key)) {
+                run.to = index + 1;
+                continue;
+            }
+            int fileIndex = ceilingEntryIndex(Lists.transform(files, GET_LARGEST_USER_KEY), key.getInternalKey(), internalKeyComparator);
+            if (fileIndex >= files.size()) {
+                // no file holds this key or any after it
+                break;
+            }
+            FileMetaData fileMetaData = files.get(fileIndex);
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0) {
+                continue;
+            }
+            run = new FileRun(fileMetaData, index);
+            runs.add(run);
+        }
+
+        if (executor == null || runs.size() < 2) {
+            for (FileRun fileRun : runs) {
+                batch.get(tableCache, fileRun.file, levelNumber, fileRun.from, fileRun.to, fillCache);
+            }
+            return;
+        }
+
+        // runs are disjoint, so their probes do not interfere
+        List<Future<?>> futures = newArrayList();
+        for (final FileRun fileRun : runs.subList(1, runs.size())) {
+            FutureTask<Void> task = new FutureTask<>(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    batch.get(tableCache, fileRun.file, levelNumber, fileRun.from, fileRun.to, fillCache);
+                }
+            }, null);
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                task.run();
+            }
+            futures.add(task);
+        }
+        FileRun first = runs.get(0);
+        batch.get(tableCache, first.file, levelNumber, first.from, first.to, fillCache);
+        for (Future<?> future : futures) {
+            Futures.getUnchecked(future);
+        }
+    }
+
+    private final class FileRun
+    {
+        private final FileMetaData file;
+        private final int from;
+        private int to;
+
+        private FileRun(FileMetaData file, int from)
+        {
+            this.file = file;
+            this.from = from;
+            this.to = from + 1;
+        }
+
+        private boolean covers(LookupKey key)
+        {
+            // keys are sorted, so only the end of the file needs checking
+            return internalKeyComparator.compare(key.getInternalKey(), file.getLargest()) <= 0;
+        }
+    }
+
     private static <T> int ceilingEntryIndex(List<T> list, T key, Comparator<T> comparator)
     {
         int insertionPoint = Collections.binarySearch(list, key, comparator);
@@ -79,7 +79,7 @@ public class Level0
         return new Level0Iterator(tableCache, files, internalKeyComparator);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public LookupResult get(LookupKey key, ReadStats readStats, boolean fillCache)
     {
         if (files.isEmpty()) {
             return null;
@@ -96,9 +96,15 @@ public class Level0
         Collections.sort(fileMetaDataList, NEWEST_FIRST);
 
         readStats.clear();
+        Slice encodedKey = key.getInternalKey().encode();
         for (FileMetaData fileMetaData : fileMetaDataList) {
+            // skip the table if its filter rules the key out
+            if (!tableCache.keyMayMatch(fileMetaData, encodedKey)) {
+                continue;
+            }
+
             // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
+            InternalTableIterator iterator = tableCache.newIterator(fileMetaData, fillCache);
 
             // seek to the key
             iterator.seek(key.getInternalKey());
@@ -130,6 +136,24 @@ public class Level0
         return null;
     }
 
+    /**
+     * Looks up the keys of the batch not found yet, newest file first, probing
+     * each file once for all keys inside its range.
+     */
+    public void get(MultiGetBatch batch, boolean fillCache)
+    {
+        List<FileMetaData> newestFirst = newArrayList(files);
+        Collections.sort(newestFirst, NEWEST_FIRST);
+        for (FileMetaData fileMetaData : newestFirst) {
+            // the keys inside the range of the file are a run of the sorted keys
+            int from = batch.ceilingIndex(fileMetaData.getSmallest().getUserKey());
+            int to = batch.higherIndex(fileMetaData.getLargest().getUserKey());
+            if (from < to) {
+                batch.get(tableCache, fileMetaData, 0, from, to, fillCache);
+            }
+        }
+    }
+
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
     {
         InternalKey smallestInternalKey = internalKeyFactory.createInternalKey(smallestUserKey, internalKeyFactory.maxSequenceNumber(), VALUE);
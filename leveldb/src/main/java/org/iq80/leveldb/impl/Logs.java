@@ -17,7 +17,7 @@
  */
 package org.iq80.leveldb.impl;
 
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
 
 import java.io.File;
@@ -48,7 +48,7 @@ public final class Logs
     public static int getChunkChecksum(int chunkTypeId, byte[] buffer, int offset, int length)
     {
         // Compute the crc of the record type and the payload.
-        PureJavaCrc32C crc32C = new PureJavaCrc32C();
+        Crc32C crc32C = new Crc32C();
         crc32C.update(chunkTypeId);
         crc32C.update(buffer, offset, length);
         return crc32C.getMaskedValue();
@@ -17,120 +17,39 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-
-public class MemTable
+/**
+ * In-memory write buffer.  Implementations must allow {@link #add} to be
+ * called concurrently with other adds and with reads.
+ */
+public abstract class MemTable
         implements SeekingIterable<InternalKey, Slice>
 {
-    private final ConcurrentSkipListMap<InternalKey, Slice> table;
-    private final AtomicLong approximateMemoryUsage = new AtomicLong();
-
-    public MemTable(InternalKeyComparator internalKeyComparator)
-    {
-        table = new ConcurrentSkipListMap<>(internalKeyComparator);
-    }
+    public abstract boolean isEmpty();
 
-    public boolean isEmpty()
-    {
-        return table.isEmpty();
-    }
+    public abstract long approximateMemoryUsage();
 
-    public long approximateMemoryUsage()
-    {
-        return approximateMemoryUsage.get();
-    }
-    
-    public void add(InternalKey key, Slice value)
-    {
-        Preconditions.checkNotNull(key, "key is null");
+    public abstract void add(InternalKey key, Slice value);
 
-        table.put(key, value);
-
-        approximateMemoryUsage.addAndGet(key.length() + value.length());
-    }
-    
-    public LookupResult get(LookupKey key)
-    {
-        Preconditions.checkNotNull(key, "key is null");
-
-        InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
-        }
-
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            }
-            else {
-                return LookupResult.ok(key, entry.getValue());
-            }
-        }
-        return null;
-    }
+    public abstract LookupResult get(LookupKey key);
 
     @Override
-    public MemTableIterator iterator()
+    public abstract MemTableIterator iterator();
+
+    /**
+     * Returns an iterator whose seeks may leave out the entries that do not
+     * share the prefix of the target, if {@code prefixSeek} is set.  Only the
+     * entries with that prefix are then complete.
+     */
+    public MemTableIterator iterator(boolean prefixSeek)
     {
-        return new MemTableIterator();
+        return iterator();
     }
 
-    public class MemTableIterator
-            implements InternalIterator
+    public interface MemTableIterator
+            extends InternalIterator
     {
-        private PeekingIterator<Entry<InternalKey, Slice>> iterator;
-
-        public MemTableIterator()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public boolean hasNext()
-        {
-            return iterator.hasNext();
-        }
-
-        @Override
-        public void seekToFirst()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public void seek(InternalKey targetKey)
-        {
-            iterator = Iterators.peekingIterator(table.tailMap(targetKey).entrySet().iterator());
-        }
-
-        @Override
-        public InternalEntry peek()
-        {
-            Entry<InternalKey, Slice> entry = iterator.peek();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public InternalEntry next()
-        {
-            Entry<InternalKey, Slice> entry = iterator.next();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
-        }
     }
 }
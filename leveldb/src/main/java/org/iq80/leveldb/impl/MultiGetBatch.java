@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.InternalTableIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+
+/**
+ * Keys of a multiGet, sorted by user key, with the results found so far.
+ * Each table is probed once for the run of keys falling into it, with a
+ * single iterator, so keys sharing a data block read it once.
+ * <p>
+ * Probes of disjoint runs may run concurrently.
+ */
+final class MultiGetBatch
+{
+    private final List<LookupKey> keys;
+    private final UserComparator userComparator;
+    private final LookupResult[] results;
+    // first file each key was looked up in and its level, charged with a
+    // seek once the key has to be looked up in another file
+    private final FileMetaData[] firstFilesRead;
+    private final int[] firstFileReadLevels;
+    private final boolean[] seekCharged;
+
+    MultiGetBatch(List<LookupKey> keys, UserComparator userComparator)
+    {
+        this.keys = keys;
+        this.userComparator = userComparator;
+        this.results = new LookupResult[keys.size()];
+        this.firstFilesRead = new FileMetaData[keys.size()];
+        this.firstFileReadLevels = new int[keys.size()];
+        this.seekCharged = new boolean[keys.size()];
+    }
+
+    int size()
+    {
+        return keys.size();
+    }
+
+    LookupKey getKey(int index)
+    {
+        return keys.get(index);
+    }
+
+    LookupResult getResult(int index)
+    {
+        return results[index];
+    }
+
+    void setResult(int index, LookupResult result)
+    {
+        results[index] = result;
+    }
+
+    boolean isDone(int index)
+    {
+        return results[index] != null;
+    }
+
+    boolean isDone()
+    {
+        for (LookupResult result : results) {
+            if (result == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first key whose user key is at least the given
+     * one, or the number of keys if there is none.
+     */
+    int ceilingIndex(Slice userKey)
+    {
+        int left = 0;
+        int right = keys.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (userComparator.compare(keys.get(mid).getUserKey(), userKey) < 0) {
+                left = mid + 1;
+            }
+            else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Returns the index of the first key whose user key is above the given
+     * one, or the number of keys if there is none.
+     */
+    int higherIndex(Slice userKey)
+    {
+        int left = 0;
+        int right = keys.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (userComparator.compare(keys.get(mid).getUserKey(), userKey) <= 0) {
+                left = mid + 1;
+            }
+            else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Looks up the keys from {@code from}, inclusive, to {@code to},
+     * exclusive, that are not found yet in the file.
+     */
+    void get(TableCache tableCache, FileMetaData file, int level, int from, int to, boolean fillCache)
+    {
+        InternalTableIterator iterator = null;
+        for (int index = from; index < to; index++) {
+            if (isDone(index)) {
+                continue;
+            }
+            fileRead(index, file, level);
+
+            // skip the table if its filter rules the key out
+            LookupKey key = keys.get(index);
+            if (!tableCache.keyMayMatch(file, key.getInternalKey().encode())) {
+                continue;
+            }
+
+            // keys are sorted, so the iterator only moves forward
+            if (iterator == null) {
+                iterator = tableCache.newIterator(file, fillCache);
+            }
+            iterator.seek(key.getInternalKey());
+
+            if (iterator.hasNext()) {
+                Entry<InternalKey, Slice> entry = iterator.next();
+                InternalKey internalKey = entry.getKey();
+                Preconditions.checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
+
+                if (key.getUserKey().equals(internalKey.getUserKey())) {
+                    if (internalKey.getValueType() == ValueType.DELETION) {
+                        results[index] = LookupResult.deleted(key);
+                    }
+                    else if (internalKey.getValueType() == VALUE) {
+                        results[index] = LookupResult.ok(key, entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private void fileRead(int index, FileMetaData file, int level)
+    {
+        if (firstFilesRead[index] == null) {
+            firstFilesRead[index] = file;
+            firstFileReadLevels[index] = level;
+        }
+        else {
+            // more than one seek for this key, the first file is charged
+            seekCharged[index] = true;
+        }
+    }
+
+    FileMetaData getSeekFile(int index)
+    {
+        return seekCharged[index] ? firstFilesRead[index] : null;
+    }
+
+    int getSeekFileLevel(int index)
+    {
+        return firstFileReadLevels[index];
+    }
+}
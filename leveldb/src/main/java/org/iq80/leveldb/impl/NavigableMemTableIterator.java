@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.iq80.leveldb.impl.MemTable.MemTableIterator;
+
+import java.util.Iterator;
+
+/**
+ * Memtable iterator over a sorted concurrent index. The index is walked with
+ * an ascending or a descending view that starts at the current position, and
+ * a new view is opened each time the direction changes.
+ *
+ * @param <T> the index element
+ */
+abstract class NavigableMemTableIterator<T>
+        implements MemTableIterator
+{
+    private PeekingIterator<T> iterator;
+    private boolean forward;
+
+    // the position is next to this element, or at the start or end when it is null
+    private T position;
+    private boolean beforePosition;
+    private boolean atEnd;
+
+    /**
+     * Returns the elements after {@code from} in ascending order, or all
+     * elements if {@code from} is null.
+     */
+    protected abstract Iterator<T> ascending(T from, boolean inclusive);
+
+    /**
+     * Returns the elements before {@code from} in descending order, or all
+     * elements if {@code from} is null.
+     */
+    protected abstract Iterator<T> descending(T from, boolean inclusive);
+
+    /**
+     * Returns an element that sorts like an entry with the specified key.
+     */
+    protected abstract T searchElement(InternalKey key);
+
+    protected abstract InternalEntry entry(T element);
+
+    @Override
+    public void seekToFirst()
+    {
+        position(null, true, false);
+        iterator = Iterators.peekingIterator(ascending(null, true));
+        forward = true;
+    }
+
+    @Override
+    public void seek(InternalKey targetKey)
+    {
+        position(searchElement(targetKey), true, false);
+        iterator = Iterators.peekingIterator(ascending(position, true));
+        forward = true;
+    }
+
+    @Override
+    public void seekToLast()
+    {
+        position(null, false, true);
+        iterator = Iterators.peekingIterator(descending(null, true));
+        forward = false;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return forward().hasNext();
+    }
+
+    @Override
+    public InternalEntry peek()
+    {
+        return entry(forward().peek());
+    }
+
+    @Override
+    public InternalEntry next()
+    {
+        T element = forward().next();
+        position(element, false, false);
+        return entry(element);
+    }
+
+    @Override
+    public boolean hasPrev()
+    {
+        return backward().hasNext();
+    }
+
+    @Override
+    public InternalEntry peekPrev()
+    {
+        return entry(backward().peek());
+    }
+
+    @Override
+    public InternalEntry prev()
+    {
+        T element = backward().next();
+        position(element, true, false);
+        return entry(element);
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    private void position(T element, boolean before, boolean end)
+    {
+        position = element;
+        beforePosition = before;
+        atEnd = end;
+    }
+
+    private PeekingIterator<T> forward()
+    {
+        if (!forward) {
+            if (position != null) {
+                iterator = Iterators.peekingIterator(ascending(position, beforePosition));
+            }
+            else if (atEnd) {
+                iterator = Iterators.peekingIterator(Iterators.<T>emptyIterator());
+            }
+            else {
+                iterator = Iterators.peekingIterator(ascending(null, true));
+            }
+            forward = true;
+        }
+        return iterator;
+    }
+
+    private PeekingIterator<T> backward()
+    {
+        if (forward) {
+            if (position != null) {
+                iterator = Iterators.peekingIterator(descending(position, !beforePosition));
+            }
+            else if (atEnd) {
+                iterator = Iterators.peekingIterator(descending(null, true));
+            }
+            else {
+                iterator = Iterators.peekingIterator(Iterators.<T>emptyIterator());
+            }
+            forward = false;
+        }
+        return iterator;
+    }
+}
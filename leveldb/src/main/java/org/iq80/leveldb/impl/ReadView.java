@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable view of the structures needed to serve a point read: the memtable,
+ * the immutable memtables waiting to be flushed and the current version.  A
+ * view is published by the database each time one of these changes, and
+ * readers pin it with {@link #tryRetain()} instead of taking the database mutex.
+ */
+final class ReadView
+{
+    // one reference is held by the database until the view is replaced
+    private final AtomicInteger retained = new AtomicInteger(1);
+    private final MemTable memTable;
+    // newest first
+    private final List<MemTable> immutableMemTables;
+    private final Version version;
+
+    ReadView(MemTable memTable, List<MemTable> immutableMemTables, Version version)
+    {
+        this.memTable = memTable;
+        this.immutableMemTables = immutableMemTables;
+        this.version = version;
+        this.version.retain();
+    }
+
+    public MemTable getMemTable()
+    {
+        return memTable;
+    }
+
+    public List<MemTable> getImmutableMemTables()
+    {
+        return immutableMemTables;
+    }
+
+    public Version getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Pins the view unless it has already been disposed, in which case the
+     * caller must load the newly published view and try again.
+     */
+    public boolean tryRetain()
+    {
+        while (true) {
+            int was = retained.get();
+            if (was <= 0) {
+                return false;
+            }
+            if (retained.compareAndSet(was, was + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release()
+    {
+        int now = retained.decrementAndGet();
+        assert now >= 0 : "ReadView was released after it was disposed.";
+        if (now == 0) {
+            version.release();
+        }
+    }
+}
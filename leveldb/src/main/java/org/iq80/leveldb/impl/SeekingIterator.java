@@ -33,4 +33,26 @@ public interface SeekingIterator<K, V>
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
     void seek(K targetKey);
+
+    /**
+     * Repositions the iterator after the last entry, so the next call to
+     * {@link #prev()} returns the last entry.
+     */
+    void seekToLast();
+
+    /**
+     * Returns true if there is an entry before the current position.
+     */
+    boolean hasPrev();
+
+    /**
+     * Returns the entry before the current position and moves the position
+     * back over it, so a following {@link #next()} returns the same entry.
+     */
+    Entry<K, V> prev();
+
+    /**
+     * Returns the entry before the current position without moving.
+     */
+    Entry<K, V> peekPrev();
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SkipListMemTable
+        extends MemTable
+{
+    private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    public SkipListMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        table = new ConcurrentSkipListMap<>(internalKeyComparator);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return table.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get();
+    }
+    
+    @Override
+    public void add(InternalKey key, Slice value)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        table.put(key, value);
+
+        approximateMemoryUsage.addAndGet(key.length() + value.length());
+    }
+    
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
+        if (entry == null) {
+            return null;
+        }
+
+        InternalKey entryKey = entry.getKey();
+        if (entryKey.getUserKey().equals(key.getUserKey())) {
+            if (entryKey.getValueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key);
+            }
+            else {
+                return LookupResult.ok(key, entry.getValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public MemTableIterator iterator()
+    {
+        return new SkipListMemTableIterator();
+    }
+
+    private class SkipListMemTableIterator
+            extends NavigableMemTableIterator<Entry<InternalKey, Slice>>
+    {
+        public SkipListMemTableIterator()
+        {
+            seekToFirst();
+        }
+
+        @Override
+        protected Iterator<Entry<InternalKey, Slice>> ascending(Entry<InternalKey, Slice> from, boolean inclusive)
+        {
+            if (from == null) {
+                return table.entrySet().iterator();
+            }
+            return table.tailMap(from.getKey(), inclusive).entrySet().iterator();
+        }
+
+        @Override
+        protected Iterator<Entry<InternalKey, Slice>> descending(Entry<InternalKey, Slice> from, boolean inclusive)
+        {
+            if (from == null) {
+                return table.descendingMap().entrySet().iterator();
+            }
+            return table.headMap(from.getKey(), inclusive).descendingMap().entrySet().iterator();
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> searchElement(InternalKey key)
+        {
+            return Maps.immutableEntry(key, null);
+        }
+
+        @Override
+        protected InternalEntry entry(Entry<InternalKey, Slice> entry)
+        {
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+    }
+}
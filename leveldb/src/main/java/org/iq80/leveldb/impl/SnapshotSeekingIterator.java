@@ -18,6 +18,7 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.Maps;
+import org.iq80.leveldb.PrefixExtractor;
 import org.iq80.leveldb.util.AbstractSeekingIterator;
 import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.Slice;
@@ -32,13 +33,31 @@ public final class SnapshotSeekingIterator
     private final SnapshotImpl snapshot;
     private final Comparator<Slice> userComparator;
     private final InternalKeyFactory internalKeyFactory;
+    // optional user keys, inclusive and exclusive, outside of which nothing is returned
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    // confines the iterator to the prefix of the key last seeked to, if set
+    private final PrefixExtractor prefixExtractor;
+    private Slice prefix;
+    // set after moving backwards, which leaves the internal iterator before
+    // all versions of a key rather than at its visible one
+    private boolean reversed;
 
     public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, InternalKeyFactory internalKeyFactory)
+    {
+        this(iterator, snapshot, userComparator, internalKeyFactory, null, null, null);
+    }
+
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, InternalKeyFactory internalKeyFactory,
+            Slice lowerBound, Slice upperBound, PrefixExtractor prefixExtractor)
     {
         this.iterator = iterator;
         this.snapshot = snapshot;
         this.userComparator = userComparator;
         this.internalKeyFactory = internalKeyFactory;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.prefixExtractor = prefixExtractor;
         this.snapshot.getVersion().retain();
     }
 
@@ -50,21 +69,55 @@ public final class SnapshotSeekingIterator
     @Override
     protected void seekToFirstInternal()
     {
+        prefix = null;
+        if (lowerBound != null) {
+            seekUserKey(lowerBound);
+            return;
+        }
         iterator.seekToFirst();
+        reversed = false;
         findNextUserEntry(null);
     }
 
     @Override
     protected void seekInternal(Slice targetKey)
     {
+        prefix = prefix(targetKey);
+        seekUserKey(targetKey);
+    }
+
+    private void seekUserKey(Slice targetKey)
+    {
+        if (lowerBound != null && userComparator.compare(targetKey, lowerBound) < 0) {
+            targetKey = lowerBound;
+        }
         iterator.seek(internalKeyFactory.createInternalKey(targetKey, snapshot.getLastSequence(), ValueType.VALUE));
+        reversed = false;
         findNextUserEntry(null);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        prefix = null;
+        if (upperBound != null) {
+            // position in front of all versions of the bound
+            iterator.seek(internalKeyFactory.createInternalKey(upperBound, internalKeyFactory.maxSequenceNumber(), ValueType.VALUE));
+        }
+        else {
+            iterator.seekToLast();
+        }
+        reversed = true;
+    }
+
     @Override
     protected Entry<Slice, Slice> getNextElement()
     {
-        if (!iterator.hasNext()) {
+        if (reversed) {
+            reversed = false;
+            findNextUserEntry(null);
+        }
+        if (!iterator.hasNext() || isPastEnd(iterator.peek().getKey().getUserKey())) {
             return null;
         }
 
@@ -87,6 +140,11 @@ public final class SnapshotSeekingIterator
             // Peek the next entry and parse the key
             InternalKey internalKey = iterator.peek().getKey();
 
+            // do not skip deleted entries past the end of the range
+            if (isPastEnd(internalKey.getUserKey())) {
+                return;
+            }
+
             // skip entries created after our snapshot
             if (internalKey.getSequenceNumber() > snapshot.getLastSequence()) {
                 iterator.next();
@@ -107,6 +165,72 @@ public final class SnapshotSeekingIterator
         } while (iterator.hasNext());
     }
 
+    /**
+     * Walks backwards over all versions of the previous user key, oldest
+     * first, so the last visible one seen is the newest. Stops in front of the
+     * oldest version of the key returned.
+     */
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
+    {
+        reversed = true;
+
+        Slice userKey = null;
+        Slice value = null;
+        while (iterator.hasPrev()) {
+            InternalKey internalKey = iterator.peekPrev().getKey();
+            if (isBeforeStart(internalKey.getUserKey())) {
+                break;
+            }
+
+            // entries created after our snapshot are invisible
+            if (internalKey.getSequenceNumber() <= snapshot.getLastSequence()) {
+                if (value != null && userComparator.compare(internalKey.getUserKey(), userKey) < 0) {
+                    // all versions of the key with a value have been seen
+                    break;
+                }
+                userKey = internalKey.getUserKey();
+                if (internalKey.getValueType() == ValueType.DELETION) {
+                    value = null;
+                }
+                else {
+                    value = iterator.peekPrev().getValue();
+                }
+            }
+            iterator.prev();
+        }
+
+        if (value == null) {
+            return null;
+        }
+        return Maps.immutableEntry(userKey, value);
+    }
+
+    private boolean isPastEnd(Slice userKey)
+    {
+        if (upperBound != null && userComparator.compare(userKey, upperBound) >= 0) {
+            return true;
+        }
+        return prefix != null && !prefix.equals(prefix(userKey));
+    }
+
+    private boolean isBeforeStart(Slice userKey)
+    {
+        if (lowerBound != null && userComparator.compare(userKey, lowerBound) < 0) {
+            return true;
+        }
+        return prefix != null && !prefix.equals(prefix(userKey));
+    }
+
+    private Slice prefix(Slice userKey)
+    {
+        if (prefixExtractor == null) {
+            return null;
+        }
+        int prefixLength = prefixExtractor.prefixLength(userKey.getRawArray(), userKey.getRawOffset(), userKey.length());
+        return prefixLength < 0 ? null : userKey.slice(0, prefixLength);
+    }
+
     @Override
     public String toString()
     {
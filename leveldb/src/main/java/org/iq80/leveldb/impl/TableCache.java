@@ -24,11 +24,14 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.FileChannelTable;
 import org.iq80.leveldb.table.MMapTable;
 import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Finalizer;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Slice;
@@ -37,19 +40,36 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class TableCache
 {
     private final LoadingCache<Long, TableAndFile> cache;
     private final Finalizer<Table> finalizer = new Finalizer<>(1);
-    
+    private final BlockCache blockCache;
+    // reads ahead of iterators and opens the tables they need next, or null
+    private final Executor readaheadExecutor;
+
     private final InternalKeyFactory internalKeyFactory;
 
-    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final Options options, final InternalKeyFactory internalKeyFactory)
+    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final Options options, final InternalKeyFactory internalKeyFactory, final FilterPolicy filterPolicy,
+            final FilterPolicy prefixFilterPolicy)
+    {
+        this(databaseDir, tableCacheSize, userComparator, options, internalKeyFactory, filterPolicy, prefixFilterPolicy, null);
+    }
+
+    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final Options options, final InternalKeyFactory internalKeyFactory, final FilterPolicy filterPolicy,
+            final FilterPolicy prefixFilterPolicy, Executor readaheadExecutor)
     {
         Preconditions.checkNotNull(databaseDir, "databaseName is null");
         this.internalKeyFactory = internalKeyFactory;
+        this.readaheadExecutor = readaheadExecutor;
+        // blocks are only cached when a cache size is configured
+        final BlockCache blockCache = options.cacheSize() > 0 ? new BlockCache(options.cacheSize()) : null;
+        this.blockCache = blockCache;
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
                 .removalListener(new RemovalListener<Long, TableAndFile>()
@@ -67,7 +87,7 @@ public class TableCache
                     public TableAndFile load(Long fileNumber)
                             throws IOException
                     {
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, options);
+                        return new TableAndFile(databaseDir, fileNumber, userComparator, options, filterPolicy, prefixFilterPolicy, blockCache);
                     }
                 });
     }
@@ -77,9 +97,101 @@ public class TableCache
         return newIterator(file.getNumber());
     }
 
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache)
+    {
+        return newIterator(file.getNumber(), fillCache);
+    }
+
     public InternalTableIterator newIterator(long number)
     {
-        return new InternalTableIterator(getTable(number).iterator(), internalKeyFactory);
+        return newIterator(number, true);
+    }
+
+    public InternalTableIterator newIterator(long number, boolean fillCache)
+    {
+        return new InternalTableIterator(getTable(number).iterator(fillCache), internalKeyFactory);
+    }
+
+    /**
+     * Returns an iterator over the file that does not read blocks outside of
+     * the given internal key bounds and reads up to {@code readaheadSize}
+     * bytes ahead of forward scans.  Either bound may be null.
+     */
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache, InternalKey lowerBound, InternalKey upperBound, int readaheadSize)
+    {
+        Slice lower = lowerBound == null ? null : lowerBound.encode();
+        Slice upper = upperBound == null ? null : upperBound.encode();
+        Table table = getTable(file.getNumber());
+        return new InternalTableIterator(table.iterator(fillCache, lower, upper, readaheadExecutor, readaheadSize), internalKeyFactory);
+    }
+
+    /**
+     * Opens the table of the file in the background, so that an iterator
+     * about to move into it does not wait for its index to be read.
+     */
+    public void prefetch(final FileMetaData file)
+    {
+        if (readaheadExecutor == null || cache.getIfPresent(file.getNumber()) != null) {
+            return;
+        }
+        try {
+            readaheadExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        cache.get(file.getNumber());
+                    }
+                    catch (ExecutionException | RuntimeException ignored) {
+                        // surfaces again when the iterator opens the table
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ignored) {
+            // the database is closing
+        }
+    }
+
+    /**
+     * Returns the cache of data blocks shared by all tables, or null if block
+     * caching is disabled.
+     */
+    public BlockCache getBlockCache()
+    {
+        return blockCache;
+    }
+
+    /**
+     * Returns the bytes held in memory by the open tables, not counting the
+     * blocks in the block cache.
+     */
+    public long getApproximateMemoryUsage()
+    {
+        long usage = 0;
+        for (TableAndFile tableAndFile : cache.asMap().values()) {
+            usage += tableAndFile.getTable().getApproximateMemoryUsage();
+        }
+        return usage;
+    }
+
+    /**
+     * Returns false if the filter of the table shows that it does not contain
+     * the encoded internal key.
+     */
+    public boolean keyMayMatch(FileMetaData file, Slice key)
+    {
+        return getTable(file.getNumber()).keyMayMatch(key);
+    }
+
+    /**
+     * Returns false if the prefix filter of the table shows that it contains
+     * no key with the prefix of the encoded internal key.
+     */
+    public boolean prefixMayMatch(FileMetaData file, Slice key)
+    {
+        return getTable(file.getNumber()).prefixMayMatch(key);
     }
 
     public long getApproximateOffsetOf(FileMetaData file, Slice key)
@@ -107,6 +219,9 @@ public class TableCache
     {
         cache.invalidateAll();
         finalizer.destroy();
+        if (blockCache != null) {
+            blockCache.clear();
+        }
     }
 
     public void evict(long number)
@@ -118,18 +233,28 @@ public class TableCache
     {
         private final Table table;
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, Options options)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, Options options, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy,
+                BlockCache blockCache)
                 throws IOException
         {
             String tableFileName = Filename.tableFileName(fileNumber);
             File tableFile = new File(databaseDir, tableFileName);
-            try (FileInputStream fis = new FileInputStream(tableFile);
-                    FileChannel fileChannel = fis.getChannel()) {
-                if (Iq80DBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, options);
+            if (Iq80DBFactory.USE_MMAP) {
+                // the mapping outlives the channel it was created from
+                try (FileInputStream fis = new FileInputStream(tableFile);
+                        FileChannel fileChannel = fis.getChannel()) {
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, options, filterPolicy, prefixFilterPolicy, blockCache, fileNumber);
+                }
+            }
+            else {
+                // the table reads through the channel until its closer runs
+                FileChannel fileChannel = FileChannel.open(tableFile.toPath(), StandardOpenOption.READ);
+                try {
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, options, filterPolicy, prefixFilterPolicy, blockCache, fileNumber);
                 }
-                else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, options);
+                catch (IOException | RuntimeException e) {
+                    Closeables.closeQuietly(fileChannel);
+                    throw e;
                 }
             }
         }
@@ -31,6 +31,7 @@ import org.iq80.leveldb.util.Slice;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.collect.Lists.newArrayList;
@@ -51,6 +52,8 @@ public class Version
     // move these mutable fields somewhere else
     private int compactionLevel;
     private double compactionScore;
+    private final double[] levelCompactionScores = new double[NUM_LEVELS];
+    private long pendingCompactionBytes;
     private FileMetaData fileToCompact;
     private int fileToCompactLevel;
 
@@ -134,6 +137,26 @@ public class Version
         this.compactionScore = compactionScore;
     }
 
+    public synchronized double getCompactionScore(int level)
+    {
+        return levelCompactionScores[level];
+    }
+
+    public synchronized void setCompactionScore(int level, double compactionScore)
+    {
+        levelCompactionScores[level] = compactionScore;
+    }
+
+    public synchronized long getPendingCompactionBytes()
+    {
+        return pendingCompactionBytes;
+    }
+
+    public synchronized void setPendingCompactionBytes(long pendingCompactionBytes)
+    {
+        this.pendingCompactionBytes = pendingCompactionBytes;
+    }
+
     @Override
     public MergingIterator iterator()
     {
@@ -145,34 +168,84 @@ public class Version
 
     List<InternalTableIterator> getLevel0Files()
     {
+        return getLevel0Files(true);
+    }
+
+    List<InternalTableIterator> getLevel0Files(boolean fillCache)
+    {
+        return getLevel0Files(fillCache, null, null, 0);
+    }
+
+    /**
+     * Returns iterators over the level 0 files that overlap the internal key
+     * range from {@code lowerBound}, inclusive, to {@code upperBound},
+     * exclusive.  Either bound may be null.  The iterators read up to
+     * {@code readaheadSize} bytes ahead of forward scans.
+     */
+    List<InternalTableIterator> getLevel0Files(boolean fillCache, InternalKey lowerBound, InternalKey upperBound, int readaheadSize)
+    {
+        InternalKeyComparator internalKeyComparator = getInternalKeyComparator();
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : level0.getFiles()) {
-            builder.add(getTableCache().newIterator(file));
+            if (lowerBound != null && internalKeyComparator.compare(file.getLargest(), lowerBound) < 0) {
+                continue;
+            }
+            if (upperBound != null && internalKeyComparator.compare(file.getSmallest(), upperBound) >= 0) {
+                continue;
+            }
+            builder.add(getTableCache().newIterator(file, fillCache, lowerBound, upperBound, readaheadSize));
         }
         return builder.build();
     }
 
     List<LevelIterator> getLevelIterators()
+    {
+        return getLevelIterators(true);
+    }
+
+    List<LevelIterator> getLevelIterators(boolean fillCache)
     {
         Builder<LevelIterator> builder = ImmutableList.builder();
         for (Level level : levels) {
             if (!level.getFiles().isEmpty()) {
-                builder.add(level.iterator());
+                builder.add(level.iterator(fillCache));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns iterators over the files of each level that overlap the internal
+     * key range from {@code lowerBound}, inclusive, to {@code upperBound},
+     * exclusive.  Either bound may be null.  The iterators read up to
+     * {@code readaheadSize} bytes ahead of forward scans.
+     */
+    List<LevelIterator> getLevelIterators(boolean fillCache, InternalKey lowerBound, InternalKey upperBound, int readaheadSize)
+    {
+        Builder<LevelIterator> builder = ImmutableList.builder();
+        for (Level level : levels) {
+            if (!level.getFiles().isEmpty()) {
+                builder.add(level.iterator(fillCache, lowerBound, upperBound, readaheadSize));
             }
         }
         return builder.build();
     }
 
     public LookupResult get(LookupKey key)
+    {
+        return get(key, true);
+    }
+
+    public LookupResult get(LookupKey key, boolean fillCache)
     {
         // We can search level-by-level since entries never hop across
         // levels.  Therefore we are guaranteed that if we find data
         // in an smaller level, later levels are irrelevant.
         ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
+        LookupResult lookupResult = level0.get(key, readStats, fillCache);
         if (lookupResult == null) {
             for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
+                lookupResult = level.get(key, readStats, fillCache);
                 if (lookupResult != null) {
                     break;
                 }
@@ -182,6 +255,24 @@ public class Version
         return lookupResult;
     }
 
+    /**
+     * Looks up the keys of the batch not found in the memtables, level by
+     * level.  With an executor the files of a level are probed in parallel.
+     */
+    void get(MultiGetBatch batch, boolean fillCache, Executor executor)
+    {
+        level0.get(batch, fillCache);
+        for (Level level : levels) {
+            if (batch.isDone()) {
+                break;
+            }
+            level.get(batch, fillCache, executor);
+        }
+        for (int index = 0; index < batch.size(); index++) {
+            updateStats(batch.getSeekFileLevel(index), batch.getSeekFile(index));
+        }
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
     {
         int level = 0;
@@ -280,6 +371,11 @@ public class Version
         return false;
     }
 
+    public boolean needsCompaction()
+    {
+        return getCompactionScore() >= 1 || getFileToCompact() != null;
+    }
+
     public FileMetaData getFileToCompact()
     {
         return fileToCompact;
@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
+import org.iq80.leveldb.RateLimiter;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Level0Iterator;
@@ -65,10 +66,14 @@ public class VersionSet
     // stop building a single file in a level.level+1 compaction.
     public static final long MAX_GRAND_PARENT_OVERLAP_BYTES = 10 * TARGET_FILE_SIZE;
 
+    // Bytes of blocks read ahead of the merge of compaction inputs.
+    private static final int COMPACTION_READAHEAD_SIZE = 2 * 1048576;
+
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     private long manifestFileNumber = 1;
     private Version current;
-    private long lastSequence;
+    // read without the database mutex on the point lookup path
+    private volatile long lastSequence;
     private long logNumber;
     private long prevLogNumber;
 
@@ -80,11 +85,29 @@ public class VersionSet
     private final InternalKeyComparator internalKeyComparator;
     
     private LogWriter descriptorLog;
+    // manifest records are written under the database mutex, so they are
+    // charged to the limiter without waiting for it
+    private final RateLimiter rateLimiter;
     private final Map<Integer, InternalKey> compactPointers = Maps.newTreeMap();
 
+    // compactions that have been picked but not yet installed or abandoned
+    private final List<Compaction> compactionsInProgress = newArrayList();
+
     public VersionSet(File databaseDir, TableCache tableCache, InternalKeyFactory internalKeyFactory, InternalKeyComparator internalKeyComparator)
             throws IOException
     {
+        this(databaseDir, tableCache, internalKeyFactory, internalKeyComparator, null);
+    }
+
+    /**
+     * Creates a version set that charges its manifest records to the rate
+     * limiter, if it is not null.
+     */
+    public VersionSet(File databaseDir, TableCache tableCache, InternalKeyFactory internalKeyFactory, InternalKeyComparator internalKeyComparator,
+            RateLimiter rateLimiter)
+            throws IOException
+    {
+        this.rateLimiter = rateLimiter;
         this.databaseDir = databaseDir;
         this.tableCache = tableCache;
         this.internalKeyFactory = internalKeyFactory;
@@ -209,16 +232,19 @@ public class VersionSet
         // Level-0 files have to be merged together.  For other levels,
         // we will make a concatenating iterator per level.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
+        // Compaction inputs are read once, so they are kept out of the block cache
+        // and read ahead of the merge.
         List<InternalIterator> list = newArrayList();
         for (int which = 0; which < 2; which++) {
             if (!c.getInputs()[which].isEmpty()) {
                 if (c.getLevel() + which == 0) {
                     List<FileMetaData> files = c.getInputs()[which];
-                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator, false, COMPACTION_READAHEAD_SIZE));
                 }
                 else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator, false,
+                            COMPACTION_READAHEAD_SIZE));
                 }
             }
         }
@@ -295,6 +321,9 @@ public class VersionSet
             // Write new record to MANIFEST log
             Slice record = edit.encode();
             descriptorLog.addRecord(record, true);
+            if (rateLimiter != null) {
+                rateLimiter.charge(record.length());
+            }
 
             // If we just created a new descriptor file, install it by writing a
             // new CURRENT file that points to it.
@@ -444,6 +473,7 @@ public class VersionSet
                 }
                 score = 1.0 * levelBytes / maxBytesForLevel(level);
             }
+            version.setCompactionScore(level, score);
 
             if (score > bestScore) {
                 bestLevel = level;
@@ -453,6 +483,33 @@ public class VersionSet
 
         version.setCompactionLevel(bestLevel);
         version.setCompactionScore(bestScore);
+        version.setPendingCompactionBytes(estimatePendingCompactionBytes(version));
+    }
+
+    /**
+     * Estimates the bytes compactions have to move down before every level is
+     * back within its size limit.  Bytes moved out of a level count against
+     * the level below, so a backlog high up the tree cascades down.
+     */
+    private static long estimatePendingCompactionBytes(Version version)
+    {
+        long pendingBytes = 0;
+        long incomingBytes = 0;
+        if (version.numberOfFilesInLevel(0) >= L0_COMPACTION_TRIGGER) {
+            incomingBytes = Compaction.totalFileSize(version.getFiles(0));
+            pendingBytes += incomingBytes;
+        }
+        for (int level = 1; level < version.numberOfLevels() - 1; level++) {
+            long levelBytes = Compaction.totalFileSize(version.getFiles(level)) + incomingBytes;
+            incomingBytes = Math.max(0, (long) (levelBytes - maxBytesForLevel(level)));
+            pendingBytes += incomingBytes;
+        }
+        return pendingBytes;
+    }
+
+    public long getPendingCompactionBytes()
+    {
+        return current.getPendingCompactionBytes();
     }
 
     private static <V> V coalesce(V... values)
@@ -493,7 +550,7 @@ public class VersionSet
 
     public boolean needsCompaction()
     {
-        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
+        return current.needsCompaction();
     }
 
     public Compaction compactRange(int level, InternalKey begin, InternalKey end)
@@ -503,45 +560,124 @@ public class VersionSet
             return null;
         }
 
-        return setupOtherInputs(level, levelInputs);
+        Compaction compaction = setupOtherInputs(level, levelInputs);
+        Preconditions.checkState(!conflictsWithCompactionInProgress(compaction), "manual compaction overlaps a running compaction");
+        startCompaction(compaction);
+        return compaction;
     }
 
+    /**
+     * Picks the next compaction whose inputs and key range do not overlap any
+     * compaction in progress, or returns null if there is none.  The returned
+     * compaction must be passed to {@link #finishCompaction} once it has been
+     * installed or abandoned.
+     */
     public Compaction pickCompaction()
     {
         // We prefer compactions triggered by too much data in a level over
-        // the compactions triggered by seeks.
-        boolean sizeCompaction = (current.getCompactionScore() >= 1);
-        boolean seekCompaction = (current.getFileToCompact() != null);
-
-        int level;
-        List<FileMetaData> levelInputs;
-        if (sizeCompaction) {
-            level = current.getCompactionLevel();
-            Preconditions.checkState(level >= 0);
-            Preconditions.checkState(level + 1 < NUM_LEVELS);
-
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = newArrayList();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
+        // the compactions triggered by seeks.  Try the levels in order of
+        // their score, so that a level blocked by running compactions does
+        // not keep the other levels from being compacted in parallel.
+        List<Integer> levels = newArrayList();
+        for (int level = 0; level + 1 < NUM_LEVELS; level++) {
+            if (current.getCompactionScore(level) >= 1) {
+                levels.add(level);
+            }
+        }
+        Collections.sort(levels, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Double.compare(current.getCompactionScore(right), current.getCompactionScore(left));
+            }
+        });
+
+        for (int level : levels) {
+            List<FileMetaData> files = current.getFiles(level);
+            if (files.isEmpty()) {
+                continue;
+            }
+
+            // Start with the first file that comes after compact_pointer_[level],
+            // wrapping around to the beginning of the key space
+            int start = 0;
+            InternalKey compactPointer = compactPointers.get(level);
+            if (compactPointer != null) {
+                while (start < files.size() && internalKeyComparator.compare(files.get(start).getLargest(), compactPointer) <= 0) {
+                    start++;
+                }
+                if (start == files.size()) {
+                    start = 0;
+                }
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                FileMetaData fileMetaData = files.get((start + i) % files.size());
+                Compaction compaction = setupCompaction(level, fileMetaData);
+                if (compaction != null) {
+                    startCompaction(compaction);
+                    return compaction;
                 }
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+        }
+
+        FileMetaData fileToCompact = current.getFileToCompact();
+        if (fileToCompact != null) {
+            Compaction compaction = setupCompaction(current.getFileToCompactLevel(), fileToCompact);
+            if (compaction != null) {
+                startCompaction(compaction);
+                return compaction;
             }
         }
-        else if (seekCompaction) {
-            level = current.getFileToCompactLevel();
-            levelInputs = ImmutableList.of(current.getFileToCompact());
+        return null;
+    }
+
+    /**
+     * Releases the inputs of a compaction returned by {@link #pickCompaction} or
+     * {@link #compactRange}.
+     */
+    public void finishCompaction(Compaction compaction)
+    {
+        boolean removed = compactionsInProgress.remove(compaction);
+        Preconditions.checkArgument(removed, "compaction is not in progress");
+        for (List<FileMetaData> inputs : ImmutableList.of(compaction.getLevelInputs(), compaction.getLevelUpInputs())) {
+            for (FileMetaData fileMetaData : inputs) {
+                fileMetaData.setBeingCompacted(false);
+            }
         }
-        else {
+    }
+
+    public boolean hasCompactionsInProgress()
+    {
+        return !compactionsInProgress.isEmpty();
+    }
+
+    /**
+     * Returns the level a new memtable table covering the given user keys should
+     * be placed in.  The table is kept above the levels of any running compaction
+     * over the same key range, so that the compaction output cannot overlap it.
+     */
+    public int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
+    {
+        int level = current.pickLevelForMemTableOutput(smallestUserKey, largestUserKey);
+        for (Compaction compaction : compactionsInProgress) {
+            Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+            if (overlaps(range, smallestUserKey, largestUserKey)) {
+                level = Math.min(level, Math.max(0, compaction.getLevel() - 1));
+            }
+        }
+        return level;
+    }
+
+    private Compaction setupCompaction(int level, FileMetaData fileMetaData)
+    {
+        if (fileMetaData.isBeingCompacted()) {
             return null;
         }
 
+        List<FileMetaData> levelInputs = ImmutableList.of(fileMetaData);
+
         // Files in level 0 may overlap each other, so pick up all overlapping ones
         if (level == 0) {
             Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -554,9 +690,63 @@ public class VersionSet
         }
 
         Compaction compaction = setupOtherInputs(level, levelInputs);
+        if (conflictsWithCompactionInProgress(compaction)) {
+            return null;
+        }
         return compaction;
     }
 
+    private boolean conflictsWithCompactionInProgress(Compaction compaction)
+    {
+        for (List<FileMetaData> inputs : ImmutableList.of(compaction.getLevelInputs(), compaction.getLevelUpInputs())) {
+            for (FileMetaData fileMetaData : inputs) {
+                if (fileMetaData.isBeingCompacted()) {
+                    return true;
+                }
+            }
+        }
+
+        // Compactions that share a level must also cover disjoint key ranges,
+        // otherwise their outputs could overlap
+        Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (Compaction running : compactionsInProgress) {
+            if (Math.abs(running.getLevel() - compaction.getLevel()) > 1) {
+                continue;
+            }
+            Entry<InternalKey, InternalKey> runningRange = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+            if (overlaps(runningRange, range.getKey().getUserKey(), range.getValue().getUserKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean overlaps(Entry<InternalKey, InternalKey> range, Slice smallestUserKey, Slice largestUserKey)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        return userComparator.compare(range.getValue().getUserKey(), smallestUserKey) >= 0 &&
+                userComparator.compare(range.getKey().getUserKey(), largestUserKey) <= 0;
+    }
+
+    private void startCompaction(Compaction compaction)
+    {
+        compactionsInProgress.add(compaction);
+        for (List<FileMetaData> inputs : ImmutableList.of(compaction.getLevelInputs(), compaction.getLevelUpInputs())) {
+            for (FileMetaData fileMetaData : inputs) {
+                fileMetaData.setBeingCompacted(true);
+            }
+        }
+
+        // Update the place where we will do the next compaction for this level.
+        // We update this immediately instead of waiting for the VersionEdit
+        // to be applied so that if the compaction fails, we will try a different
+        // key range next time.
+        int level = compaction.getLevel();
+        InternalKey largest = getRange(compaction.getLevelInputs()).getValue();
+        compactPointers.put(level, largest);
+        compaction.getEdit().setCompactPointer(level, largest);
+    }
+
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs)
     {
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -615,16 +805,7 @@ public class VersionSet
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents, internalKeyFactory);
-
-        // Update the place where we will do the next compaction for this level.
-        // We update this immediately instead of waiting for the VersionEdit
-        // to be applied so that if the compaction fails, we will try a different
-        // key range next time.
-        compactPointers.put(level, largest);
-        compaction.getEdit().setCompactPointer(level, largest);
-
-        return compaction;
+        return new Compaction(current, level, levelInputs, levelUpInputs, grandparents, internalKeyFactory);
     }
 
     List<FileMetaData> getOverlappingInputs(int level, InternalKey begin, InternalKey end)
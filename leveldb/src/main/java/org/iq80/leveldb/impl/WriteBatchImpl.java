@@ -80,6 +80,14 @@ public class WriteBatchImpl
         return this;
     }
 
+    public WriteBatchImpl append(WriteBatchImpl updates)
+    {
+        Preconditions.checkNotNull(updates, "updates is null");
+        batch.addAll(updates.batch);
+        approximateSize += updates.approximateSize;
+        return this;
+    }
+
     @Override
     public void close()
     {
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.PENDING_COMPACTION_BYTES_STOP_TRIGGER;
+
+/**
+ * Decides when writes are delayed or stopped because flushes and compactions
+ * fall behind, and paces delayed writes.  All delayed writers share one
+ * budget of bytes per second, which shrinks as the backlog grows, so writes
+ * slow down smoothly instead of hitting the stop trigger at full speed.
+ * <p/>
+ * Not thread safe; the database mutex guards all access.
+ */
+final class WriteController
+{
+    enum StallCause
+    {
+        LEVEL0_FILES,
+        PENDING_COMPACTION_BYTES,
+        MEMTABLES
+    }
+
+    // the rate just before writes stop, relative to the configured rate
+    private static final double MIN_RATE_RATIO = 0.25;
+
+    private final long delayedWriteRate;
+    private final int maxWriteBufferNumber;
+
+    private StallCause delayCause;
+    private StallCause stopCause;
+    private long writeRate;
+    // time at which the bytes handed out so far have been paid for
+    private long nextWriteNanos;
+
+    private final long[] delayCounts = new long[StallCause.values().length];
+    private final long[] delayNanos = new long[StallCause.values().length];
+    private final long[] stopCounts = new long[StallCause.values().length];
+    private final long[] stopNanos = new long[StallCause.values().length];
+
+    WriteController(long delayedWriteRate, int maxWriteBufferNumber)
+    {
+        this.delayedWriteRate = delayedWriteRate;
+        this.maxWriteBufferNumber = maxWriteBufferNumber;
+    }
+
+    /**
+     * Recomputes the stall state after the memtables or the current version
+     * changed.
+     */
+    void update(int level0Files, long pendingCompactionBytes, int immutableMemTables)
+    {
+        if (level0Files >= L0_STOP_WRITES_TRIGGER) {
+            stopCause = StallCause.LEVEL0_FILES;
+        }
+        else if (pendingCompactionBytes >= PENDING_COMPACTION_BYTES_STOP_TRIGGER) {
+            stopCause = StallCause.PENDING_COMPACTION_BYTES;
+        }
+        else {
+            stopCause = null;
+        }
+
+        // the cause closest to stopping writes determines the rate
+        StallCause cause = null;
+        double pressure = -1;
+        if (level0Files > L0_SLOWDOWN_WRITES_TRIGGER) {
+            cause = StallCause.LEVEL0_FILES;
+            pressure = ratio(level0Files - L0_SLOWDOWN_WRITES_TRIGGER, L0_STOP_WRITES_TRIGGER - L0_SLOWDOWN_WRITES_TRIGGER);
+        }
+        if (pendingCompactionBytes >= PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER) {
+            double pendingPressure = ratio(pendingCompactionBytes - PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER,
+                    PENDING_COMPACTION_BYTES_STOP_TRIGGER - PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER);
+            if (pendingPressure > pressure) {
+                cause = StallCause.PENDING_COMPACTION_BYTES;
+                pressure = pendingPressure;
+            }
+        }
+        // with enough memtables, start delaying when a single memtable is left
+        // before writes stop
+        if (maxWriteBufferNumber > 3 && immutableMemTables >= maxWriteBufferNumber - 2 && pressure < 0) {
+            cause = StallCause.MEMTABLES;
+            pressure = 0;
+        }
+
+        delayCause = cause;
+        if (cause != null) {
+            writeRate = Math.max(1, (long) (delayedWriteRate * (1 - (1 - MIN_RATE_RATIO) * pressure)));
+        }
+    }
+
+    private static double ratio(long value, long limit)
+    {
+        return Math.min(1.0, (double) value / limit);
+    }
+
+    boolean isDelayed()
+    {
+        return delayCause != null;
+    }
+
+    StallCause getDelayCause()
+    {
+        return delayCause;
+    }
+
+    StallCause getStopCause()
+    {
+        return stopCause;
+    }
+
+    /**
+     * Returns the rate delayed writes are paced to, or zero if writes are not
+     * delayed.
+     */
+    long getWriteRate()
+    {
+        return delayCause != null ? writeRate : 0;
+    }
+
+    /**
+     * Takes the bytes out of the shared budget and returns how long the write
+     * has to wait before it may proceed.
+     */
+    long reserve(long bytes)
+    {
+        if (delayCause == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long start = Math.max(nextWriteNanos, now);
+        nextWriteNanos = start + bytes * TimeUnit.SECONDS.toNanos(1) / writeRate;
+        return start - now;
+    }
+
+    /**
+     * Takes the bytes of writes that did not wait themselves, like those
+     * grouped into the batch of a delayed writer, out of the shared budget.
+     */
+    void charge(long bytes)
+    {
+        reserve(bytes);
+    }
+
+    void recordDelay(StallCause cause, long nanos)
+    {
+        delayCounts[cause.ordinal()]++;
+        delayNanos[cause.ordinal()] += nanos;
+    }
+
+    void recordStop(StallCause cause, long nanos)
+    {
+        stopCounts[cause.ordinal()]++;
+        stopNanos[cause.ordinal()] += nanos;
+    }
+
+    long getDelayCount(StallCause cause)
+    {
+        return delayCounts[cause.ordinal()];
+    }
+
+    long getDelayNanos(StallCause cause)
+    {
+        return delayNanos[cause.ordinal()];
+    }
+
+    long getStopCount(StallCause cause)
+    {
+        return stopCounts[cause.ordinal()];
+    }
+
+    long getStopNanos(StallCause cause)
+    {
+        return stopNanos[cause.ordinal()];
+    }
+}
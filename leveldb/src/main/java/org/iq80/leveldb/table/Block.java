@@ -102,6 +102,18 @@ public class Block
         }
     }
 
+    /**
+     * For subclasses that keep the block contents outside of a slice.
+     */
+    protected Block(Comparator<Slice> comparator)
+    {
+        Preconditions.checkNotNull(comparator, "comparator is null");
+        this.block = Slices.EMPTY_SLICE;
+        this.comparator = comparator;
+        this.data = Slices.EMPTY_SLICE;
+        this.restartPositions = Slices.EMPTY_SLICE;
+    }
+
     public long size()
     {
         return block.length();
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of uncompressed data blocks shared by all the tables of
+ * a database. Blocks are keyed by table file number and block offset, and the
+ * cache is split into independently locked LRU shards so concurrent readers
+ * of different blocks rarely contend.
+ */
+public class BlockCache
+{
+    public static final int NUM_SHARDS = 16;
+
+    private final long capacity;
+    private final Cache<BlockKey, Block> cache;
+    // bytes of the cached blocks, added on put and subtracted on removal
+    private final AtomicLong usage = new AtomicLong();
+
+    public BlockCache(long capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        this.cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(NUM_SHARDS)
+                .maximumWeight(capacity)
+                .weigher(new Weigher<BlockKey, Block>()
+                {
+                    @Override
+                    public int weigh(BlockKey key, Block block)
+                    {
+                        return (int) block.size();
+                    }
+                })
+                .removalListener(new RemovalListener<BlockKey, Block>()
+                {
+                    @Override
+                    public void onRemoval(RemovalNotification<BlockKey, Block> notification)
+                    {
+                        usage.addAndGet(-notification.getValue().size());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached block, or null if the block is not in the cache.
+     */
+    public Block get(long fileNumber, long blockOffset)
+    {
+        return cache.getIfPresent(new BlockKey(fileNumber, blockOffset));
+    }
+
+    public void put(long fileNumber, long blockOffset, Block block)
+    {
+        // counted before the put, whose removal notifications may already include the block
+        usage.addAndGet(block.size());
+        cache.put(new BlockKey(fileNumber, blockOffset), block);
+    }
+
+    public long getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the bytes of the blocks in the cache, without walking the cache.
+     */
+    public long getUsage()
+    {
+        return usage.get();
+    }
+
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+    public void clear()
+    {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlockCache");
+        sb.append("{capacity=").append(capacity);
+        sb.append(", size=").append(cache.size());
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class BlockKey
+    {
+        private final long fileNumber;
+        private final long blockOffset;
+
+        private BlockKey(long fileNumber, long blockOffset)
+        {
+            this.fileNumber = fileNumber;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            BlockKey blockKey = (BlockKey) o;
+            return fileNumber == blockKey.fileNumber && blockOffset == blockKey.blockOffset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + (int) (blockOffset ^ (blockOffset >>> 32));
+            return result;
+        }
+    }
+}
@@ -20,37 +20,66 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Preconditions;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
+/**
+ * Iterator over the entries of a block.  Values, and restart keys compared
+ * while seeking, are slices of the block if it is on the heap; the entries of
+ * other blocks, like those read in place from a memory-mapped table, are only
+ * copied out once they are visited.
+ */
 public class BlockIterator
         implements SeekingIterator<Slice, Slice>
 {
-    private final SliceInput data;
-    private final Slice restartPositions;
+    // private view of the entries, the position is the read index
+    private final ByteBuffer data;
+    private final int dataLength;
+    private final ByteBuffer restartPositions;
     private final int restartCount;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
+    private int nextEntryOffset;
+
+    // entries of one restart run decoded while moving backwards, the last
+    // one ends at prevCacheEnd
+    private BlockEntry[] prevEntries = new BlockEntry[16];
+    private int[] prevOffsets = new int[16];
+    private int prevCount;
+    private int prevCacheEnd;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
+    {
+        this(Preconditions.checkNotNull(data, "data is null").toByteBuffer(),
+                Preconditions.checkNotNull(restartPositions, "restartPositions is null").toByteBuffer(),
+                comparator);
+    }
+
+    /**
+     * Creates an iterator over the remaining bytes of the buffers, which may
+     * be outside of the heap.
+     */
+    public BlockIterator(ByteBuffer data, ByteBuffer restartPositions, Comparator<Slice> comparator)
     {
         Preconditions.checkNotNull(data, "data is null");
         Preconditions.checkNotNull(restartPositions, "restartPositions is null");
-        Preconditions.checkArgument(restartPositions.length() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
+        Preconditions.checkArgument(restartPositions.remaining() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
         Preconditions.checkNotNull(comparator, "comparator is null");
 
-        this.data = data.input();
+        this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.dataLength = this.data.limit();
 
-        this.restartPositions = restartPositions.slice();
-        restartCount = this.restartPositions.length() / SIZE_OF_INT;
+        this.restartPositions = restartPositions.slice().order(ByteOrder.LITTLE_ENDIAN);
+        restartCount = this.restartPositions.limit() / SIZE_OF_INT;
 
         this.comparator = comparator;
 
@@ -81,17 +110,52 @@ public class BlockIterator
 
         BlockEntry entry = nextEntry;
 
-        if (!data.isReadable()) {
+        if (!data.hasRemaining()) {
             nextEntry = null;
         }
         else {
             // read entry at current data position
-            nextEntry = readEntry(data, nextEntry);
+            nextEntryOffset = data.position();
+            nextEntry = readEntry(nextEntry);
         }
 
         return entry;
     }
 
+    @Override
+    public boolean hasPrev()
+    {
+        return currentOffset() > 0;
+    }
+
+    @Override
+    public BlockEntry peekPrev()
+    {
+        int target = currentOffset();
+        if (target == 0) {
+            throw new NoSuchElementException();
+        }
+        if (prevCount == 0 || prevCacheEnd != target) {
+            readPrevEntries(target);
+        }
+        return prevEntries[prevCount - 1];
+    }
+
+    @Override
+    public BlockEntry prev()
+    {
+        int target = currentOffset();
+        BlockEntry entry = peekPrev();
+
+        prevCount--;
+        prevCacheEnd = prevOffsets[prevCount];
+
+        nextEntry = entry;
+        nextEntryOffset = prevCacheEnd;
+        data.position(target);
+        return entry;
+    }
+
     @Override
     public void remove()
     {
@@ -109,6 +173,16 @@ public class BlockIterator
         }
     }
 
+    /**
+     * Repositions the iterator after the last entry of this block.
+     */
+    @Override
+    public void seekToLast()
+    {
+        data.position(dataLength);
+        nextEntry = null;
+    }
+
     /**
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
@@ -126,9 +200,7 @@ public class BlockIterator
         while (left < right) {
             int mid = (left + right + 1) / 2;
 
-            seekToRestartPosition(mid);
-
-            if (comparator.compare(nextEntry.getKey(), targetKey) < 0) {
+            if (comparator.compare(readRestartKey(mid), targetKey) < 0) {
                 // key at mid is smaller than targetKey.  Therefore all restart
                 // blocks before mid are uninteresting.
                 left = mid;
@@ -160,26 +232,83 @@ public class BlockIterator
 
         // seek data readIndex to the beginning of the restart block
         int offset = restartPositions.getInt(restartPosition * SIZE_OF_INT);
-        data.setPosition(offset);
+        data.position(offset);
+        nextEntryOffset = offset;
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
 
         // read the entry
-        nextEntry = readEntry(data, null);
+        nextEntry = readEntry(null);
+    }
+
+    /**
+     * Reads the key at the specified restart position, which is never prefix
+     * compressed, without reading its value.  Leaves the read index after the key.
+     */
+    private Slice readRestartKey(int restartPosition)
+    {
+        data.position(restartPositions.getInt(restartPosition * SIZE_OF_INT));
+
+        int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(data);
+        Preconditions.checkState(sharedKeyLength == 0, "Entry at a restart position has a shared key");
+        int nonSharedKeyLength = VariableLengthQuantity.readVariableLengthInt(data);
+        VariableLengthQuantity.readVariableLengthInt(data);
+        return readSlice(nonSharedKeyLength);
+    }
+
+    /**
+     * Offset of the entry after the current position, or the end of the data.
+     */
+    private int currentOffset()
+    {
+        return nextEntry == null ? dataLength : nextEntryOffset;
+    }
+
+    /**
+     * Decodes the restart run holding the entry that ends at {@code target}
+     * up to that entry, so stepping back through the run reads each entry
+     * once. The read position is left unchanged.
+     */
+    private void readPrevEntries(int target)
+    {
+        // binary search for the last restart position before the target
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            if (restartPositions.getInt(mid * SIZE_OF_INT) < target) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        int position = data.position();
+        data.position(restartPositions.getInt(left * SIZE_OF_INT));
+        prevCount = 0;
+        BlockEntry entry = null;
+        while (data.position() < target) {
+            if (prevCount == prevEntries.length) {
+                prevEntries = Arrays.copyOf(prevEntries, prevCount * 2);
+                prevOffsets = Arrays.copyOf(prevOffsets, prevCount * 2);
+            }
+            prevOffsets[prevCount] = data.position();
+            entry = readEntry(entry);
+            prevEntries[prevCount++] = entry;
+        }
+        prevCacheEnd = target;
+        data.position(position);
     }
 
     /**
      * Reads the entry at the current data readIndex.
      * After this method, data readIndex is positioned at the beginning of the next entry
      * or at the end of data if there was not a next entry.
-     *
-     * @return true if an entry was read
      */
-    private static BlockEntry readEntry(SliceInput data, BlockEntry previousEntry)
+    private BlockEntry readEntry(BlockEntry previousEntry)
     {
-        Preconditions.checkNotNull(data, "data is null");
-
         // read entry header
         int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(data);
         int nonSharedKeyLength = VariableLengthQuantity.readVariableLengthInt(data);
@@ -187,16 +316,33 @@ public class BlockIterator
 
         // read key
         Slice key = Slices.allocate(sharedKeyLength + nonSharedKeyLength);
-        SliceOutput sliceOutput = key.output();
         if (sharedKeyLength > 0) {
             Preconditions.checkState(previousEntry != null, "Entry has a shared key but no previous entry was provided");
-            sliceOutput.writeBytes(previousEntry.getKey(), 0, sharedKeyLength);
+            key.setBytes(0, previousEntry.getKey(), 0, sharedKeyLength);
         }
-        sliceOutput.writeBytes(data, nonSharedKeyLength);
+        data.get(key.getRawArray(), key.getRawOffset() + sharedKeyLength, nonSharedKeyLength);
 
         // read value
-        Slice value = data.readSlice(valueLength);
+        Slice value = readSlice(valueLength);
 
         return new BlockEntry(key, value);
     }
+
+    /**
+     * Reads the next bytes of the data, which are shared with a heap block and
+     * copied out of any other.
+     */
+    private Slice readSlice(int length)
+    {
+        Slice slice;
+        if (data.hasArray()) {
+            slice = new Slice(data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.position() + length);
+        }
+        else {
+            slice = Slices.allocate(length);
+            data.get(slice.getRawArray(), slice.getRawOffset(), length);
+        }
+        return slice;
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.util.concurrent.Futures;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reads the blocks of a table ahead of an iterator scanning it forward.
+ * Once consecutive blocks have been read back to back, the blocks following
+ * them in the index are read on the executor.  The readahead window starts
+ * small and doubles every time a scan uses a prefetched block, up to the
+ * maximum size.  Any other access pattern drops the prefetched blocks and
+ * starts over.
+ * <p>
+ * Instances are not thread safe; each belongs to a single iterator.
+ */
+public class BlockReadahead
+{
+    private static final int INITIAL_READAHEAD_SIZE = 8 * 1024;
+    // consecutive block reads that make an access pattern sequential
+    private static final int SEQUENTIAL_READS_TRIGGER = 2;
+
+    private final Table table;
+    private final boolean fillCache;
+    private final Executor executor;
+    private final int maxReadaheadSize;
+    // optional key at and above which no block is needed
+    private final Comparator<Slice> comparator;
+    private final Slice upperBound;
+    // positioned after the handle of the last block prefetched
+    private final SeekingIterator<Slice, Slice> indexIterator;
+    private final ArrayDeque<PrefetchedBlock> prefetched = new ArrayDeque<>();
+    // index key of the last block read or prefetched
+    private Slice lastIndexKey;
+
+    private int readaheadSize;
+    private long prefetchedBytes;
+    private int sequentialReads;
+    // offset following the last block read, or -1 if there is none
+    private long nextOffset = -1;
+
+    public BlockReadahead(Table table, boolean fillCache, Executor executor, int maxReadaheadSize, Comparator<Slice> comparator, Slice upperBound)
+    {
+        this.table = table;
+        this.fillCache = fillCache;
+        this.executor = executor;
+        this.maxReadaheadSize = maxReadaheadSize;
+        this.comparator = comparator;
+        this.upperBound = upperBound;
+        this.indexIterator = table.indexBlock.iterator();
+        this.readaheadSize = Math.min(INITIAL_READAHEAD_SIZE, maxReadaheadSize);
+    }
+
+    /**
+     * Returns the block with the given index entry, taking it from the
+     * prefetched blocks if it was read ahead.
+     */
+    public Block openBlock(Slice indexKey, Slice blockEntry)
+    {
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        Block block = null;
+        PrefetchedBlock first = prefetched.peekFirst();
+        if (first != null && first.offset == blockHandle.getOffset()) {
+            prefetched.removeFirst();
+            prefetchedBytes -= first.size;
+            block = Futures.getUnchecked(first.block);
+            readaheadSize = (int) Math.min((long) readaheadSize * 2, maxReadaheadSize);
+        }
+        else if (first != null) {
+            cancel();
+        }
+        if (block == null) {
+            block = table.openBlock(blockEntry, fillCache);
+        }
+
+        if (blockHandle.getOffset() == nextOffset) {
+            sequentialReads++;
+        }
+        else {
+            sequentialReads = 0;
+            readaheadSize = Math.min(INITIAL_READAHEAD_SIZE, maxReadaheadSize);
+            cancel();
+        }
+        nextOffset = blockHandle.getOffset() + blockHandle.getFullBlockSize();
+
+        if (sequentialReads >= SEQUENTIAL_READS_TRIGGER) {
+            readAhead(indexKey);
+        }
+        return block;
+    }
+
+    private void readAhead(Slice indexKey)
+    {
+        if (prefetched.isEmpty()) {
+            // start after the block just read
+            indexIterator.seek(indexKey);
+            if (indexIterator.hasNext()) {
+                indexIterator.next();
+            }
+            lastIndexKey = indexKey;
+        }
+        while (prefetchedBytes < readaheadSize && indexIterator.hasNext()) {
+            // every block after the last one starts above its index key
+            if (upperBound != null && comparator.compare(lastIndexKey, upperBound) >= 0) {
+                return;
+            }
+            Entry<Slice, Slice> indexEntry = indexIterator.peek();
+            final Slice blockEntry = indexEntry.getValue();
+            FutureTask<Block> task = new FutureTask<>(new Callable<Block>()
+            {
+                @Override
+                public Block call()
+                {
+                    return table.openBlock(blockEntry, fillCache);
+                }
+            });
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                // the database is closing, the scan reads its blocks itself
+                return;
+            }
+            indexIterator.next();
+            lastIndexKey = indexEntry.getKey();
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+            prefetched.addLast(new PrefetchedBlock(blockHandle.getOffset(), blockHandle.getDataSize(), task));
+            prefetchedBytes += blockHandle.getDataSize();
+        }
+    }
+
+    /**
+     * Drops the prefetched blocks.  Reads already running are left to finish,
+     * as interrupting them would close the file channel of the table.
+     */
+    private void cancel()
+    {
+        for (PrefetchedBlock block : prefetched) {
+            block.block.cancel(false);
+        }
+        prefetched.clear();
+        prefetchedBytes = 0;
+    }
+
+    private static final class PrefetchedBlock
+    {
+        private final long offset;
+        private final int size;
+        private final Future<Block> block;
+
+        private PrefetchedBlock(long offset, int size, Future<Block> block)
+        {
+            this.offset = offset;
+            this.size = size;
+            this.block = block;
+        }
+    }
+}
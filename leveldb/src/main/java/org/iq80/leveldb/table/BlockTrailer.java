@@ -24,6 +24,8 @@ import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 
+import java.nio.ByteBuffer;
+
 public class BlockTrailer
 {
     public static final int ENCODED_LENGTH = 5;
@@ -98,6 +100,16 @@ public class BlockTrailer
         return new BlockTrailer(compressionType, crc32c);
     }
 
+    /**
+     * Reads a trailer from the position of a little endian buffer.
+     */
+    public static BlockTrailer readBlockTrailer(ByteBuffer buffer)
+    {
+        CompressionType compressionType = CompressionType.getCompressionTypeByPersistentId(buffer.get() & 0xFF);
+        int crc32c = buffer.getInt();
+        return new BlockTrailer(compressionType, crc32c);
+    }
+
     public static Slice writeBlockTrailer(BlockTrailer blockTrailer)
     {
         Slice slice = Slices.allocate(ENCODED_LENGTH);
@@ -19,86 +19,187 @@ package org.iq80.leveldb.table;
 
 import static org.iq80.leveldb.CompressionType.SNAPPY;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Comparator;
+import java.util.concurrent.Callable;
 
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.DirectIO;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 public class FileChannelTable
         extends Table
 {
+    private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Per thread direct buffer every block read lands in, so reads do not
+     * allocate beyond the copy of the block they return.
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = new ThreadLocal<>();
+
+    // assigned by init(), which runs inside the super constructor
+    private FileChannel readChannel;
+    private int alignment;
+
     public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options)
             throws IOException
     {
-        super(name, fileChannel, comparator, options);
+        this(name, fileChannel, comparator, options, options.filterPolicy(), PrefixFilterPolicy.fromOptions(options), null, 0);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, options, filterPolicy, null, null, 0);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, options, filterPolicy, prefixFilterPolicy, blockCache, fileNumber);
+    }
+
+    @Override
+    protected boolean supportsReadahead()
+    {
+        // each block costs a read system call, unlike pages of a mapping
+        return true;
     }
 
     @Override
     protected Footer init()
             throws IOException
     {
+        readChannel = fileChannel;
+        if (directReads) {
+            Path path = Paths.get(name);
+            int blockSize = DirectIO.getAlignment(path);
+            if (blockSize > 0) {
+                try {
+                    readChannel = DirectIO.openForReading(path);
+                    alignment = blockSize;
+                }
+                catch (IOException | UnsupportedOperationException ignored) {
+                    // the file system refused O_DIRECT, use buffered reads
+                }
+            }
+        }
+
         long size = fileChannel.size();
         ByteBuffer footerData = read(size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod", "NonPrivateFieldAccessedInSynchronizedContext"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle, boolean metaData)
+    public Callable<?> closer()
+    {
+        return new Closer(fileChannel, readChannel);
+    }
+
+    @Override
+    protected Slice readBlockContents(BlockHandle blockHandle)
             throws IOException
     {
-        // read block trailer
-        ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
-        // decompress data
-
-        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
-        Slice uncompressedData;
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
+        // read the block and its trailer with a single positional read
+        int dataSize = blockHandle.getDataSize();
+        ByteBuffer blockAndTrailer = read(blockHandle.getOffset(), dataSize + BlockTrailer.ENCODED_LENGTH);
+        ByteBuffer trailerData = blockAndTrailer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        trailerData.position(dataSize);
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(trailerData);
 
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
-        }
-        else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+        ByteBuffer blockData = blockAndTrailer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        blockData.limit(dataSize);
+
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            verifyChecksum(blockData, blockTrailer);
         }
 
-        return createBlock(uncompressedData, comparator, metaData);
+        // the read buffer is reused by the next read on this thread, so the
+        // block is always copied out of it
+        if (blockTrailer.getCompressionType() == SNAPPY) {
+            return uncompress(blockData);
+        }
+        byte[] uncompressedData = new byte[dataSize];
+        blockData.get(uncompressedData);
+        return Slices.wrappedBuffer(uncompressedData);
     }
 
+    /**
+     * Reads {@code length} bytes at {@code offset} into this thread's read
+     * buffer. The returned view is only valid until the next read.
+     */
     private ByteBuffer read(long offset, int length)
             throws IOException
     {
-        ByteBuffer uncompressedBuffer = ByteBuffer.allocate(length);
-        fileChannel.read(uncompressedBuffer, offset);
-        if (uncompressedBuffer.hasRemaining()) {
+        long start = offset;
+        long end = offset + length;
+        if (alignment > 0) {
+            start = offset & -alignment;
+            end = (end + alignment - 1) & -alignment;
+        }
+
+        ByteBuffer buffer = readBuffer((int) (end - start));
+        int read = readChannel.read(buffer, start);
+        // direct reads are all-or-up-to-EOF and may not continue at an unaligned offset
+        while (alignment == 0 && read >= 0 && buffer.hasRemaining()) {
+            read = readChannel.read(buffer, start + buffer.position());
+        }
+
+        int skip = (int) (offset - start);
+        if (buffer.position() < skip + length) {
             throw new IOException("Could not read all the data");
         }
-        uncompressedBuffer.clear();
-        return uncompressedBuffer;
+        buffer.limit(skip + length);
+        buffer.position(skip);
+        return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer readBuffer(int size)
+    {
+        ByteBuffer buffer = READ_BUFFER.get();
+        if (buffer == null || buffer.capacity() < size) {
+            int capacity = Math.max(size, INITIAL_READ_BUFFER_SIZE);
+            capacity = (capacity + DirectIO.MAX_ALIGNMENT - 1) & -DirectIO.MAX_ALIGNMENT;
+            buffer = DirectIO.allocateAligned(capacity);
+            READ_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    private static class Closer
+            implements Callable<Void>
+    {
+        private final Closeable fileChannel;
+        private final Closeable readChannel;
+
+        public Closer(Closeable fileChannel, Closeable readChannel)
+        {
+            this.fileChannel = fileChannel;
+            this.readChannel = readChannel;
+        }
+
+        @Override
+        public Void call()
+        {
+            if (readChannel != fileChannel) {
+                Closeables.closeQuietly(readChannel);
+            }
+            Closeables.closeQuietly(fileChannel);
+            return null;
+        }
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Builds the filter block of a table.  A filter is generated for every
+ * {@code 2^FILTER_BASE_LG} bytes of data block offsets and covers the keys of
+ * the data blocks that start in that range.
+ * <p>
+ * The block holds the filters, followed by the offset of each filter, the
+ * offset of that array and the base lg, all little endian.
+ */
+public class FilterBlockBuilder
+{
+    // Generate new filter every 2KB of data
+    public static final int FILTER_BASE_LG = 11;
+    public static final int FILTER_BASE = 1 << FILTER_BASE_LG;
+
+    private final FilterPolicy policy;
+    private final List<byte[]> keys = newArrayList();
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    private final IntVector filterOffsets = new IntVector(32);
+
+    public FilterBlockBuilder(FilterPolicy policy)
+    {
+        this.policy = Preconditions.checkNotNull(policy, "policy is null");
+    }
+
+    /**
+     * Must be called before adding the keys of the data block that starts at
+     * {@code blockOffset}.
+     */
+    public void startBlock(long blockOffset)
+    {
+        long filterIndex = blockOffset / FILTER_BASE;
+        Preconditions.checkArgument(filterIndex >= filterOffsets.size(), "block offset must not decrease");
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key)
+    {
+        keys.add(key.getBytes());
+    }
+
+    public Slice finish()
+    {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        // Append array of per-filter offsets
+        int arrayOffset = result.size();
+        filterOffsets.write(result);
+
+        result.writeInt(arrayOffset);
+        // Save encoding parameter in result
+        result.writeByte(FILTER_BASE_LG);
+        return result.slice();
+    }
+
+    private void generateFilter()
+    {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // Fast path if there are no keys for this filter
+            return;
+        }
+
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+
+    /**
+     * Key under which the filter block is registered in the metaindex block.
+     */
+    public static String metaindexKey(FilterPolicy policy)
+    {
+        return "filter." + policy.name();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Reads a filter block written by {@link FilterBlockBuilder}.
+ */
+public class FilterBlockReader
+{
+    private final FilterPolicy policy;
+    private final Slice contents;
+    // offset of the filter offset array in contents
+    private final int offsetsOffset;
+    private final int filters;
+    private final int baseLg;
+
+    public FilterBlockReader(FilterPolicy policy, Slice contents)
+    {
+        this.policy = Preconditions.checkNotNull(policy, "policy is null");
+        this.contents = Preconditions.checkNotNull(contents, "contents is null");
+
+        int length = contents.length();
+        if (length < SIZE_OF_INT + 1) {
+            // 1 byte for baseLg and 4 for the start of the offset array
+            this.offsetsOffset = 0;
+            this.filters = 0;
+            this.baseLg = 0;
+            return;
+        }
+        this.baseLg = contents.getUnsignedByte(length - 1);
+        int offsetsOffset = contents.getInt(length - SIZE_OF_INT - 1);
+        if (offsetsOffset < 0 || offsetsOffset > length - SIZE_OF_INT - 1) {
+            this.offsetsOffset = 0;
+            this.filters = 0;
+            return;
+        }
+        this.offsetsOffset = offsetsOffset;
+        this.filters = (length - SIZE_OF_INT - 1 - offsetsOffset) / SIZE_OF_INT;
+    }
+
+    /**
+     * Returns false if the data block that starts at {@code blockOffset} can
+     * not contain the key.
+     */
+    public boolean keyMayMatch(long blockOffset, byte[] key)
+    {
+        long index = blockOffset >> baseLg;
+        if (index < filters) {
+            int start = contents.getInt(offsetsOffset + (int) index * SIZE_OF_INT);
+            int limit = contents.getInt(offsetsOffset + (int) index * SIZE_OF_INT + SIZE_OF_INT);
+            if (start <= limit && limit <= offsetsOffset) {
+                return policy.keyMayMatch(key, contents.getRawArray(), contents.getRawOffset() + start, limit - start);
+            }
+            else if (start == limit) {
+                // Empty filters do not match any keys
+                return false;
+            }
+        }
+        // Errors are treated as potential matches
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes of filter data held by this reader.
+     */
+    public long size()
+    {
+        return contents.length();
+    }
+}
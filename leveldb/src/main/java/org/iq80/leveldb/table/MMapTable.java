@@ -19,12 +19,12 @@ package org.iq80.leveldb.table;
 
 import com.google.common.base.Preconditions;
 
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.util.ByteBufferSupport;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -46,7 +46,20 @@ public class MMapTable
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options)
             throws IOException
     {
-        super(name, fileChannel, comparator, options);
+        this(name, fileChannel, comparator, options, options.filterPolicy(), PrefixFilterPolicy.fromOptions(options), null, 0);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, options, filterPolicy, null, null, 0);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, options, filterPolicy, prefixFilterPolicy, blockCache, fileNumber);
         Preconditions.checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
     }
 
@@ -88,47 +101,61 @@ public class MMapTable
         }
     }
 
-    @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext", "AssignmentToStaticFieldFromInstanceMethod"})
     @Override
     protected Block readBlock(BlockHandle blockHandle, boolean metaData)
             throws IOException
     {
-        // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
+        if (metaData || timeSeriesMode) {
+            return super.readBlock(blockHandle, metaData);
+        }
+
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
+        ByteBuffer blockBuffer = readVerified(blockHandle, blockTrailer);
+        if (blockTrailer.getCompressionType() == SNAPPY) {
+            return createBlock(uncompress(blockBuffer), comparator, false);
+        }
+
+        // uncompressed data blocks are read in place from the mapping
+        return new MappedBlock(this, blockBuffer, comparator);
+    }
+
+    private BlockTrailer readBlockTrailer(BlockHandle blockHandle)
+            throws IOException
+    {
+        return BlockTrailer.readBlockTrailer(read(this.data,
                 (int) blockHandle.getOffset() + blockHandle.getDataSize(),
                 BlockTrailer.ENCODED_LENGTH));
+    }
+
+    private ByteBuffer readVerified(BlockHandle blockHandle, BlockTrailer blockTrailer)
+            throws IOException
+    {
+        ByteBuffer blockBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            verifyChecksum(blockBuffer, blockTrailer);
+        }
+        return blockBuffer;
+    }
+
+    @Override
+    protected Slice readBlockContents(BlockHandle blockHandle)
+            throws IOException
+    {
+        BlockTrailer blockTrailer = readBlockTrailer(blockHandle);
+        ByteBuffer uncompressedBuffer = readVerified(blockHandle, blockTrailer);
 
         // decompress data
         Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return createBlock(uncompressedData, comparator, metaData);
+        return uncompressedData;
     }
 
     public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Uncompressed block that is read in place from the memory-mapped region of
+ * its table instead of being copied onto the heap.  Its {@link BlockIterator}
+ * only copies out the keys and values of the entries it visits.
+ * <p/>
+ * The block holds a reference to its table, so the mapping is only released
+ * once neither the table nor any of its blocks or iterators are reachable.
+ */
+public class MappedBlock
+        extends Block
+{
+    private final Table table;
+    private final ByteBuffer block;
+    private final int restartCount;
+    // views of the entries and of the restart index of the block
+    private final ByteBuffer entries;
+    private final ByteBuffer restarts;
+
+    public MappedBlock(Table table, ByteBuffer block, Comparator<Slice> comparator)
+    {
+        super(comparator);
+        Preconditions.checkNotNull(table, "table is null");
+        Preconditions.checkNotNull(block, "block is null");
+        Preconditions.checkArgument(block.remaining() >= SIZE_OF_INT, "Block is corrupt: size must be at least %s block", SIZE_OF_INT);
+
+        this.table = table;
+        this.block = block.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        // key restart count is the last int of the block
+        int length = this.block.limit();
+        restartCount = this.block.getInt(length - SIZE_OF_INT);
+        int restartOffset = 0;
+        if (restartCount > 0) {
+            restartOffset = length - (1 + restartCount) * SIZE_OF_INT;
+            Preconditions.checkArgument(restartOffset >= 0 && restartOffset < length - SIZE_OF_INT, "Block is corrupt: restart offset count is greater than block size");
+        }
+        entries = view(0, restartOffset);
+        restarts = restartCount > 0 ? view(restartOffset, restartCount * SIZE_OF_INT) : view(0, 0);
+    }
+
+    private ByteBuffer view(int offset, int length)
+    {
+        ByteBuffer view = block.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice();
+    }
+
+    @Override
+    public long size()
+    {
+        return block.limit();
+    }
+
+    @Override
+    public SeekingIterator<Slice, Slice> iterator()
+    {
+        return new BlockIterator(entries, restarts, comparator);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("MappedBlock");
+        sb.append("{table=").append(table);
+        sb.append(", size=").append(block.limit());
+        sb.append(", restartCount=").append(restartCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.BloomFilterPolicy;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.PrefixExtractor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
+
+/**
+ * Applies a filter policy to the prefixes of keys rather than to the keys
+ * themselves.  Keys without a prefix are left out of the filter, and may
+ * match any filter.
+ */
+public class PrefixFilterPolicy
+        implements FilterPolicy
+{
+    private final PrefixExtractor prefixExtractor;
+    private final FilterPolicy policy;
+
+    public PrefixFilterPolicy(PrefixExtractor prefixExtractor, FilterPolicy policy)
+    {
+        this.prefixExtractor = Preconditions.checkNotNull(prefixExtractor, "prefixExtractor is null");
+        this.policy = Preconditions.checkNotNull(policy, "policy is null");
+    }
+
+    /**
+     * Returns the prefix filter policy configured by the options, or null if
+     * the options have no prefix extractor.
+     */
+    public static PrefixFilterPolicy fromOptions(Options options)
+    {
+        if (options.prefixExtractor() == null) {
+            return null;
+        }
+        FilterPolicy policy = options.filterPolicy() != null ? options.filterPolicy() : new BloomFilterPolicy(10);
+        return new PrefixFilterPolicy(options.prefixExtractor(), policy);
+    }
+
+    @Override
+    public String name()
+    {
+        // a filter written for other prefixes must not be used
+        return "prefix." + prefixExtractor.name() + "." + policy.name();
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        // keys are sorted, so keys sharing a prefix are adjacent
+        List<byte[]> prefixes = newArrayListWithCapacity(keys.size());
+        byte[] last = null;
+        for (byte[] key : keys) {
+            byte[] prefix = prefix(key);
+            if (prefix != null && (last == null || !Arrays.equals(prefix, last))) {
+                prefixes.add(prefix);
+                last = prefix;
+            }
+        }
+        return policy.createFilter(prefixes);
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter, int offset, int length)
+    {
+        byte[] prefix = prefix(key);
+        if (prefix == null) {
+            return true;
+        }
+        return policy.keyMayMatch(prefix, filter, offset, length);
+    }
+
+    private byte[] prefix(byte[] key)
+    {
+        int prefixLength = prefixExtractor.prefixLength(key, 0, key.length);
+        if (prefixLength < 0) {
+            return null;
+        }
+        return Arrays.copyOf(key, prefixLength);
+    }
+}
@@ -20,12 +20,16 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.table.ts.TSBlock;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.Snappy;
 import org.iq80.leveldb.util.TableIterator;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
@@ -34,7 +38,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
+import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.Charsets.UTF_8;
 
 public abstract class Table
         implements SeekingIterable<Slice, Slice>
@@ -43,12 +51,39 @@ public abstract class Table
     protected final FileChannel fileChannel;
     protected final Comparator<Slice> comparator;
     protected final boolean verifyChecksums;
+    protected final boolean directReads;
     protected final Block indexBlock;
     protected final BlockHandle metaindexBlockHandle;
     protected final boolean timeSeriesMode;
+    protected final FilterBlockReader filter;
+    protected final FilterBlockReader prefixFilter;
+    protected final BlockCache blockCache;
+    protected final long fileNumber;
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options)
             throws IOException
+    {
+        this(name, fileChannel, comparator, options, options.filterPolicy(), PrefixFilterPolicy.fromOptions(options), null, 0);
+    }
+
+    /**
+     * Opens a table that checks point lookups against the filter block written
+     * by {@code filterPolicy}, if the table has one.
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, options, filterPolicy, null, null, 0);
+    }
+
+    /**
+     * Opens a table whose data blocks are shared through {@code blockCache}
+     * under the table's {@code fileNumber}.  Prefix seeks check the table
+     * filter written by {@code prefixFilterPolicy}, if it has one.
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy,
+            BlockCache blockCache, long fileNumber)
+            throws IOException
     {
         Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(fileChannel, "fileChannel is null");
@@ -59,12 +94,44 @@ public abstract class Table
         this.name = name;
         this.fileChannel = fileChannel;
         this.verifyChecksums = options.verifyChecksums();
+        this.directReads = options.useDirectReads();
         this.comparator = comparator;
         this.timeSeriesMode = options.timeSeriesMode();
+        this.blockCache = blockCache;
+        this.fileNumber = fileNumber;
 
         Footer footer = init();
         indexBlock = readBlock(footer.getIndexBlockHandle(), true);
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        if (filterPolicy != null || prefixFilterPolicy != null) {
+            // the metaindex is always ordered bytewise, whatever the table comparator
+            Block metaindexBlock = createBlock(readBlockContents(metaindexBlockHandle), new BytewiseComparator(), true);
+            filter = filterPolicy == null ? null : readFilter(metaindexBlock, filterPolicy);
+            prefixFilter = prefixFilterPolicy == null ? null : readFilter(metaindexBlock, prefixFilterPolicy);
+        }
+        else {
+            filter = null;
+            prefixFilter = null;
+        }
+    }
+
+    private FilterBlockReader readFilter(Block metaindexBlock, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        Slice filterKey = Slices.copiedBuffer(FilterBlockBuilder.metaindexKey(filterPolicy), UTF_8);
+
+        SeekingIterator<Slice, Slice> iterator = metaindexBlock.iterator();
+        iterator.seek(filterKey);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        Entry<Slice, Slice> entry = iterator.next();
+        if (!entry.getKey().equals(filterKey)) {
+            // written by another filter policy
+            return null;
+        }
+        BlockHandle filterHandle = BlockHandle.readBlockHandle(entry.getValue().input());
+        return new FilterBlockReader(filterPolicy, readBlockContents(filterHandle));
     }
 
     protected abstract Footer init()
@@ -73,22 +140,111 @@ public abstract class Table
     @Override
     public TableIterator iterator()
     {
-        return new TableIterator(this, indexBlock.iterator());
+        return iterator(true);
+    }
+
+    /**
+     * Returns an iterator that only adds the blocks it reads to the block
+     * cache if {@code fillCache} is set.
+     */
+    public TableIterator iterator(boolean fillCache)
+    {
+        return new TableIterator(this, indexBlock.iterator(), fillCache);
+    }
+
+    /**
+     * Returns an iterator that skips the blocks holding only keys below
+     * {@code lowerBound} or at and above {@code upperBound}.  Either bound may
+     * be null.
+     */
+    public TableIterator iterator(boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        return iterator(fillCache, lowerBound, upperBound, null, 0);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(boolean, Slice, Slice)} that
+     * reads up to {@code readaheadSize} bytes of blocks ahead of forward scans
+     * on the executor, if the table benefits from readahead.
+     */
+    public TableIterator iterator(boolean fillCache, Slice lowerBound, Slice upperBound, Executor readaheadExecutor, int readaheadSize)
+    {
+        BlockReadahead readahead = null;
+        if (readaheadExecutor != null && readaheadSize > 0 && supportsReadahead()) {
+            readahead = new BlockReadahead(this, fillCache, readaheadExecutor, readaheadSize, comparator, upperBound);
+        }
+        return new TableIterator(this, indexBlock.iterator(), fillCache, comparator, lowerBound, upperBound, readahead);
+    }
+
+    /**
+     * Returns true if reading blocks ahead of a scan in the background saves
+     * the scan from waiting on reads.
+     */
+    protected boolean supportsReadahead()
+    {
+        return false;
     }
 
     public Block openBlock(Slice blockEntry)
+    {
+        return openBlock(blockEntry, true);
+    }
+
+    public Block openBlock(Slice blockEntry, boolean fillCache)
     {
         BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
         Block dataBlock;
+        if (blockCache != null) {
+            dataBlock = blockCache.get(fileNumber, blockHandle.getOffset());
+            if (dataBlock != null) {
+                return dataBlock;
+            }
+        }
         try {
             dataBlock = readBlock(blockHandle, false);
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
+        if (blockCache != null && fillCache) {
+            blockCache.put(fileNumber, blockHandle.getOffset(), dataBlock);
+        }
         return dataBlock;
     }
     
+    /**
+     * Returns false if the filter block shows that the table does not contain
+     * the key.
+     */
+    public boolean keyMayMatch(Slice key)
+    {
+        if (filter == null) {
+            return true;
+        }
+
+        SeekingIterator<Slice, Slice> iterator = indexBlock.iterator();
+        iterator.seek(key);
+        if (!iterator.hasNext()) {
+            // key is past the last key in the file
+            return false;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), key.getBytes());
+    }
+
+    /**
+     * Returns false if the prefix filter of the table shows that it contains
+     * no key with the prefix of the key.
+     */
+    public boolean prefixMayMatch(Slice key)
+    {
+        if (prefixFilter == null) {
+            return true;
+        }
+        // the prefix filter covers the whole table
+        return prefixFilter.keyMayMatch(0, key.getBytes());
+    }
+
     protected Block createBlock(Slice block, Comparator<Slice> comparator, boolean metaData)
     {
 	if (!metaData && timeSeriesMode) {
@@ -98,11 +254,42 @@ public abstract class Table
 	}
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    // compressed blocks that are not on the heap are staged here by the reading thread
+    private static final ThreadLocal<byte[]> compressedScratch = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[4 * 1024];
+        }
+    };
+
+    protected Block readBlock(BlockHandle blockHandle, boolean metaData)
+            throws IOException
+    {
+        return createBlock(readBlockContents(blockHandle), comparator, metaData);
+    }
 
-    protected abstract Block readBlock(BlockHandle blockHandle, boolean metaData)
+    /**
+     * Reads and decompresses the contents of a block.
+     */
+    protected abstract Slice readBlockContents(BlockHandle blockHandle)
             throws IOException;
 
+    /**
+     * Checks the block data and the compression type in the trailer against
+     * the checksum stored in the trailer.
+     */
+    protected static void verifyChecksum(ByteBuffer data, BlockTrailer blockTrailer)
+    {
+        Crc32C checksum = new Crc32C();
+        checksum.update(data);
+        checksum.update(blockTrailer.getCompressionType().persistentId() & 0xFF);
+        int actualCrc32c = checksum.getMaskedValue();
+
+        Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -110,6 +297,36 @@ public abstract class Table
         return length;
     }
 
+    /**
+     * Decompresses a Snappy block straight into a new array that backs the
+     * returned slice. No locks are taken, so concurrent reads never wait on
+     * each other.
+     */
+    protected Slice uncompress(ByteBuffer compressed)
+            throws IOException
+    {
+        int length = compressed.remaining();
+        byte[] input;
+        int inputOffset;
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            inputOffset = compressed.arrayOffset() + compressed.position();
+        }
+        else {
+            input = compressedScratch.get();
+            if (input.length < length) {
+                input = new byte[length];
+                compressedScratch.set(input);
+            }
+            compressed.duplicate().get(input, 0, length);
+            inputOffset = 0;
+        }
+
+        byte[] output = new byte[uncompressedLength(compressed)];
+        Snappy.uncompress(input, inputOffset, length, output, 0);
+        return Slices.wrappedBuffer(output);
+    }
+
     /**
      * Given a key, return an approximate byte offset in the file where
      * the data for that key begins (or would begin if the key were
@@ -133,6 +350,22 @@ public abstract class Table
         return metaindexBlockHandle.getOffset();
     }
 
+    /**
+     * Returns the bytes held in memory while the table is open, which are
+     * those of its index block and filters.
+     */
+    public long getApproximateMemoryUsage()
+    {
+        long usage = indexBlock.size();
+        if (filter != null) {
+            usage += filter.size();
+        }
+        if (prefixFilter != null) {
+            usage += prefixFilter.size();
+        }
+        return usage;
+    }
+
     @Override
     public String toString()
     {
@@ -17,16 +17,22 @@
  */
 package org.iq80.leveldb.table;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.RateLimiter;
 import org.iq80.leveldb.table.ts.TSBlockBuilder;
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.Snappy;
@@ -50,6 +56,11 @@ public class TableBuilder
     private final FileChannel fileChannel;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    private final FilterPolicy filterPolicy;
+    private final FilterBlockBuilder filterBlockBuilder;
+    private final FilterPolicy prefixFilterPolicy;
+    // a single filter over the whole table
+    private final FilterBlockBuilder prefixFilterBlockBuilder;
     private Slice lastKey;
     private final UserComparator userComparator;
 
@@ -57,6 +68,8 @@ public class TableBuilder
 
     // Either Finish() or Abandon() has been called.
     private boolean closed;
+    // set once finish() has written the whole table
+    private boolean finished;
 
     // We do not emit the index entry for a block until we have seen the
     // first key for the next data block.  This allows us to use shorter
@@ -70,9 +83,52 @@ public class TableBuilder
 
     private Slice compressedOutput;
 
+    // bytes added to the table, including those still in the write buffer
     private long position;
 
+    // blocks and trailers are gathered here and written in large writes; it
+    // is direct so the channel does not copy it into a temporary buffer, and
+    // it is left to the garbage collector because freeing it explicitly needs
+    // the cleaner, which is not accessible on JDK 16 and later
+    private final ByteBuffer writeBuffer;
+    private final long bytesPerSync;
+    // bytes written to the file and the position of its last sync
+    private long filePosition;
+    private long syncedPosition;
+    // limits the rate of writes if not null
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Priority ioPriority;
+
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator)
+    {
+        this(options, fileChannel, userComparator, options.filterPolicy(), PrefixFilterPolicy.fromOptions(options));
+    }
+
+    /**
+     * Creates a builder that writes a filter block with the given policy, which
+     * is passed the keys exactly as they are added to the table.
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy)
+    {
+        this(options, fileChannel, userComparator, filterPolicy, null);
+    }
+
+    /**
+     * Creates a builder that also writes one filter over all keys of the table
+     * with {@code prefixFilterPolicy}, if it is not null.
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy)
+    {
+        this(options, fileChannel, userComparator, filterPolicy, prefixFilterPolicy, null);
+    }
+
+    /**
+     * Creates a builder whose writes go through the rate limiter of the
+     * options with the given priority.  Writes are not limited if the
+     * priority is null.
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, FilterPolicy prefixFilterPolicy,
+            RateLimiter.Priority ioPriority)
     {
         Preconditions.checkNotNull(options, "options is null");
         Preconditions.checkNotNull(fileChannel, "fileChannel is null");
@@ -85,6 +141,10 @@ public class TableBuilder
 
         this.fileChannel = fileChannel;
         this.userComparator = userComparator;
+        writeBuffer = ByteBuffer.allocateDirect(options.tableWriteBufferSize());
+        rateLimiter = ioPriority != null ? options.rateLimiter() : null;
+        this.ioPriority = ioPriority;
+        bytesPerSync = options.bytesPerSync();
 
         blockRestartInterval = options.blockRestartInterval();
         blockSize = options.blockSize();
@@ -100,6 +160,24 @@ public class TableBuilder
         int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
 
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        }
+        else {
+            filterBlockBuilder = null;
+        }
+
+        this.prefixFilterPolicy = prefixFilterPolicy;
+        if (prefixFilterPolicy != null) {
+            prefixFilterBlockBuilder = new FilterBlockBuilder(prefixFilterPolicy);
+            prefixFilterBlockBuilder.startBlock(0);
+        }
+        else {
+            prefixFilterBlockBuilder = null;
+        }
+
         lastKey = Slices.EMPTY_SLICE;
     }
 
@@ -144,6 +222,13 @@ public class TableBuilder
             pendingIndexEntry = false;
         }
 
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
+        }
+        if (prefixFilterBlockBuilder != null) {
+            prefixFilterBlockBuilder.addKey(key);
+        }
+
         lastKey = key;
         entryCount++;
         dataBlockBuilder.add(key, value);
@@ -166,6 +251,9 @@ public class TableBuilder
 
         pendingHandle = writeBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
     }
 
     private BlockHandle writeBlock(BlockBuilder blockBuilder)
@@ -193,6 +281,17 @@ public class TableBuilder
             }
         }
 
+        BlockHandle blockHandle = writeRawBlock(blockContents, blockCompressionType);
+
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
+
+    private BlockHandle writeRawBlock(Slice blockContents, CompressionType blockCompressionType)
+            throws IOException
+    {
         // create block trailer
         BlockTrailer blockTrailer = new BlockTrailer(blockCompressionType, crc32c(blockContents, blockCompressionType));
         Slice trailer = BlockTrailer.writeBlockTrailer(blockTrailer);
@@ -201,14 +300,70 @@ public class TableBuilder
         BlockHandle blockHandle = new BlockHandle(position, blockContents.length());
 
         // write data and trailer
-        position += fileChannel.write(new ByteBuffer[] {blockContents.toByteBuffer(), trailer.toByteBuffer()});
-
-        // clean up state
-        blockBuilder.reset();
+        write(blockContents.toByteBuffer(), trailer.toByteBuffer());
 
         return blockHandle;
     }
 
+    /**
+     * Appends the data to the write buffer.  Data that does not fit is written
+     * together with the buffered bytes in one gathering write.
+     */
+    private void write(ByteBuffer... data)
+            throws IOException
+    {
+        long length = 0;
+        for (ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        position += length;
+
+        if (length > writeBuffer.remaining()) {
+            if (length < writeBuffer.capacity()) {
+                flushWriteBuffer();
+            }
+            else {
+                ByteBuffer[] buffers = new ByteBuffer[data.length + 1];
+                writeBuffer.flip();
+                buffers[0] = writeBuffer;
+                System.arraycopy(data, 0, buffers, 1, data.length);
+                writeFully(buffers, writeBuffer.remaining() + length);
+                writeBuffer.clear();
+                return;
+            }
+        }
+        for (ByteBuffer buffer : data) {
+            writeBuffer.put(buffer);
+        }
+    }
+
+    private void flushWriteBuffer()
+            throws IOException
+    {
+        writeBuffer.flip();
+        writeFully(new ByteBuffer[] {writeBuffer}, writeBuffer.remaining());
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer[] buffers, long length)
+            throws IOException
+    {
+        if (rateLimiter != null) {
+            rateLimiter.request(length, ioPriority);
+        }
+        long written = 0;
+        while (written < length) {
+            written += fileChannel.write(buffers);
+        }
+        filePosition += length;
+
+        // sync as the file grows rather than all of it when it is complete
+        if (bytesPerSync > 0 && filePosition - syncedPosition >= bytesPerSync) {
+            fileChannel.force(false);
+            syncedPosition = filePosition;
+        }
+    }
+
     private static int maxCompressedLength(int length)
     {
         // Compressed data can be defined as:
@@ -245,8 +400,20 @@ public class TableBuilder
         // mark table as closed
         closed = true;
 
-        // write (empty) meta index block
+        // write filter blocks, mapping "filter.Name" to the location of the filter data
+        SortedMap<String, BlockHandle> filterBlockHandles = new TreeMap<>();
+        if (filterBlockBuilder != null) {
+            filterBlockHandles.put(FilterBlockBuilder.metaindexKey(filterPolicy), writeRawBlock(filterBlockBuilder.finish(), CompressionType.NONE));
+        }
+        if (prefixFilterBlockBuilder != null) {
+            filterBlockHandles.put(FilterBlockBuilder.metaindexKey(prefixFilterPolicy), writeRawBlock(prefixFilterBlockBuilder.finish(), CompressionType.NONE));
+        }
+
+        // write meta index block, whose keys must be added in bytewise order
         BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        for (Entry<String, BlockHandle> entry : filterBlockHandles.entrySet()) {
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(entry.getKey(), UTF_8), BlockHandle.writeBlockHandle(entry.getValue()));
+        }
         // TODO(postrelease): Add stats and other meta blocks
         BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
@@ -265,18 +432,23 @@ public class TableBuilder
         // write footer
         Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle);
         Slice footerEncoding = Footer.writeFooter(footer);
-        position += fileChannel.write(footerEncoding.toByteBuffer());
+        write(footerEncoding.toByteBuffer());
+        flushWriteBuffer();
+        finished = true;
     }
 
+    /**
+     * Stops building the table, which may also follow a failed {@link #finish()}.
+     */
     public void abandon()
     {
-        Preconditions.checkState(!closed, "table is finished");
+        Preconditions.checkState(!finished, "table is finished");
         closed = true;
     }
 
     public static int crc32c(Slice data, CompressionType type)
     {
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
+        Crc32C crc32c = new Crc32C();
         crc32c.update(data.getRawArray(), data.getRawOffset(), data.length());
         crc32c.update(type.persistentId() & 0xFF);
         return crc32c.getMaskedValue();
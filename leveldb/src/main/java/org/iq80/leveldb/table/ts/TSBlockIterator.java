@@ -21,6 +21,7 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
@@ -37,13 +38,24 @@ import com.google.common.base.Preconditions;
 
 public class TSBlockIterator implements SeekingIterator<Slice, Slice> {
     private final SliceInput data;
+    private final int dataLength;
     private final Slice restartPositions;
     private final int restartCount;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
+    private int nextEntryOffset;
     private Slice nextValue;
 
+    // entries of one restart run decoded while moving backwards, the last one
+    // ends at prevCacheEnd
+    private BlockEntry[] prevEntries = new BlockEntry[16];
+    private int[] prevOffsets = new int[16];
+    private int prevCount;
+    private int prevCacheEnd;
+    // set when decoding backwards left the double decoder out of step with nextEntry
+    private boolean decoderStale;
+
     protected FpcCompressor doubleCompressor;
     protected final double[] decodeBuffer = new double[2];
     protected final ByteBuffer bb;
@@ -56,6 +68,7 @@ public class TSBlockIterator implements SeekingIterator<Slice, Slice> {
 	Preconditions.checkNotNull(comparator, "comparator is null");
 
 	this.data = data.input();
+	this.dataLength = data.length();
 	this.bb = data.toByteBuffer();
 
 	this.restartPositions = restartPositions.slice();
@@ -92,18 +105,55 @@ public class TSBlockIterator implements SeekingIterator<Slice, Slice> {
 	    throw new NoSuchElementException();
 	}
 
+	if (decoderStale) {
+	    resyncDecoder();
+	}
+
 	BlockEntry entry = nextEntry;
 
 	if (!data.isReadable()) {
 	    nextEntry = null;
 	} else {
 	    // read entry at current data position
+	    nextEntryOffset = data.position();
 	    nextEntry = readEntry(data, nextEntry);
 	}
 
 	return entry;
     }
 
+    @Override
+    public boolean hasPrev() {
+	return currentOffset() > 0;
+    }
+
+    @Override
+    public BlockEntry peekPrev() {
+	int target = currentOffset();
+	if (target == 0) {
+	    throw new NoSuchElementException();
+	}
+	if (prevCount == 0 || prevCacheEnd != target) {
+	    readPrevEntries(target);
+	}
+	return prevEntries[prevCount - 1];
+    }
+
+    @Override
+    public BlockEntry prev() {
+	int target = currentOffset();
+	BlockEntry entry = peekPrev();
+
+	prevCount--;
+	prevCacheEnd = prevOffsets[prevCount];
+
+	nextEntry = entry;
+	nextEntryOffset = prevCacheEnd;
+	data.setPosition(target);
+	decoderStale = true;
+	return entry;
+    }
+
     @Override
     public void remove() {
 	throw new UnsupportedOperationException();
@@ -119,6 +169,16 @@ public class TSBlockIterator implements SeekingIterator<Slice, Slice> {
 	}
     }
 
+    /**
+     * Repositions the iterator after the last entry of this block.
+     */
+    @Override
+    public void seekToLast() {
+	data.setPosition(dataLength);
+	nextEntry = null;
+	decoderStale = false;
+    }
+
     /**
      * Repositions the iterator so the key of the next BlockElement returned
      * greater than or equal to the specified targetKey.
@@ -172,16 +232,82 @@ public class TSBlockIterator implements SeekingIterator<Slice, Slice> {
 	// seek data readIndex to the beginning of the restart block
 	int offset = restartPositions.getInt(restartPosition * SIZE_OF_INT);
 	data.setPosition(offset);
+	nextEntryOffset = offset;
+	decoderStale = false;
 
 	// clear the entries to assure key is not prefixed
 	nextEntry = null;
+	resetDecoder();
+
+	// read the entry
+	nextEntry = readEntry(data, null);
+    }
+
+    private void resetDecoder() {
 	nextValue = null;
 	if (doubleCompressor != null) {
 	    doubleCompressor.reset();
 	}
+    }
 
-	// read the entry
-	nextEntry = readEntry(data, null);
+    /**
+     * Offset of the entry after the current position, or the end of the data.
+     */
+    private int currentOffset() {
+	return nextEntry == null ? dataLength : nextEntryOffset;
+    }
+
+    /**
+     * Returns the last restart position before the specified data offset.
+     */
+    private int restartPositionBefore(int offset) {
+	int left = 0;
+	int right = restartCount - 1;
+	while (left < right) {
+	    int mid = (left + right + 1) / 2;
+	    if (restartPositions.getInt(mid * SIZE_OF_INT) < offset) {
+		left = mid;
+	    } else {
+		right = mid - 1;
+	    }
+	}
+	return left;
+    }
+
+    /**
+     * Decodes the restart run holding the entry that ends at {@code target} up
+     * to that entry. Values are delta encoded within a run, so this always
+     * starts from the restart position and leaves the decoder stale.
+     */
+    private void readPrevEntries(int target) {
+	data.setPosition(restartPositions.getInt(restartPositionBefore(target) * SIZE_OF_INT));
+	resetDecoder();
+	prevCount = 0;
+	BlockEntry entry = null;
+	while (data.position() < target) {
+	    if (prevCount == prevEntries.length) {
+		prevEntries = Arrays.copyOf(prevEntries, prevCount * 2);
+		prevOffsets = Arrays.copyOf(prevOffsets, prevCount * 2);
+	    }
+	    prevOffsets[prevCount] = data.position();
+	    entry = readEntry(data, entry);
+	    prevEntries[prevCount++] = entry;
+	}
+	prevCacheEnd = target;
+	decoderStale = true;
+    }
+
+    /**
+     * Decodes the restart run holding nextEntry again up to and including it,
+     * so reading forward continues with the right decoder state.
+     */
+    private void resyncDecoder() {
+	int offset = nextEntryOffset;
+	seekToRestartPosition(restartPositionBefore(offset + 1));
+	while (nextEntryOffset < offset) {
+	    nextEntryOffset = data.position();
+	    nextEntry = readEntry(data, nextEntry);
+	}
     }
 
     /**
@@ -22,15 +22,22 @@ import org.iq80.leveldb.impl.SeekingIterator;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 
+/**
+ * Base for iterators that read ahead one entry in either direction. An entry
+ * peeked in one direction has already moved the underlying position past it,
+ * so turning around first steps back over that entry.
+ */
 public abstract class AbstractSeekingIterator<K, V>
         implements SeekingIterator<K, V>
 {
     private Entry<K, V> nextElement;
+    private Entry<K, V> prevElement;
 
     @Override
     public final void seekToFirst()
     {
         nextElement = null;
+        prevElement = null;
         seekToFirstInternal();
     }
 
@@ -38,14 +45,23 @@ public abstract class AbstractSeekingIterator<K, V>
     public final void seek(K targetKey)
     {
         nextElement = null;
+        prevElement = null;
         seekInternal(targetKey);
     }
 
+    @Override
+    public final void seekToLast()
+    {
+        nextElement = null;
+        prevElement = null;
+        seekToLastInternal();
+    }
+
     @Override
     public final boolean hasNext()
     {
         if (nextElement == null) {
-            nextElement = getNextElement();
+            nextElement = fetchNext();
         }
         return nextElement != null;
     }
@@ -54,7 +70,7 @@ public abstract class AbstractSeekingIterator<K, V>
     public final Entry<K, V> next()
     {
         if (nextElement == null) {
-            nextElement = getNextElement();
+            nextElement = fetchNext();
             if (nextElement == null) {
                 throw new NoSuchElementException();
             }
@@ -69,7 +85,7 @@ public abstract class AbstractSeekingIterator<K, V>
     public final Entry<K, V> peek()
     {
         if (nextElement == null) {
-            nextElement = getNextElement();
+            nextElement = fetchNext();
             if (nextElement == null) {
                 throw new NoSuchElementException();
             }
@@ -78,15 +94,76 @@ public abstract class AbstractSeekingIterator<K, V>
         return nextElement;
     }
 
+    @Override
+    public final boolean hasPrev()
+    {
+        if (prevElement == null) {
+            prevElement = fetchPrev();
+        }
+        return prevElement != null;
+    }
+
+    @Override
+    public final Entry<K, V> prev()
+    {
+        if (prevElement == null) {
+            prevElement = fetchPrev();
+            if (prevElement == null) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        Entry<K, V> result = prevElement;
+        prevElement = null;
+        return result;
+    }
+
+    @Override
+    public final Entry<K, V> peekPrev()
+    {
+        if (prevElement == null) {
+            prevElement = fetchPrev();
+            if (prevElement == null) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        return prevElement;
+    }
+
     @Override
     public final void remove()
     {
         throw new UnsupportedOperationException();
     }
 
+    private Entry<K, V> fetchNext()
+    {
+        if (prevElement != null) {
+            // step forward over the entry peeked backwards
+            getNextElement();
+            prevElement = null;
+        }
+        return getNextElement();
+    }
+
+    private Entry<K, V> fetchPrev()
+    {
+        if (nextElement != null) {
+            // step back over the entry peeked forwards
+            getPrevElement();
+            nextElement = null;
+        }
+        return getPrevElement();
+    }
+
     protected abstract void seekToFirstInternal();
 
     protected abstract void seekInternal(K targetKey);
 
+    protected abstract void seekToLastInternal();
+
     protected abstract Entry<K, V> getNextElement();
+
+    protected abstract Entry<K, V> getPrevElement();
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32-C checksum backed by {@code java.util.zip.CRC32C} when the running
+ * JVM provides it (Java 9 and later, where it is a hot spot intrinsic), and
+ * by {@link PureJavaCrc32C} otherwise.
+ */
+public final class Crc32C
+        implements Checksum
+{
+    private static final MethodHandle NEW_INTRINSIC;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static {
+        MethodHandle newIntrinsic = null;
+        MethodHandle updateBuffer = null;
+        if (!Boolean.getBoolean("leveldb.crc32c.disableIntrinsic")) {
+            try {
+                Class<?> type = Class.forName("java.util.zip.CRC32C");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                newIntrinsic = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Checksum.class));
+                updateBuffer = lookup.findVirtual(type, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                        .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+            }
+            catch (ReflectiveOperationException e) {
+                newIntrinsic = null;
+                updateBuffer = null;
+            }
+        }
+        NEW_INTRINSIC = newIntrinsic;
+        UPDATE_BUFFER = updateBuffer;
+    }
+
+    /**
+     * Returns true if checksums are computed by the JDK's CRC32C.
+     */
+    public static boolean isIntrinsic()
+    {
+        return NEW_INTRINSIC != null;
+    }
+
+    private final Checksum intrinsic;
+    private final PureJavaCrc32C pureJava;
+
+    public Crc32C()
+    {
+        if (NEW_INTRINSIC != null) {
+            intrinsic = newIntrinsic();
+            pureJava = null;
+        }
+        else {
+            intrinsic = null;
+            pureJava = new PureJavaCrc32C();
+        }
+    }
+
+    private static Checksum newIntrinsic()
+    {
+        try {
+            return (Checksum) NEW_INTRINSIC.invokeExact();
+        }
+        catch (Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void update(int b)
+    {
+        if (intrinsic != null) {
+            intrinsic.update(b);
+        }
+        else {
+            pureJava.update(b);
+        }
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len)
+    {
+        if (intrinsic != null) {
+            intrinsic.update(b, off, len);
+        }
+        else {
+            pureJava.update(b, off, len);
+        }
+    }
+
+    /**
+     * Updates the checksum with the bytes between the position and the limit
+     * of the buffer, without changing the buffer's position.
+     */
+    public void update(ByteBuffer b)
+    {
+        if (intrinsic != null) {
+            try {
+                UPDATE_BUFFER.invokeExact(intrinsic, b.duplicate());
+            }
+            catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        else {
+            pureJava.update(b);
+        }
+    }
+
+    public int getIntValue()
+    {
+        return (int) getValue();
+    }
+
+    public int getMaskedValue()
+    {
+        return PureJavaCrc32C.mask(getIntValue());
+    }
+
+    @Override
+    public long getValue()
+    {
+        if (intrinsic != null) {
+            return intrinsic.getValue();
+        }
+        return pureJava.getValue();
+    }
+
+    @Override
+    public void reset()
+    {
+        if (intrinsic != null) {
+            intrinsic.reset();
+        }
+        else {
+            pureJava.reset();
+        }
+    }
+}
@@ -23,11 +23,10 @@ import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.SeekingIterator;
 
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 
 public final class DbIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
@@ -50,28 +49,53 @@ public final class DbIterator
      */
 
     private final MemTableIterator memTableIterator;
-    private final MemTableIterator immutableMemTableIterator;
+    // newest first
+    private final List<MemTableIterator> immutableMemTableIterators;
     private final List<InternalTableIterator> level0Files;
     private final List<LevelIterator> levels;
 
     private final Comparator<InternalKey> comparator;
 
+    // whether seeks skip the tables that hold no key with the prefix of the target
+    private final boolean prefixSeek;
+    // inputs, by ordinal, left out because they hold no key with the prefix last seeked to
+    private final boolean[] excluded;
+
     private final ComparableIterator[] heap;
     private int heapSize;
+    // true while moving backwards, the heap then holds the entries before the position
+    private boolean reverse;
 
     public DbIterator(MemTableIterator memTableIterator,
-            MemTableIterator immutableMemTableIterator,
+            List<MemTableIterator> immutableMemTableIterators,
             List<InternalTableIterator> level0Files,
             List<LevelIterator> levels,
             Comparator<InternalKey> comparator)
+    {
+        this(memTableIterator, immutableMemTableIterators, level0Files, levels, comparator, false);
+    }
+
+    /**
+     * Creates an iterator whose seeks leave out the tables and levels that the
+     * prefix filters rule out for the prefix of the target, if {@code prefixSeek}
+     * is set.  Only the entries with that prefix are then complete.
+     */
+    public DbIterator(MemTableIterator memTableIterator,
+            List<MemTableIterator> immutableMemTableIterators,
+            List<InternalTableIterator> level0Files,
+            List<LevelIterator> levels,
+            Comparator<InternalKey> comparator,
+            boolean prefixSeek)
     {
         this.memTableIterator = memTableIterator;
-        this.immutableMemTableIterator = immutableMemTableIterator;
+        this.immutableMemTableIterators = immutableMemTableIterators;
         this.level0Files = level0Files;
         this.levels = levels;
         this.comparator = comparator;
+        this.prefixSeek = prefixSeek;
 
-        this.heap = new ComparableIterator[3 + level0Files.size() + levels.size()];
+        this.heap = new ComparableIterator[2 + immutableMemTableIterators.size() + level0Files.size() + levels.size()];
+        this.excluded = new boolean[heap.length];
         resetPriorityQueue();
     }
 
@@ -81,7 +105,7 @@ public final class DbIterator
         if (memTableIterator != null) {
             memTableIterator.seekToFirst();
         }
-        if (immutableMemTableIterator != null) {
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seekToFirst();
         }
         for (InternalTableIterator level0File : level0Files) {
@@ -90,41 +114,96 @@ public final class DbIterator
         for (LevelIterator level : levels) {
             level.seekToFirst();
         }
+        Arrays.fill(excluded, false);
+        reverse = false;
         resetPriorityQueue();
     }
 
     @Override
     protected void seekInternal(InternalKey targetKey)
     {
+        // ordinals are assigned in the order used by resetPriorityQueue
+        int i = 0;
         if (memTableIterator != null) {
             memTableIterator.seek(targetKey);
+            i++;
         }
-        if (immutableMemTableIterator != null) {
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seek(targetKey);
+            i++;
         }
         for (InternalTableIterator level0File : level0Files) {
-            level0File.seek(targetKey);
+            excluded[i] = prefixSeek && !level0File.prefixMayMatch(targetKey);
+            if (!excluded[i]) {
+                level0File.seek(targetKey);
+            }
+            i++;
         }
         for (LevelIterator level : levels) {
-            level.seek(targetKey);
+            excluded[i] = prefixSeek && !level.prefixMayMatch(targetKey);
+            if (!excluded[i]) {
+                level.seek(targetKey);
+            }
+            i++;
         }
+        reverse = false;
+        resetPriorityQueue();
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        if (memTableIterator != null) {
+            memTableIterator.seekToLast();
+        }
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
+            immutableMemTableIterator.seekToLast();
+        }
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.seekToLast();
+        }
+        for (LevelIterator level : levels) {
+            level.seekToLast();
+        }
+        Arrays.fill(excluded, false);
+        reverse = true;
         resetPriorityQueue();
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            // every input shares the position, so turning around only rebuilds the heap
+            reverse = false;
+            resetPriorityQueue();
+        }
+        return removeHeapTop();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            reverse = true;
+            resetPriorityQueue();
+        }
+        return removeHeapTop();
+    }
+
+    private Entry<InternalKey, Slice> removeHeapTop()
     {
         if (heapSize == 0) {
             return null;
         }
 
         ComparableIterator smallest = heap[0];
-        Entry<InternalKey, Slice> result = smallest.next();
+        Entry<InternalKey, Slice> result = smallest.advance(reverse);
 
         // if the smallest iterator has more elements, put it back in the heap,
         // otherwise use the last element in the queue
         ComparableIterator replacementElement;
-        if (smallest.hasNext()) {
+        if (smallest.hasElement()) {
             replacementElement = smallest;
         }
         else {
@@ -145,21 +224,18 @@ public final class DbIterator
     {
         int i = 0;
         heapSize = 0;
-        if (memTableIterator != null && memTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.next()));
+        Arrays.fill(heap, null);
+        if (memTableIterator != null) {
+            heapAdd(new ComparableIterator(memTableIterator, comparator, i++));
         }
-        if (immutableMemTableIterator != null && immutableMemTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.next()));
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
+            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++));
         }
         for (InternalTableIterator level0File : level0Files) {
-            if (level0File.hasNext()) {
-                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.next()));
-            }
+            heapAdd(new ComparableIterator(level0File, comparator, i++));
         }
         for (LevelIterator level : levels) {
-            if (level.hasNext()) {
-                heapAdd(new ComparableIterator(level, comparator, i++, level.next()));
-            }
+            heapAdd(new ComparableIterator(level, comparator, i++));
         }
     }
 
@@ -167,6 +243,9 @@ public final class DbIterator
     {
         Preconditions.checkNotNull(newElement, "newElement is null");
 
+        if (excluded[newElement.ordinal] || !newElement.reset(reverse)) {
+            return false;
+        }
         heap[heapSize] = newElement;
         heapSiftUp(heapSize++);
         return true;
@@ -179,7 +258,7 @@ public final class DbIterator
         while (childIndex > 0) {
             parentIndex = (childIndex - 1) / 2;
             ComparableIterator parent = heap[parentIndex];
-            if (parent.compareTo(target) <= 0) {
+            if (compare(parent, target) <= 0) {
                 break;
             }
             heap[childIndex] = parent;
@@ -194,10 +273,10 @@ public final class DbIterator
         int childIndex;
         while ((childIndex = rootIndex * 2 + 1) < heapSize) {
             if (childIndex + 1 < heapSize
-                    && heap[childIndex + 1].compareTo(heap[childIndex]) < 0) {
+                    && compare(heap[childIndex + 1], heap[childIndex]) < 0) {
                 childIndex++;
             }
-            if (target.compareTo(heap[childIndex]) <= 0) {
+            if (compare(target, heap[childIndex]) <= 0) {
                 break;
             }
             heap[rootIndex] = heap[childIndex];
@@ -206,13 +285,22 @@ public final class DbIterator
         heap[rootIndex] = target;
     }
 
+    /**
+     * Orders the heap so its root is the next entry in the current direction.
+     */
+    private int compare(ComparableIterator left, ComparableIterator right)
+    {
+        int result = left.compareTo(right);
+        return reverse ? -result : result;
+    }
+
     @Override
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
         sb.append("DbIterator");
         sb.append("{memTableIterator=").append(memTableIterator);
-        sb.append(", immutableMemTableIterator=").append(immutableMemTableIterator);
+        sb.append(", immutableMemTableIterators=").append(immutableMemTableIterators);
         sb.append(", level0Files=").append(level0Files);
         sb.append(", levels=").append(levels);
         sb.append(", comparator=").append(comparator);
@@ -221,48 +309,47 @@ public final class DbIterator
     }
 
     private static class ComparableIterator
-            implements Iterator<Entry<InternalKey, Slice>>, Comparable<ComparableIterator>
+            implements Comparable<ComparableIterator>
     {
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
-        private Entry<InternalKey, Slice> nextElement;
+        private Entry<InternalKey, Slice> element;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
-            this.nextElement = nextElement;
         }
 
-        @Override
-        public boolean hasNext()
+        /**
+         * Loads the entry on the given side of the position, returning false if there is none.
+         */
+        public boolean reset(boolean reverse)
         {
-            return nextElement != null;
-        }
-
-        @Override
-        public Entry<InternalKey, Slice> next()
-        {
-            if (nextElement == null) {
-                throw new NoSuchElementException();
-            }
-
-            Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse) {
+                element = iterator.hasPrev() ? iterator.peekPrev() : null;
             }
             else {
-                nextElement = null;
+                element = iterator.hasNext() ? iterator.peek() : null;
             }
-            return result;
+            return element != null;
         }
 
-        @Override
-        public void remove()
+        public boolean hasElement()
+        {
+            return element != null;
+        }
+
+        /**
+         * Moves over the loaded entry and loads the one following it in the same direction.
+         */
+        public Entry<InternalKey, Slice> advance(boolean reverse)
         {
-            throw new UnsupportedOperationException();
+            Entry<InternalKey, Slice> result = reverse ? iterator.prev() : iterator.next();
+            reset(reverse);
+            return result;
         }
 
         @Override
@@ -280,7 +367,7 @@ public final class DbIterator
             if (ordinal != comparableIterator.ordinal) {
                 return false;
             }
-            if (nextElement != null ? !nextElement.equals(comparableIterator.nextElement) : comparableIterator.nextElement != null) {
+            if (element != null ? !element.equals(comparableIterator.element) : comparableIterator.element != null) {
                 return false;
             }
 
@@ -291,14 +378,14 @@ public final class DbIterator
         public int hashCode()
         {
             int result = ordinal;
-            result = 31 * result + (nextElement != null ? nextElement.hashCode() : 0);
+            result = 31 * result + (element != null ? element.hashCode() : 0);
             return result;
         }
 
         @Override
         public int compareTo(ComparableIterator that)
         {
-            int result = comparator.compare(this.nextElement.getKey(), that.nextElement.getKey());
+            int result = comparator.compare(this.element.getKey(), that.element.getKey());
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Access to {@code O_DIRECT} reads, which bypass the operating system page
+ * cache. The required APIs ({@code ExtendedOpenOption.DIRECT},
+ * {@code FileStore.getBlockSize()} and {@code ByteBuffer.alignedSlice(int)})
+ * only exist on JDK 10 and later, so they are looked up reflectively and
+ * direct reads are simply unavailable on older runtimes.
+ */
+public final class DirectIO
+{
+    /**
+     * Alignment of the buffers returned by {@link #allocateAligned(int)};
+     * file systems with a larger block size are not read directly.
+     */
+    public static final int MAX_ALIGNMENT = 4096;
+
+    private static final OpenOption direct;
+    private static final Method getBlockSize;
+    private static final Method alignedSlice;
+
+    static {
+        OpenOption directOption = null;
+        Method blockSizeMethod = null;
+        Method alignedSliceMethod = null;
+        try {
+            Class<?> extendedOpenOption = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : extendedOpenOption.getEnumConstants()) {
+                if ("DIRECT".equals(((Enum<?>) option).name())) {
+                    directOption = (OpenOption) option;
+                }
+            }
+            blockSizeMethod = FileStore.class.getMethod("getBlockSize");
+            alignedSliceMethod = ByteBuffer.class.getMethod("alignedSlice", int.class);
+        }
+        catch (ReflectiveOperationException | RuntimeException ignored) {
+            directOption = null;
+        }
+        direct = directOption;
+        getBlockSize = blockSizeMethod;
+        alignedSlice = alignedSliceMethod;
+    }
+
+    private DirectIO()
+    {
+    }
+
+    public static boolean isSupported()
+    {
+        return direct != null;
+    }
+
+    /**
+     * Returns the alignment direct reads of {@code path} must honor, or 0 if
+     * the file can not be read directly.
+     */
+    public static int getAlignment(Path path)
+    {
+        if (!isSupported()) {
+            return 0;
+        }
+        try {
+            FileStore fileStore = Files.getFileStore(path);
+            long blockSize = (Long) getBlockSize.invoke(fileStore);
+            if (blockSize <= 0 || blockSize > MAX_ALIGNMENT || Long.bitCount(blockSize) != 1) {
+                return 0;
+            }
+            return (int) blockSize;
+        }
+        catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Opens {@code path} for reading with {@code O_DIRECT}. All reads from the
+     * returned channel must use an aligned position, length and buffer.
+     */
+    public static FileChannel openForReading(Path path)
+            throws IOException
+    {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Direct I/O requires JDK 10 or later");
+        }
+        return FileChannel.open(path, StandardOpenOption.READ, direct);
+    }
+
+    /**
+     * Allocates a direct buffer of {@code capacity} bytes whose address is a
+     * multiple of {@link #MAX_ALIGNMENT} when the runtime can align buffers.
+     */
+    public static ByteBuffer allocateAligned(int capacity)
+    {
+        if (alignedSlice == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(capacity + MAX_ALIGNMENT);
+            ByteBuffer aligned = (ByteBuffer) alignedSlice.invoke(buffer, MAX_ALIGNMENT);
+            aligned.limit(capacity);
+            return aligned.slice();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -42,12 +42,26 @@ public class InternalTableIterator
         tableIterator.seekToFirst();
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        tableIterator.seekToLast();
+    }
+
     @Override
     public void seekInternal(InternalKey targetKey)
     {
         tableIterator.seek(targetKey.encode());
     }
 
+    /**
+     * Returns false if the table holds no key with the prefix of the key.
+     */
+    public boolean prefixMayMatch(InternalKey key)
+    {
+        return tableIterator.prefixMayMatch(key.encode());
+    }
+
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
     {
@@ -58,6 +72,16 @@ public class InternalTableIterator
         return null;
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (tableIterator.hasPrev()) {
+            Entry<Slice, Slice> prev = tableIterator.prev();
+            return Maps.immutableEntry(internalKeyFactory.createInternalKey(prev.getKey()), prev.getValue());
+        }
+        return null;
+    }
+
     @Override
     public String toString()
     {
@@ -26,11 +26,10 @@ import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.impl.TableCache;
 
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
 public final class Level0Iterator
@@ -38,20 +37,35 @@ public final class Level0Iterator
         implements InternalIterator
 {
     private final List<InternalTableIterator> inputs;
-    private final PriorityQueue<ComparableIterator> priorityQueue;
+    private PriorityQueue<ComparableIterator> priorityQueue;
+    // true while moving backwards, the queue then orders the entries before the position
+    private boolean reverse;
     private final Comparator<InternalKey> comparator;
 
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache)
+    {
+        this(tableCache, files, comparator, fillCache, 0);
+    }
+
+    /**
+     * Creates an iterator whose table iterators read up to
+     * {@code readaheadSize} bytes ahead of forward scans.
+     */
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache, int readaheadSize)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+            builder.add(tableCache.newIterator(file, fillCache, null, null, readaheadSize));
         }
         this.inputs = builder.build();
         this.comparator = comparator;
 
-        this.priorityQueue = new PriorityQueue<>(Iterables.size(inputs) + 1);
-        resetPriorityQueue(comparator);
+        resetPriorityQueue();
     }
 
     public Level0Iterator(List<InternalTableIterator> inputs, Comparator<InternalKey> comparator)
@@ -59,8 +73,7 @@ public final class Level0Iterator
         this.inputs = inputs;
         this.comparator = comparator;
 
-        this.priorityQueue = new PriorityQueue<>(Iterables.size(inputs));
-        resetPriorityQueue(comparator);
+        resetPriorityQueue();
     }
 
     @Override
@@ -69,7 +82,8 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seekToFirst();
         }
-        resetPriorityQueue(comparator);
+        reverse = false;
+        resetPriorityQueue();
     }
 
     @Override
@@ -78,27 +92,64 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seek(targetKey);
         }
-        resetPriorityQueue(comparator);
+        reverse = false;
+        resetPriorityQueue();
     }
 
-    private void resetPriorityQueue(Comparator<InternalKey> comparator)
+    @Override
+    protected void seekToLastInternal()
     {
+        for (InternalTableIterator input : inputs) {
+            input.seekToLast();
+        }
+        reverse = true;
+        resetPriorityQueue();
+    }
+
+    /**
+     * Fills the queue with the entry each input holds on the side of the
+     * current position we are moving towards. All inputs share the position,
+     * so changing direction only requires rebuilding the queue.
+     */
+    private void resetPriorityQueue()
+    {
+        priorityQueue = new PriorityQueue<>(inputs.size() + 1, reverse ? Collections.<ComparableIterator>reverseOrder() : null);
         int i = 0;
         for (InternalTableIterator input : inputs) {
-            if (input.hasNext()) {
-                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.next()));
+            ComparableIterator iterator = new ComparableIterator(input, comparator, i++);
+            if (iterator.reset(reverse)) {
+                priorityQueue.add(iterator);
             }
         }
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            reverse = false;
+            resetPriorityQueue();
+        }
+        return pollPriorityQueue();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            reverse = true;
+            resetPriorityQueue();
+        }
+        return pollPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollPriorityQueue()
     {
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
         if (nextIterator != null) {
-            result = nextIterator.next();
-            if (nextIterator.hasNext()) {
+            result = nextIterator.advance(reverse);
+            if (nextIterator.hasElement()) {
                 priorityQueue.add(nextIterator);
             }
         }
@@ -117,48 +168,47 @@ public final class Level0Iterator
     }
 
     private static class ComparableIterator
-            implements Iterator<Entry<InternalKey, Slice>>, Comparable<ComparableIterator>
+            implements Comparable<ComparableIterator>
     {
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
-        private Entry<InternalKey, Slice> nextElement;
+        private Entry<InternalKey, Slice> element;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
-            this.nextElement = nextElement;
         }
 
-        @Override
-        public boolean hasNext()
-        {
-            return nextElement != null;
-        }
-
-        @Override
-        public Entry<InternalKey, Slice> next()
+        /**
+         * Loads the entry on the given side of the position, returning false if there is none.
+         */
+        public boolean reset(boolean reverse)
         {
-            if (nextElement == null) {
-                throw new NoSuchElementException();
-            }
-
-            Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse) {
+                element = iterator.hasPrev() ? iterator.peekPrev() : null;
             }
             else {
-                nextElement = null;
+                element = iterator.hasNext() ? iterator.peek() : null;
             }
-            return result;
+            return element != null;
         }
 
-        @Override
-        public void remove()
+        public boolean hasElement()
         {
-            throw new UnsupportedOperationException();
+            return element != null;
+        }
+
+        /**
+         * Moves over the loaded entry and loads the one following it in the same direction.
+         */
+        public Entry<InternalKey, Slice> advance(boolean reverse)
+        {
+            Entry<InternalKey, Slice> result = reverse ? iterator.prev() : iterator.next();
+            reset(reverse);
+            return result;
         }
 
         @Override
@@ -176,7 +226,7 @@ public final class Level0Iterator
             if (ordinal != comparableIterator.ordinal) {
                 return false;
             }
-            if (nextElement != null ? !nextElement.equals(comparableIterator.nextElement) : comparableIterator.nextElement != null) {
+            if (element != null ? !element.equals(comparableIterator.element) : comparableIterator.element != null) {
                 return false;
             }
 
@@ -187,14 +237,14 @@ public final class Level0Iterator
         public int hashCode()
         {
             int result = ordinal;
-            result = 31 * result + (nextElement != null ? nextElement.hashCode() : 0);
+            result = 31 * result + (element != null ? element.hashCode() : 0);
             return result;
         }
 
         @Override
         public int compareTo(ComparableIterator that)
         {
-            int result = comparator.compare(this.nextElement.getKey(), that.nextElement.getKey());
+            int result = comparator.compare(this.element.getKey(), that.element.getKey());
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
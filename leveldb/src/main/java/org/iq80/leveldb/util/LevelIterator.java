@@ -32,14 +32,35 @@ public final class LevelIterator
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    private final boolean fillCache;
+    // optional bounds passed on to the table iterators
+    private final InternalKey lowerBound;
+    private final InternalKey upperBound;
+    // bytes the table iterators read ahead of forward scans
+    private final int readaheadSize;
     private InternalTableIterator current;
     private int index;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache)
+    {
+        this(tableCache, files, comparator, fillCache, null, null, 0);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache,
+            InternalKey lowerBound, InternalKey upperBound, int readaheadSize)
     {
         this.tableCache = tableCache;
         this.files = files;
         this.comparator = comparator;
+        this.fillCache = fillCache;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.readaheadSize = readaheadSize;
     }
 
     @Override
@@ -50,6 +71,14 @@ public final class LevelIterator
         current = null;
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        // position after the last file and clear the data iterator
+        index = files.size();
+        current = null;
+    }
+
     @Override
     protected void seekInternal(InternalKey targetKey)
     {
@@ -58,6 +87,45 @@ public final class LevelIterator
             return;
         }
 
+        index = findFile(targetKey);
+
+        // if indexIterator does not have a next, it mean the key does not exist in this iterator
+        if (index < files.size()) {
+            // seek the current iterator to the key
+            current = openNextFile();
+            current.seek(targetKey);
+        }
+        else {
+            current = null;
+        }
+    }
+
+    /**
+     * Returns false if the prefix filters show that the level holds no key
+     * with the prefix of the key.
+     */
+    public boolean prefixMayMatch(InternalKey key)
+    {
+        // keys sharing a prefix are adjacent, so if the level holds any of
+        // them, one is in the file the key falls into or the one before it
+        int index = findFile(key);
+        Slice encodedKey = key.encode();
+        if (index < files.size() && tableCache.prefixMayMatch(files.get(index), encodedKey)) {
+            return true;
+        }
+        return index > 0 && tableCache.prefixMayMatch(files.get(index - 1), encodedKey);
+    }
+
+    /**
+     * Returns the index of the first file whose largest key is at least the
+     * target, or the number of files if there is none.
+     */
+    private int findFile(InternalKey targetKey)
+    {
+        if (files.isEmpty()) {
+            return 0;
+        }
+
         // todo replace with Collections.binarySearch
         int left = 0;
         int right = files.size() - 1;
@@ -77,23 +145,13 @@ public final class LevelIterator
                 right = mid;
             }
         }
-        index = right;
 
         // if the index is now pointing to the last block in the file, check if the largest key
         // in the block is than the the target key.  If so, we need to seek beyond the end of this file
-        if (index == files.size() - 1 && comparator.compare(files.get(index).getLargest(), targetKey) < 0) {
-            index++;
-        }
-
-        // if indexIterator does not have a next, it mean the key does not exist in this iterator
-        if (index < files.size()) {
-            // seek the current iterator to the key
-            current = openNextFile();
-            current.seek(targetKey);
-        }
-        else {
-            current = null;
+        if (right == files.size() - 1 && comparator.compare(files.get(right).getLargest(), targetKey) < 0) {
+            right++;
         }
+        return right;
     }
 
     @Override
@@ -111,6 +169,10 @@ public final class LevelIterator
             if (!(currentHasNext)) {
                 if (index < files.size()) {
                     current = openNextFile();
+                    // the scan moves on to the following file next
+                    if (readaheadSize > 0 && index < files.size()) {
+                        tableCache.prefetch(files.get(index));
+                    }
                 }
                 else {
                     break;
@@ -130,11 +192,41 @@ public final class LevelIterator
         }
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        // while current is open it is the file at index - 1
+        while (current == null || !current.hasPrev()) {
+            if (current != null) {
+                index--;
+                current = null;
+            }
+            if (index == 0) {
+                return null;
+            }
+            current = openPrevFile();
+        }
+        return current.prev();
+    }
+
+    private InternalTableIterator openPrevFile()
+    {
+        FileMetaData fileMetaData = files.get(index - 1);
+        InternalTableIterator iterator = newIterator(fileMetaData);
+        iterator.seekToLast();
+        return iterator;
+    }
+
     private InternalTableIterator openNextFile()
     {
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return newIterator(fileMetaData);
+    }
+
+    private InternalTableIterator newIterator(FileMetaData fileMetaData)
+    {
+        return tableCache.newIterator(fileMetaData, fillCache, lowerBound, upperBound, readaheadSize);
     }
 
     @Override
@@ -19,19 +19,21 @@ package org.iq80.leveldb.util;
 
 import com.google.common.primitives.Ints;
 import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.SeekingIterator;
 
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
 public final class MergingIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
 {
     private final List<? extends InternalIterator> levels;
-    private final PriorityQueue<ComparableIterator> priorityQueue;
+    private PriorityQueue<ComparableIterator> priorityQueue;
+    // true while moving backwards, the queue then orders the entries before the position
+    private boolean reverse;
     private final Comparator<InternalKey> comparator;
 
     public MergingIterator(List<? extends InternalIterator> levels, Comparator<InternalKey> comparator)
@@ -39,8 +41,7 @@ public final class MergingIterator
         this.levels = levels;
         this.comparator = comparator;
 
-        this.priorityQueue = new PriorityQueue<>(levels.size() + 1);
-        resetPriorityQueue(comparator);
+        resetPriorityQueue();
     }
 
     @Override
@@ -49,7 +50,8 @@ public final class MergingIterator
         for (InternalIterator level : levels) {
             level.seekToFirst();
         }
-        resetPriorityQueue(comparator);
+        reverse = false;
+        resetPriorityQueue();
     }
 
     @Override
@@ -58,27 +60,64 @@ public final class MergingIterator
         for (InternalIterator level : levels) {
             level.seek(targetKey);
         }
-        resetPriorityQueue(comparator);
+        reverse = false;
+        resetPriorityQueue();
     }
 
-    private void resetPriorityQueue(Comparator<InternalKey> comparator)
+    @Override
+    protected void seekToLastInternal()
     {
+        for (InternalIterator level : levels) {
+            level.seekToLast();
+        }
+        reverse = true;
+        resetPriorityQueue();
+    }
+
+    /**
+     * Fills the queue with the entry each input holds on the side of the
+     * current position we are moving towards. All inputs share the position,
+     * so changing direction only requires rebuilding the queue.
+     */
+    private void resetPriorityQueue()
+    {
+        priorityQueue = new PriorityQueue<>(levels.size() + 1, reverse ? Collections.<ComparableIterator>reverseOrder() : null);
         int i = 1;
         for (InternalIterator level : levels) {
-            if (level.hasNext()) {
-                priorityQueue.add(new ComparableIterator(level, comparator, i++, level.next()));
+            ComparableIterator iterator = new ComparableIterator(level, comparator, i++);
+            if (iterator.reset(reverse)) {
+                priorityQueue.add(iterator);
             }
         }
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            reverse = false;
+            resetPriorityQueue();
+        }
+        return pollPriorityQueue();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            reverse = true;
+            resetPriorityQueue();
+        }
+        return pollPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollPriorityQueue()
     {
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
         if (nextIterator != null) {
-            result = nextIterator.next();
-            if (nextIterator.hasNext()) {
+            result = nextIterator.advance(reverse);
+            if (nextIterator.hasElement()) {
                 priorityQueue.add(nextIterator);
             }
         }
@@ -97,48 +136,47 @@ public final class MergingIterator
     }
 
     private static class ComparableIterator
-            implements Iterator<Entry<InternalKey, Slice>>, Comparable<ComparableIterator>
+            implements Comparable<ComparableIterator>
     {
-        private final InternalIterator iterator;
+        private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
-        private Entry<InternalKey, Slice> nextElement;
+        private Entry<InternalKey, Slice> element;
 
-        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
-            this.nextElement = nextElement;
         }
 
-        @Override
-        public boolean hasNext()
+        /**
+         * Loads the entry on the given side of the position, returning false if there is none.
+         */
+        public boolean reset(boolean reverse)
         {
-            return nextElement != null;
-        }
-
-        @Override
-        public Entry<InternalKey, Slice> next()
-        {
-            if (nextElement == null) {
-                throw new NoSuchElementException();
-            }
-
-            Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
+            if (reverse) {
+                element = iterator.hasPrev() ? iterator.peekPrev() : null;
             }
             else {
-                nextElement = null;
+                element = iterator.hasNext() ? iterator.peek() : null;
             }
-            return result;
+            return element != null;
         }
 
-        @Override
-        public void remove()
+        public boolean hasElement()
         {
-            throw new UnsupportedOperationException();
+            return element != null;
+        }
+
+        /**
+         * Moves over the loaded entry and loads the one following it in the same direction.
+         */
+        public Entry<InternalKey, Slice> advance(boolean reverse)
+        {
+            Entry<InternalKey, Slice> result = reverse ? iterator.prev() : iterator.next();
+            reset(reverse);
+            return result;
         }
 
         @Override
@@ -156,7 +194,7 @@ public final class MergingIterator
             if (ordinal != comparableIterator.ordinal) {
                 return false;
             }
-            if (nextElement != null ? !nextElement.equals(comparableIterator.nextElement) : comparableIterator.nextElement != null) {
+            if (element != null ? !element.equals(comparableIterator.element) : comparableIterator.element != null) {
                 return false;
             }
 
@@ -167,14 +205,14 @@ public final class MergingIterator
         public int hashCode()
         {
             int result = ordinal;
-            result = 31 * result + (nextElement != null ? nextElement.hashCode() : 0);
+            result = 31 * result + (element != null ? element.hashCode() : 0);
             return result;
         }
 
         @Override
         public int compareTo(ComparableIterator that)
         {
-            int result = comparator.compare(this.nextElement.getKey(), that.nextElement.getKey());
+            int result = comparator.compare(this.element.getKey(), that.element.getKey());
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
@@ -17,6 +17,7 @@
  */
 package org.iq80.leveldb.util;
 
+import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
 /**
@@ -25,7 +26,6 @@ import java.util.zip.Checksum;
  * and implemented on many Intel chipsets supporting SSE4.2.
  */
 // this code was taken from Apache Hadoop
-// todo modify to work on buffers directly to avoid extra memcopy
 public class PureJavaCrc32C
         implements Checksum
 {
@@ -118,6 +118,46 @@ public class PureJavaCrc32C
         crc = localCrc;
     }
 
+    /**
+     * Updates the checksum with the bytes between the position and the limit
+     * of the buffer, without changing the buffer's position. Direct and
+     * memory-mapped buffers are read in place.
+     */
+    public void update(ByteBuffer b)
+    {
+        if (b.hasArray()) {
+            update(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            return;
+        }
+
+        int off = b.position();
+        int len = b.remaining();
+        int localCrc = crc;
+        while (len > 7) {
+            int c0 = b.get(off++) ^ localCrc;
+            localCrc >>>= 8;
+            int c1 = b.get(off++) ^ (localCrc);
+            localCrc >>>= 8;
+            int c2 = b.get(off++) ^ (localCrc);
+            localCrc >>>= 8;
+            int c3 = b.get(off++) ^ (localCrc);
+            localCrc = (T8_7[c0 & 0xff] ^ T8_6[c1 & 0xff])
+                    ^ (T8_5[c2 & 0xff] ^ T8_4[c3 & 0xff]);
+
+            localCrc ^= (T8_3[b.get(off++) & 0xff] ^ T8_2[b.get(off++) & 0xff])
+                    ^ (T8_1[b.get(off++) & 0xff] ^ T8_0[b.get(off++) & 0xff]);
+
+            len -= 8;
+        }
+        while (len > 0) {
+            localCrc = (localCrc >>> 8) ^ T8_0[(localCrc ^ b.get(off++)) & 0xff];
+            len--;
+        }
+
+        // Publish crc out to object
+        crc = localCrc;
+    }
+
     @Override
     public void update(int b)
     {
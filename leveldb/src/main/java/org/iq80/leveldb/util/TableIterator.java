@@ -17,10 +17,12 @@
  */
 package org.iq80.leveldb.util;
 
+import java.util.Comparator;
 import java.util.Map.Entry;
 
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockReadahead;
 import org.iq80.leveldb.table.Table;
 
 public final class TableIterator
@@ -28,12 +30,55 @@ public final class TableIterator
 {
     private final Table table;
     private final SeekingIterator<Slice, Slice> blockIterator;
+    private final boolean fillCache;
+    private final Comparator<Slice> comparator;
+    // optional keys outside of which no block is opened
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    // reads blocks ahead of forward scans, or null
+    private final BlockReadahead readahead;
     private SeekingIterator<Slice, Slice> current;
+    // index key of the block before the index position, which is at least
+    // the last key of that block, or null if it is not known
+    private Slice currentBlockKey;
+    // block current iterates over, which is the one of currentBlockKey
+    private Block currentBlock;
 
     public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator)
+    {
+        this(table, blockIterator, true);
+    }
+
+    public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator, boolean fillCache)
+    {
+        this(table, blockIterator, fillCache, null, null, null);
+    }
+
+    /**
+     * Creates an iterator that does not open blocks holding only keys below
+     * {@code lowerBound} or at and above {@code upperBound}.  The bounds are
+     * ordered by {@code comparator} and may be null.
+     */
+    public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator, boolean fillCache,
+            Comparator<Slice> comparator, Slice lowerBound, Slice upperBound)
+    {
+        this(table, blockIterator, fillCache, comparator, lowerBound, upperBound, null);
+    }
+
+    /**
+     * Creates a bounded iterator that opens the blocks of forward scans
+     * through {@code readahead}, which may be null.
+     */
+    public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator, boolean fillCache,
+            Comparator<Slice> comparator, Slice lowerBound, Slice upperBound, BlockReadahead readahead)
     {
         this.table = table;
         this.blockIterator = blockIterator;
+        this.fillCache = fillCache;
+        this.comparator = comparator;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.readahead = readahead;
         current = null;
     }
 
@@ -43,6 +88,18 @@ public final class TableIterator
         // reset index to before first and clear the data iterator
         blockIterator.seekToFirst();
         current = null;
+        currentBlockKey = null;
+        currentBlock = null;
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        // position the index after the last block and clear the data iterator
+        blockIterator.seekToLast();
+        current = null;
+        currentBlockKey = null;
+        currentBlock = null;
     }
 
     @Override
@@ -53,15 +110,33 @@ public final class TableIterator
 
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (blockIterator.hasNext()) {
+            // seeks into the block already open, like those of sorted point
+            // lookups, do not read it again
+            if (currentBlock != null && blockIterator.peek().getKey().equals(currentBlockKey)) {
+                blockIterator.next();
+                current = currentBlock.iterator();
+            }
+            else {
+                current = getNextBlock();
+            }
             // seek the current iterator to the key
-            current = getNextBlock();
             current.seek(targetKey);
         }
         else {
             current = null;
+            currentBlockKey = null;
+            currentBlock = null;
         }
     }
 
+    /**
+     * Returns false if the table holds no key with the prefix of the key.
+     */
+    public boolean prefixMayMatch(Slice key)
+    {
+        return table.prefixMayMatch(key);
+    }
+
     @Override
     protected Entry<Slice, Slice> getNextElement()
     {
@@ -75,7 +150,8 @@ public final class TableIterator
                 currentHasNext = current.hasNext();
             }
             if (!(currentHasNext)) {
-                if (blockIterator.hasNext()) {
+                // every block after the current one starts above its index key
+                if (blockIterator.hasNext() && !atUpperBound()) {
                     current = getNextBlock();
                 }
                 else {
@@ -96,10 +172,61 @@ public final class TableIterator
         }
     }
 
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
+    {
+        // while current is open the index is positioned just after its handle
+        while (current == null || !current.hasPrev()) {
+            if (current != null) {
+                // step the index back over the handle of the exhausted block
+                blockIterator.prev();
+                current = null;
+                currentBlockKey = null;
+                currentBlock = null;
+            }
+            if (!blockIterator.hasPrev() || belowLowerBound(blockIterator.peekPrev().getKey())) {
+                return null;
+            }
+            current = getPrevBlock();
+        }
+        return current.prev();
+    }
+
+    private boolean atUpperBound()
+    {
+        return upperBound != null && currentBlockKey != null && comparator.compare(currentBlockKey, upperBound) >= 0;
+    }
+
+    private boolean belowLowerBound(Slice blockKey)
+    {
+        return lowerBound != null && comparator.compare(blockKey, lowerBound) < 0;
+    }
+
+    private SeekingIterator<Slice, Slice> getPrevBlock()
+    {
+        Entry<Slice, Slice> indexEntry = blockIterator.peekPrev();
+        currentBlockKey = indexEntry.getKey();
+        Slice blockHandle = indexEntry.getValue();
+        Block dataBlock = table.openBlock(blockHandle, fillCache);
+        currentBlock = dataBlock;
+        SeekingIterator<Slice, Slice> iterator = dataBlock.iterator();
+        iterator.seekToLast();
+        return iterator;
+    }
+
     private SeekingIterator<Slice, Slice> getNextBlock()
     {
-        Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        Entry<Slice, Slice> indexEntry = blockIterator.next();
+        currentBlockKey = indexEntry.getKey();
+        Slice blockHandle = indexEntry.getValue();
+        Block dataBlock;
+        if (readahead != null) {
+            dataBlock = readahead.openBlock(currentBlockKey, blockHandle);
+        }
+        else {
+            dataBlock = table.openBlock(blockHandle, fillCache);
+        }
+        currentBlock = dataBlock;
         return dataBlock.iterator();
     }
 
@@ -20,15 +20,23 @@ package org.iq80.leveldb.impl;
 import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.iq80.leveldb.BloomFilterPolicy;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
+import org.iq80.leveldb.DBException;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.FixedLengthPrefixExtractor;
+import org.iq80.leveldb.MemTableType;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.Range;
+import org.iq80.leveldb.RateLimiter;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
+import org.iq80.leveldb.table.BlockCache;
+import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -45,6 +53,9 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
@@ -53,6 +64,7 @@ import static java.util.Arrays.asList;
 import static org.iq80.leveldb.CompressionType.NONE;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.table.BlockHelper.afterString;
+import static org.iq80.leveldb.table.BlockHelper.assertReverseSequence;
 import static org.iq80.leveldb.table.BlockHelper.assertSequence;
 import static org.iq80.leveldb.table.BlockHelper.beforeString;
 import static org.testng.Assert.assertEquals;
@@ -159,6 +171,393 @@ public class DbImplTest
         assertNull(db.get("foo"));
     }
 
+    @Test
+    public void testConcurrentWrites()
+            throws Exception
+    {
+        testConcurrentWrites(new Options().writeBufferSize(100000));
+    }
+
+    @Test
+    public void testConcurrentPipelinedWrites()
+            throws Exception
+    {
+        testConcurrentWrites(new Options().writeBufferSize(100000).pipelinedWrites(true));
+    }
+
+    private void testConcurrentWrites(Options options)
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        final int threads = 8;
+        final int keysPerThread = 500;
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < keysPerThread; i++) {
+                        db.put(key(thread * keysPerThread + i), "v" + thread, new WriteOptions().sync(thread % 2 == 0));
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (int i = 0; i < threads * keysPerThread; i++) {
+            assertEquals(db.get(key(i)), "v" + (i / keysPerThread));
+        }
+
+        db.reopen();
+        for (int i = 0; i < threads * keysPerThread; i++) {
+            assertEquals(db.get(key(i)), "v" + (i / keysPerThread));
+        }
+    }
+
+    @Test
+    public void testGroupCommit()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "va");
+        InterceptingLogWriter log = new InterceptingLogWriter(db.db.getLogWriter());
+        db.db.setLogWriter(log);
+
+        // the leader blocks in the log write while the others queue behind it
+        log.block();
+        BatchWriter leader = new BatchWriter(db.db, "leader", 1, false);
+        leader.start();
+        log.awaitBlocked();
+        List<BatchWriter> followers = ImmutableList.of(
+                new BatchWriter(db.db, "b", 2, false),
+                new BatchWriter(db.db, "c", 3, false),
+                new BatchWriter(db.db, "d", 1, true),
+                new BatchWriter(db.db, "e", 2, false));
+        for (BatchWriter follower : followers) {
+            follower.start();
+            while (follower.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        log.release();
+        leader.join();
+        for (BatchWriter follower : followers) {
+            follower.join();
+        }
+
+        // a non-sync group stops at the sync write, which may carry non-sync writes
+        assertEquals(log.records, ImmutableList.of("2+1", "3+5", "8+3 sync"));
+        assertEquals(leader.getSequence(), 2);
+        assertEquals(followers.get(0).getSequence(), 4);
+        assertEquals(followers.get(1).getSequence(), 7);
+        assertEquals(followers.get(2).getSequence(), 8);
+        assertEquals(followers.get(3).getSequence(), 10);
+        assertEquals(db.get("c2"), "v");
+        assertEquals(db.get("e1"), "v");
+    }
+
+    @Test
+    public void testLogWriteFailure()
+            throws Exception
+    {
+        testLogWriteFailure(new Options());
+    }
+
+    @Test
+    public void testPipelinedLogWriteFailure()
+            throws Exception
+    {
+        testLogWriteFailure(new Options().pipelinedWrites(true));
+    }
+
+    private void testLogWriteFailure(Options options)
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("a", "va");
+        InterceptingLogWriter log = new InterceptingLogWriter(db.db.getLogWriter());
+        db.db.setLogWriter(log);
+
+        log.failure = new IOException("disk full");
+        try {
+            db.put("b", "vb");
+            fail("expected the log write to fail");
+        }
+        catch (RuntimeException e) {
+            assertEquals(e.getCause().getMessage(), "disk full");
+        }
+
+        // the sequence was reserved for the failed write, so later writes fail too
+        log.failure = null;
+        try {
+            db.put("c", "vc");
+            fail("expected a background error");
+        }
+        catch (DbImpl.BackgroundProcessingException e) {
+            assertEquals(e.getCause().getMessage(), "disk full");
+        }
+        assertEquals(log.records, ImmutableList.of());
+    }
+
+    @Test
+    public void testConcurrentWritesMultipleImmutableMemTables()
+            throws Exception
+    {
+        testConcurrentWrites(new Options().writeBufferSize(10000).maxWriteBufferNumber(4));
+    }
+
+    @Test
+    public void testMultipleImmutableMemTables()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10000).maxWriteBufferNumber(4), databaseDir);
+        db.db.suspendCompactions();
+
+        // each round fills a memtable, which is frozen by the first write of the
+        // next round while its flush is held back; the rounds overlap by 5 keys
+        for (int round = 0; round < 3; round++) {
+            for (int i = round * 5; i < round * 5 + 10; i++) {
+                db.put(key(i), multipleMemTablesValue(round, i));
+            }
+        }
+        assertEquals(logFiles(), 3);
+        assertMultipleMemTablesValues(db);
+
+        // closing does not wait for the suspended flushes, so the reopened
+        // database replays all three logs
+        db.reopen();
+        assertMultipleMemTablesValues(db);
+    }
+
+    private static String multipleMemTablesValue(int round, int i)
+    {
+        return round + "-" + i + longString(1000, 'v');
+    }
+
+    private static void assertMultipleMemTablesValues(DbStringWrapper db)
+    {
+        // the newest memtable holding a key wins
+        List<Entry<String, String>> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String value = multipleMemTablesValue(Math.min(i / 5, 2), i);
+            assertEquals(db.get(key(i)), value);
+            expected.add(immutableEntry(key(i), value));
+        }
+        assertSequence(db.iterator(), expected);
+    }
+
+    private int logFiles()
+    {
+        int logFiles = 0;
+        for (String name : databaseDir.list()) {
+            if (name.endsWith(".log")) {
+                logFiles++;
+            }
+        }
+        return logFiles;
+    }
+
+    @Test
+    public void testConcurrentWritesParallelBackgroundThreads()
+            throws Exception
+    {
+        testConcurrentWrites(new Options()
+                .writeBufferSize(4000)
+                .maxWriteBufferNumber(4)
+                .maxBackgroundFlushes(2)
+                .maxBackgroundCompactions(2));
+    }
+
+    @Test(timeOut = 60_000)
+    public void testFlushDuringCompaction()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().compressionType(NONE), databaseDir);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                db.put(key(i), round + longString(1000, 'v'));
+            }
+            db.compactMemTable();
+        }
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+
+        // the compaction of the 100KB level-1 table is throttled for a few seconds
+        RateLimiter rateLimiter = new RateLimiter(40_000);
+        db.reopen(new Options().compressionType(NONE).rateLimiter(rateLimiter));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread compaction = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    db.compactRange(1, "", "~");
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        compaction.start();
+        while (rateLimiter.getTotalBytesThrottled() == 0) {
+            Thread.sleep(1);
+        }
+
+        // a flush does not wait for the compaction to finish
+        db.put("other", "value");
+        db.compactMemTable();
+        assertTrue(compaction.isAlive());
+        assertEquals(db.totalTableFiles(), 3);
+
+        compaction.join();
+        assertNull(failure.get());
+        assertEquals(db.totalTableFiles(), 2);
+        assertEquals(db.get(key(0)), 1 + longString(1000, 'v'));
+        assertEquals(db.get("other"), "value");
+    }
+
+    @Test
+    public void testConcurrentWritesSubcompactions()
+            throws Exception
+    {
+        testConcurrentWrites(new Options()
+                .writeBufferSize(4000)
+                .maxSubcompactions(3));
+    }
+
+    @Test
+    public void testSubcompactionBoundaries()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().maxSubcompactions(3), databaseDir);
+
+        // the base values end up in level 2 and the outer keys in level 1, so
+        // the next two tables stay in level 0 and overlap each other
+        for (int i = 0; i < 300; i++) {
+            db.put(key(i), "a" + i);
+        }
+        db.compactMemTable();
+        db.put(key(0), "b0");
+        db.put(key(299), "b299");
+        db.compactMemTable();
+        for (int i = 50; i < 200; i++) {
+            db.put(key(i), "c" + i);
+        }
+        for (int i = 200; i < 250; i++) {
+            db.delete(key(i));
+        }
+        db.compactMemTable();
+        for (int i = 100; i < 150; i++) {
+            db.delete(key(i));
+        }
+        for (int i = 150; i < 260; i++) {
+            db.put(key(i), "d" + i);
+        }
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(0), 2);
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+
+        // the ranges start at key000100, where a deletion hides an overwrite,
+        // and at key000259, which was overwritten twice
+        db.compactRange(0, "", "~");
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertEquals(db.numberOfFilesInLevel(1), 3);
+        assertSubcompactionValues(db);
+
+        db.compact("", "~");
+        assertSubcompactionValues(db);
+        db.reopen();
+        assertSubcompactionValues(db);
+    }
+
+    private static void assertSubcompactionValues(DbStringWrapper db)
+    {
+        List<Entry<String, String>> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String value;
+            if (i == 0 || i == 299) {
+                value = "b" + i;
+            }
+            else if (i >= 150 && i < 260) {
+                value = "d" + i;
+            }
+            else if (i >= 100 && i < 150) {
+                value = null;
+            }
+            else if (i >= 50 && i < 100) {
+                value = "c" + i;
+            }
+            else {
+                value = "a" + i;
+            }
+            assertEquals(db.get(key(i)), value, key(i));
+            if (value != null) {
+                expected.add(immutableEntry(key(i), value));
+            }
+        }
+        assertSequence(db.iterator(), expected);
+    }
+
+    @Test
+    public void testConcurrentReadsDuringCompaction()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100000), databaseDir);
+        final int keys = 2000;
+        for (int i = 0; i < keys; i++) {
+            db.put(key(i), "v" + i);
+        }
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        Random random = new Random();
+                        while (writing.get()) {
+                            int i = random.nextInt(keys);
+                            assertEquals(db.get(key(i)), "v" + i);
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        // rewrite the same values so the memtable is switched and compacted under the readers
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < keys; i++) {
+                db.put(key(i), "v" + i);
+            }
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
     @Test
     public void testGetFromImmutableLayer()
             throws Exception
@@ -189,6 +588,174 @@ public class DbImplTest
         assertEquals(db.get("foo"), "v1");
     }
 
+    @Test
+    public void testMultiGet()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+
+        // two files in a deeper level, one level 0 file and the memtable
+        for (String key : asList("a", "b", "c")) {
+            db.put(key, "v" + key);
+        }
+        db.compact("a", "c");
+        for (String key : asList("d", "e", "f")) {
+            db.put(key, "v" + key);
+        }
+        db.compact("d", "f");
+        db.put("e", "ve2");
+        db.put("g", "vg");
+        db.compactMemTable();
+        Snapshot snapshot = db.getSnapshot();
+        db.delete("b");
+        db.put("h", "vh");
+
+        List<String> keys = asList("h", "a", "zz", "b", "e", "a", "g", "f", "d0");
+        List<String> expected = asList("vh", "va", null, null, "ve2", "va", "vg", "vf", null);
+        assertEquals(db.multiGet(keys, new ReadOptions()), expected);
+        assertEquals(db.multiGet(keys, new ReadOptions().parallelReads(true)), expected);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(db.get(keys.get(i)), expected.get(i));
+        }
+
+        // all keys are read at the snapshot
+        assertEquals(db.multiGet(asList("h", "b"), new ReadOptions().snapshot(snapshot)), asList(null, "vb"));
+        assertEquals(db.multiGet(new ArrayList<String>(), new ReadOptions()), new ArrayList<String>());
+
+        // without read threads, parallel reads run on the calling thread
+        db.reopen(new Options().maxBackgroundReads(0));
+        assertEquals(db.multiGet(keys, new ReadOptions().parallelReads(true)), expected);
+    }
+
+    @Test
+    public void testRateLimiter()
+            throws Exception
+    {
+        RateLimiter rateLimiter = new RateLimiter(1 << 20);
+        DbStringWrapper db = new DbStringWrapper(new Options().compressionType(NONE).rateLimiter(rateLimiter), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(String.format("key%06d", i), longString(300, (char) ('a' + i % 26)));
+        }
+        db.compactMemTable();
+        db.compact("a", "z");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(String.format("key%06d", i)), longString(300, (char) ('a' + i % 26)));
+        }
+
+        // the flush and the manifest records went through the limiter
+        assertTrue(rateLimiter.getTotalBytesRequested() > 300_000);
+        // writing more than a tenth of a second worth of tokens has to wait
+        assertTrue(rateLimiter.getTotalBytesThrottled() > 0);
+        assertTrue(rateLimiter.getTotalWaitNanos() > 0);
+    }
+
+    @Test
+    public void testNoSlowdown()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100_000).maxWriteBufferNumber(2), databaseDir);
+        db.db.suspendCompactions();
+
+        // once a full memtable waits for the suspended flush, writes that may
+        // not be slowed down fail instead of blocking
+        WriteOptions noSlowdown = new WriteOptions().noSlowdown(true);
+        int written = 0;
+        try {
+            while (written < 10_000) {
+                db.put(String.format("key%06d", written), longString(1000, 'v'), noSlowdown);
+                written++;
+            }
+            fail("expected the write to stall");
+        }
+        catch (DBException e) {
+            assertTrue(e.getMessage().contains("memtables"), e.getMessage());
+        }
+        assertTrue(written > 0);
+
+        // other writes wait for the flush
+        db.db.resumeCompactions();
+        db.put(String.format("key%06d", written), longString(1000, 'v'));
+        for (int i = 0; i <= written; i++) {
+            assertEquals(db.get(String.format("key%06d", i)), longString(1000, 'v'));
+        }
+    }
+
+    @Test(timeOut = 60_000)
+    public void testNoSlowdownBehindStalledWriter()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100_000).maxWriteBufferNumber(2), databaseDir);
+        db.db.suspendCompactions();
+
+        // this writer fills the memtables and then waits for the suspended flush
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        db.put(String.format("key%06d", i), longString(1000, 'v'));
+                    }
+                }
+                catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        writer.start();
+
+        // writes that may not be slowed down fail instead of queueing behind it
+        WriteOptions noSlowdown = new WriteOptions().noSlowdown(true);
+        while (true) {
+            try {
+                db.put("other", "value", noSlowdown);
+                Thread.sleep(10);
+            }
+            catch (DBException e) {
+                assertTrue(e.getMessage().contains("memtables"), e.getMessage());
+                break;
+            }
+        }
+        assertTrue(writer.isAlive());
+
+        db.db.resumeCompactions();
+        writer.join();
+        assertNull(failure.get());
+        assertEquals(db.get("key000999"), longString(1000, 'v'));
+    }
+
+    @Test
+    public void testGetProperty()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().cacheSize(1 << 20), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(String.format("key%06d", i), longString(100, 'v'));
+        }
+        assertTrue(Long.parseLong(db.getProperty("leveldb.approximate-memory-usage")) > 100_000);
+
+        db.compactMemTable();
+        int files = 0;
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            files += Integer.parseInt(db.getProperty("leveldb.num-files-at-level" + level));
+        }
+        assertEquals(files, 1);
+        assertNull(db.getProperty("leveldb.num-files-at-level" + NUM_LEVELS));
+        assertNull(db.getProperty("leveldb.num-files-at-levelx"));
+        assertNull(db.getProperty("leveldb.unknown"));
+        assertNull(db.getProperty("rocksdb.stats"));
+
+        String stats = db.getProperty("leveldb.stats");
+        assertTrue(stats.startsWith("                               Compactions\nLevel  Files Size(MB) Time(sec) Read(MB) Write(MB)\n"), stats);
+        assertTrue(stats.contains("level0_files"), stats);
+        String sstables = db.getProperty("leveldb.sstables");
+        assertTrue(sstables.contains("['key000000' @ 1 : 1 .. 'key000999' @ 1000 : 1]"), sstables);
+        assertEquals(db.getProperty("leveldb.estimate-pending-compaction-bytes"), "0");
+        assertEquals(db.getProperty("leveldb.stall-micros"), "0");
+    }
+
     @Test
     public void testGetSnapshot()
             throws Exception
@@ -313,6 +880,336 @@ public class DbImplTest
                 immutableEntry("c", "vc"));
     }
 
+    @Test
+    public void testReverseIteration()
+            throws Exception
+    {
+        for (MemTableType memTableType : MemTableType.values()) {
+            Options options = new Options()
+                    .memTableType(memTableType)
+                    .prefixExtractor(new FixedLengthPrefixExtractor(1));
+            DbStringWrapper db = new DbStringWrapper(options, new File(databaseDir, memTableType.name()));
+
+            // oldest versions in the deepest level
+            db.put("a", "va");
+            db.put("b", "vb");
+            db.put("c", "vc");
+            db.put("d", "vd");
+            db.put("e", "ve");
+            db.compact("a", "e");
+
+            // overwrites and deletions in level 0
+            db.put("b", "vb2");
+            db.delete("c");
+            db.put("f", "vf");
+            db.compactMemTable();
+
+            // and in the memtable
+            db.put("d", "vd2");
+            db.delete("e");
+            db.put("a0", "va0");
+
+            SeekingIterator<String, String> iterator = db.iterator();
+
+            // invisible to the iterator
+            db.put("c", "vc3");
+            db.delete("a");
+
+            List<Entry<String, String>> expected = ImmutableList.of(
+                    immutableEntry("a", "va"),
+                    immutableEntry("a0", "va0"),
+                    immutableEntry("b", "vb2"),
+                    immutableEntry("d", "vd2"),
+                    immutableEntry("f", "vf"));
+
+            iterator.seekToLast();
+            assertReverseSequence(iterator, expected);
+            assertSequence(iterator, expected);
+            assertReverseSequence(iterator, expected);
+
+            iterator.seek("c");
+            assertReverseSequence(iterator, expected.subList(0, 3));
+
+            // change direction in the middle
+            iterator.seek("c");
+            assertEquals(iterator.next(), immutableEntry("d", "vd2"));
+            assertEquals(iterator.prev(), immutableEntry("d", "vd2"));
+            assertEquals(iterator.prev(), immutableEntry("b", "vb2"));
+            assertEquals(iterator.peek(), immutableEntry("b", "vb2"));
+            assertEquals(iterator.peekPrev(), immutableEntry("a0", "va0"));
+            assertEquals(iterator.next(), immutableEntry("b", "vb2"));
+            assertEquals(iterator.next(), immutableEntry("d", "vd2"));
+            assertEquals(iterator.peekPrev(), immutableEntry("d", "vd2"));
+
+            db.close();
+        }
+    }
+
+    @Test
+    public void testIterateBounds()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+
+        // one level 0 file per key range, plus a deeper level and the memtable
+        for (String key : asList("a", "b", "c")) {
+            db.put(key, "v" + key);
+        }
+        db.compact("a", "c");
+        for (String key : asList("d", "e", "f")) {
+            db.put(key, "v" + key);
+        }
+        db.compactMemTable();
+        for (String key : asList("g", "h", "i")) {
+            db.put(key, "v" + key);
+        }
+        db.compactMemTable();
+        db.delete("e");
+        db.put("e0", "ve0");
+
+        ReadOptions readOptions = new ReadOptions()
+                .iterateLowerBound(toByteArray("c"))
+                .iterateUpperBound(toByteArray("h"));
+        List<Entry<String, String>> expected = ImmutableList.of(
+                immutableEntry("c", "vc"),
+                immutableEntry("d", "vd"),
+                immutableEntry("e0", "ve0"),
+                immutableEntry("f", "vf"),
+                immutableEntry("g", "vg"));
+
+        SeekingIterator<String, String> iterator = db.iterator(readOptions);
+        iterator.seekToFirst();
+        assertSequence(iterator, expected);
+        iterator.seekToLast();
+        assertReverseSequence(iterator, expected);
+
+        // seeks outside of the bounds are clamped
+        iterator.seek("a");
+        assertSequence(iterator, expected);
+        iterator.seek("h");
+        assertFalse(iterator.hasNext());
+        assertReverseSequence(iterator, expected);
+        iterator.seek("e");
+        assertSequence(iterator, expected.subList(2, 5));
+
+        // a range that only covers deleted keys
+        readOptions = new ReadOptions()
+                .iterateLowerBound(toByteArray("e"))
+                .iterateUpperBound(toByteArray("e0"));
+        iterator = db.iterator(readOptions);
+        iterator.seekToFirst();
+        assertFalse(iterator.hasNext());
+        iterator.seekToLast();
+        assertFalse(iterator.hasPrev());
+
+        db.close();
+    }
+
+    @Test
+    public void testPrefixSeek()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().prefixExtractor(new FixedLengthPrefixExtractor(3)), databaseDir);
+
+        // one table per prefix
+        db.put("aaa1", "v1");
+        db.put("aaa2", "v2");
+        db.compactMemTable();
+        db.put("ccc1", "v1");
+        db.put("ccc2", "v2");
+        db.compactMemTable();
+        db.put("eee1", "v1");
+        db.compactMemTable();
+        db.put("ccc3", "v3");
+        db.delete("aaa2");
+
+        SeekingIterator<String, String> iterator = db.iterator(new ReadOptions().prefixSameAsStart(true));
+        iterator.seek("ccc");
+        assertSequence(iterator, ImmutableList.of(
+                immutableEntry("ccc1", "v1"),
+                immutableEntry("ccc2", "v2"),
+                immutableEntry("ccc3", "v3")));
+        iterator.seek("ccc2");
+        assertReverseSequence(iterator, ImmutableList.of(immutableEntry("ccc1", "v1")));
+        iterator.seek("aaa");
+        assertSequence(iterator, ImmutableList.of(immutableEntry("aaa1", "v1")));
+        iterator.seek("bbb");
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.hasPrev());
+
+        // seeking to the first key iterates in total order
+        iterator.seekToFirst();
+        assertSequence(iterator, ImmutableList.of(
+                immutableEntry("aaa1", "v1"),
+                immutableEntry("ccc1", "v1"),
+                immutableEntry("ccc2", "v2"),
+                immutableEntry("ccc3", "v3"),
+                immutableEntry("eee1", "v1")));
+
+        // the table holding "eee1" is not even positioned by a prefix seek
+        InternalKeyFactory internalKeyFactory = new DefaultInternalKeyFactory();
+        InternalKey target = internalKeyFactory.createInternalKey(Slices.copiedBuffer("ddd", UTF_8), internalKeyFactory.maxSequenceNumber(), ValueType.VALUE);
+        DbIterator rawIterator = db.db.internalIterator(true, null, null, true);
+        rawIterator.seek(target);
+        assertFalse(rawIterator.hasNext());
+        rawIterator = db.db.internalIterator(true, null, null, false);
+        rawIterator.seek(target);
+        assertEquals(rawIterator.next().getKey().getUserKey().toString(UTF_8), "eee1");
+
+        db.close();
+    }
+
+    @Test
+    public void testOffHeapArenaMemTable()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().memTableType(MemTableType.OFF_HEAP_ARENA), databaseDir);
+        db.put("b", "vb");
+        db.put("a", "va");
+        db.put("c", "vc");
+        db.put("a", "va2");
+        db.delete("b");
+        // larger than a quarter chunk, so it is stored in a chunk of its own
+        db.put("d", longString(ArenaMemTable.CHUNK_SIZE, 'd'));
+
+        assertEquals(db.get("a"), "va2");
+        assertNull(db.get("b"));
+        assertEquals(db.get("d"), longString(ArenaMemTable.CHUNK_SIZE, 'd'));
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seek("b");
+        assertSequence(iterator,
+                immutableEntry("c", "vc"),
+                immutableEntry("d", longString(ArenaMemTable.CHUNK_SIZE, 'd')));
+
+        db.compactMemTable();
+        assertEquals(db.get("a"), "va2");
+        assertNull(db.get("b"));
+        assertEquals(db.get("c"), "vc");
+
+        db.reopen();
+        assertEquals(db.get("a"), "va2");
+        assertNull(db.get("b"));
+        assertEquals(db.get("c"), "vc");
+    }
+
+    @Test
+    public void testBlockCache()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().cacheSize(1 << 20), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "v" + i);
+        }
+        db.compactMemTable();
+
+        BlockCache blockCache = db.db.getBlockCache();
+        assertEquals(blockCache.getCapacity(), 1 << 20);
+
+        // scans that do not fill the cache never hit it
+        for (int scan = 0; scan < 2; scan++) {
+            DBIterator iterator = db.db.iterator(new ReadOptions().fillCache(false));
+            int count = 0;
+            for (iterator.seekToFirst(); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+            iterator.close();
+            assertEquals(count, 100);
+        }
+        assertEquals(blockCache.getHitCount(), 0);
+
+        assertEquals(db.get(key(1)), "v1");
+        long misses = blockCache.getMissCount();
+        assertEquals(db.get(key(1)), "v1");
+        assertEquals(blockCache.getHitCount(), 1);
+        assertEquals(blockCache.getMissCount(), misses);
+        assertTrue(blockCache.getUsage() > 0);
+
+        // the blocks of tables deleted by a compaction age out of the cache
+        // and are never served for the tables that replace them
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "w" + i);
+        }
+        db.compact("", "~");
+        assertEquals(db.get(key(1)), "w1");
+    }
+
+    @Test
+    public void testBloomFilter()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)), databaseDir);
+        for (int i = 0; i < 1000; i += 2) {
+            db.put(key(i), "v" + i);
+        }
+        db.delete(key(10));
+        db.compactMemTable();
+        db.compactRange(0, key(0), key(1000));
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), i % 2 == 0 && i != 10 ? "v" + i : null);
+        }
+
+        // tables written with the filter are still readable without it
+        db.reopen(new Options());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), i % 2 == 0 && i != 10 ? "v" + i : null);
+        }
+    }
+
+    @Test
+    public void testHashPrefixMemTable()
+            throws Exception
+    {
+        Options options = new Options()
+                .memTableType(MemTableType.HASH_PREFIX)
+                .prefixExtractor(new FixedLengthPrefixExtractor(2));
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("bb1", "v1");
+        db.put("aa2", "v2");
+        db.put("aa1", "v3");
+        db.put("a", "v4");
+        db.put("bb0", "v5");
+        db.delete("aa2");
+
+        assertEquals(db.get("aa1"), "v3");
+        assertNull(db.get("aa2"));
+        assertEquals(db.get("a"), "v4");
+        assertNull(db.get("cc1"));
+
+        // iteration merges all buckets in key order
+        assertSequence(db.iterator(),
+                immutableEntry("a", "v4"),
+                immutableEntry("aa1", "v3"),
+                immutableEntry("bb0", "v5"),
+                immutableEntry("bb1", "v1"));
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seek("aa2");
+        assertSequence(iterator,
+                immutableEntry("bb0", "v5"),
+                immutableEntry("bb1", "v1"));
+
+        db.compactMemTable();
+        db.reopen();
+        assertEquals(db.get("bb1"), "v1");
+        assertNull(db.get("aa2"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testHashPrefixMemTableRequiresPrefixExtractor()
+            throws Exception
+    {
+        new DbStringWrapper(new Options().memTableType(MemTableType.HASH_PREFIX), databaseDir);
+    }
+
+    @Test
+    public void testConcurrentWritesOffHeapArenaMemTable()
+            throws Exception
+    {
+        testConcurrentWrites(new Options().writeBufferSize(100000).memTableType(MemTableType.OFF_HEAP_ARENA).pipelinedWrites(true));
+    }
+
     @Test
     public void testRecover()
             throws Exception
@@ -887,10 +1784,21 @@ public class DbImplTest
 
         seekingIterator.seekToFirst();
         assertSequence(seekingIterator, entries);
+        assertReverseSequence(seekingIterator, entries);
+
+        seekingIterator.seekToLast();
+        assertReverseSequence(seekingIterator, entries);
 
         for (Entry<String, String> entry : entries) {
-            List<Entry<String, String>> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
+            int index = entries.indexOf(entry);
+            List<Entry<String, String>> nextEntries = entries.subList(index, entries.size());
             seekingIterator.seek(entry.getKey());
+            if (index > 0) {
+                assertEquals(seekingIterator.peekPrev(), entries.get(index - 1));
+            }
+            else {
+                assertFalse(seekingIterator.hasPrev());
+            }
             assertSequence(seekingIterator, nextEntries);
 
             seekingIterator.seek(beforeString(entry));
@@ -990,6 +1898,124 @@ public class DbImplTest
 
     private final ArrayList<DbStringWrapper> opened = new ArrayList<>();
 
+    /**
+     * Writes a batch of {@code count} keys on its own thread and keeps the last
+     * sequence number assigned to it.
+     */
+    private static class BatchWriter
+            extends Thread
+    {
+        private final DbImpl db;
+        private final String prefix;
+        private final int count;
+        private final boolean sync;
+        private volatile long sequence;
+
+        private BatchWriter(DbImpl db, String prefix, int count, boolean sync)
+        {
+            this.db = db;
+            this.prefix = prefix;
+            this.count = count;
+            this.sync = sync;
+        }
+
+        @Override
+        public void run()
+        {
+            WriteBatch batch = db.createWriteBatch();
+            for (int i = 0; i < count; i++) {
+                batch.put((prefix + i).getBytes(UTF_8), "v".getBytes(UTF_8));
+            }
+            Snapshot snapshot = db.write(batch, new WriteOptions().sync(sync).snapshot(true));
+            sequence = ((SnapshotImpl) snapshot).getLastSequence();
+        }
+
+        private long getSequence()
+        {
+            return sequence;
+        }
+    }
+
+    /**
+     * Log writer that records the sequence and count of every record it
+     * appends, and can block or fail the appends.
+     */
+    private static class InterceptingLogWriter
+            implements LogWriter
+    {
+        private final LogWriter delegate;
+        private final List<String> records = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+        private volatile IOException failure;
+
+        private InterceptingLogWriter(LogWriter delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        private void block()
+        {
+            released = new CountDownLatch(1);
+        }
+
+        private void awaitBlocked()
+                throws InterruptedException
+        {
+            blocked.await();
+        }
+
+        private void release()
+        {
+            released.countDown();
+        }
+
+        @Override
+        public boolean isClosed()
+        {
+            return delegate.isClosed();
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            delegate.close();
+        }
+
+        @Override
+        public void delete()
+                throws IOException
+        {
+            delegate.delete();
+        }
+
+        @Override
+        public File getFile()
+        {
+            return delegate.getFile();
+        }
+
+        @Override
+        public long getFileNumber()
+        {
+            return delegate.getFileNumber();
+        }
+
+        @Override
+        public void addRecord(Slice record, boolean force)
+                throws IOException
+        {
+            if (failure != null) {
+                throw failure;
+            }
+            blocked.countDown();
+            Uninterruptibles.awaitUninterruptibly(released);
+            records.add(record.getLong(0) + "+" + record.getInt(8) + (force ? " sync" : ""));
+            delegate.addRecord(record, force);
+        }
+    }
+
     private static class ReverseDBComparator
             implements DBComparator
     {
@@ -1092,11 +2118,29 @@ public class DbImplTest
             return new String(slice, UTF_8);
         }
 
+        public List<String> multiGet(List<String> keys, ReadOptions readOptions)
+        {
+            List<byte[]> keyBytes = new ArrayList<>();
+            for (String key : keys) {
+                keyBytes.add(toByteArray(key));
+            }
+            List<String> values = new ArrayList<>();
+            for (byte[] value : db.multiGet(keyBytes, readOptions)) {
+                values.add(value == null ? null : new String(value, UTF_8));
+            }
+            return values;
+        }
+
         public void put(String key, String value)
         {
             db.put(toByteArray(key), toByteArray(value));
         }
 
+        public void put(String key, String value, WriteOptions writeOptions)
+        {
+            db.put(toByteArray(key), toByteArray(value), writeOptions);
+        }
+
         public void delete(String key)
         {
             db.delete(toByteArray(key));
@@ -1107,6 +2151,11 @@ public class DbImplTest
             return new StringDbIterator(db.iterator());
         }
 
+        public SeekingIterator<String, String> iterator(ReadOptions readOptions)
+        {
+            return new StringDbIterator(db.iterator(readOptions));
+        }
+
         public Snapshot getSnapshot()
         {
             return db.getSnapshot();
@@ -1122,6 +2171,11 @@ public class DbImplTest
             db.flushMemTable();
         }
 
+        public String getProperty(String name)
+        {
+            return db.getProperty(name);
+        }
+
         public void compactRange(int level, String start, String limit)
         {
             db.compactRange(level, Slices.copiedBuffer(start, UTF_8), Slices.copiedBuffer(limit, UTF_8));
@@ -1238,6 +2292,30 @@ public class DbImplTest
             return adapt(iterator.next());
         }
 
+        @Override
+        public void seekToLast()
+        {
+            iterator.seekToLast();
+        }
+
+        @Override
+        public boolean hasPrev()
+        {
+            return iterator.hasPrev();
+        }
+
+        @Override
+        public Entry<String, String> prev()
+        {
+            return adapt(iterator.prev());
+        }
+
+        @Override
+        public Entry<String, String> peekPrev()
+        {
+            return adapt(iterator.peekPrev());
+        }
+
         @Override
         public void remove()
         {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.FixedLengthPrefixExtractor;
+import org.iq80.leveldb.impl.MemTable.MemTableIterator;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.Map.Entry;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MemTableTest
+{
+    private static final InternalKeyComparator COMPARATOR = new InternalKeyComparator(new BytewiseComparator());
+
+    @Test
+    public void testReplaceEqualKeySkipList()
+    {
+        testReplaceEqualKey(new SkipListMemTable(COMPARATOR));
+    }
+
+    @Test
+    public void testReplaceEqualKeyOffHeapArena()
+    {
+        testReplaceEqualKey(new ArenaMemTable(COMPARATOR));
+    }
+
+    private static void testReplaceEqualKey(MemTable memTable)
+    {
+        // time series keys reuse the sequence number, so equal internal keys are added again
+        memTable.add(new TSInternalKey(slice("a"), 1, ValueType.VALUE), slice("old"));
+        memTable.add(new TSInternalKey(slice("b"), 1, ValueType.VALUE), slice("b"));
+        long usage = memTable.approximateMemoryUsage();
+        memTable.add(new TSInternalKey(slice("a"), 1, ValueType.VALUE), slice("new"));
+        assertTrue(memTable.approximateMemoryUsage() > usage);
+
+        LookupResult result = memTable.get(new LookupKey(new InternalKey(slice("a"), 1, ValueType.VALUE)));
+        assertEquals(result.getValue(), slice("new"));
+
+        MemTableIterator iterator = memTable.iterator();
+        iterator.seekToFirst();
+        Entry<InternalKey, Slice> entry = iterator.next();
+        assertEquals(entry.getKey().getUserKey(), slice("a"));
+        assertEquals(entry.getValue(), slice("new"));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("b"));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testHashPrefixIterator()
+    {
+        MemTable memTable = new HashPrefixMemTable(COMPARATOR, new FixedLengthPrefixExtractor(2));
+        long sequence = 0;
+        for (String key : new String[] {"bb2", "aa1", "c", "bb1", "aa3", "cc1", "bb3"}) {
+            memTable.add(new InternalKey(slice(key), ++sequence, ValueType.VALUE), slice(key));
+        }
+
+        // total order, across buckets and the key without a prefix
+        MemTableIterator iterator = memTable.iterator(false);
+        iterator.seek(new InternalKey(slice("aa2"), sequence, ValueType.VALUE));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("aa3"));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("bb1"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("bb1"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("aa3"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("aa1"));
+        assertFalse(iterator.hasPrev());
+        iterator.seekToLast();
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("cc1"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("c"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("bb3"));
+        iterator.seek(new InternalKey(slice("bb1"), sequence, ValueType.VALUE));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("bb1"));
+
+        // a prefix seek only walks the bucket of the target
+        iterator = memTable.iterator(true);
+        iterator.seek(new InternalKey(slice("bb2"), sequence, ValueType.VALUE));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("bb2"));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("bb3"));
+        assertFalse(iterator.hasNext());
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("bb3"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("bb2"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("bb1"));
+        assertFalse(iterator.hasPrev());
+        iterator.seek(new InternalKey(slice("dd"), sequence, ValueType.VALUE));
+        assertFalse(iterator.hasNext());
+        iterator.seekToFirst();
+        assertEquals(iterator.next().getKey().getUserKey(), slice("aa1"));
+    }
+
+    private static Slice slice(String value)
+    {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.RateLimiter;
+import org.iq80.leveldb.RateLimiter.Priority;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.iq80.leveldb.RateLimiter.Priority.HIGH;
+import static org.iq80.leveldb.RateLimiter.Priority.LOW;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class RateLimiterTest
+{
+    @Test(timeOut = 60_000)
+    public void testHighPriorityServedFirst()
+            throws Exception
+    {
+        RateLimiter limiter = new RateLimiter(1000);
+        limiter.request(100, LOW);
+
+        List<Priority> completed = Collections.synchronizedList(new ArrayList<Priority>());
+        Thread compaction = startRequest(limiter, 300, LOW, completed);
+        awaitThrottled(limiter);
+
+        // the flush arrives later but does not wait for the whole compaction
+        Thread flush = startRequest(limiter, 100, HIGH, completed);
+        flush.join();
+        compaction.join();
+        assertEquals(completed, asList(HIGH, LOW));
+        assertEquals(limiter.getTotalBytesRequested(), 500);
+    }
+
+    @Test
+    public void testAutoTune()
+    {
+        RateLimiter limiter = new RateLimiter(1000, true);
+        assertTrue(limiter.isAutoTuned());
+        assertEquals(limiter.getBytesPerSecond(), 1000);
+
+        limiter.setBacklog(1);
+        assertEquals(limiter.getBytesPerSecond(), 8000);
+        limiter.setBacklog(0.5);
+        assertEquals(limiter.getBytesPerSecond(), 4500);
+        limiter.setBacklog(2);
+        assertEquals(limiter.getBytesPerSecond(), 8000);
+        limiter.setBacklog(0);
+        assertEquals(limiter.getBytesPerSecond(), 1000);
+
+        RateLimiter fixed = new RateLimiter(1000);
+        assertFalse(fixed.isAutoTuned());
+        fixed.setBacklog(1);
+        assertEquals(fixed.getBytesPerSecond(), 1000);
+    }
+
+    @Test(timeOut = 60_000)
+    public void testRateDropWhileWaiting()
+            throws Exception
+    {
+        RateLimiter limiter = new RateLimiter(1000, true);
+        limiter.setBacklog(1);
+        limiter.charge(800);
+
+        List<Priority> completed = Collections.synchronizedList(new ArrayList<Priority>());
+        Thread compaction = startRequest(limiter, 800, LOW, completed);
+        awaitThrottled(limiter);
+
+        // the burst shrinks below the chunk the request is waiting for
+        limiter.setBacklog(0);
+        compaction.join();
+        assertEquals(completed, asList(LOW));
+    }
+
+    private static Thread startRequest(final RateLimiter limiter, final long bytes, final Priority priority, final List<Priority> completed)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                limiter.request(bytes, priority);
+                completed.add(priority);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitThrottled(RateLimiter limiter)
+            throws InterruptedException
+    {
+        while (limiter.getTotalBytesThrottled() == 0) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableSet;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.FileUtils;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class VersionSetTest
+{
+    private File databaseDir;
+    private TableCache tableCache;
+    private VersionSet versions;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        databaseDir = FileUtils.createTempDir("leveldb");
+        InternalKeyFactory internalKeyFactory = new DefaultInternalKeyFactory();
+        InternalKeyComparator internalKeyComparator = new InternalKeyComparator(new BytewiseComparator());
+        tableCache = new TableCache(databaseDir, 10, new InternalUserComparator(internalKeyFactory, internalKeyComparator), new Options(), internalKeyFactory, null, null);
+        versions = new VersionSet(databaseDir, tableCache, internalKeyFactory, internalKeyComparator);
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        versions.destroy();
+        tableCache.close();
+        FileUtils.deleteRecursively(databaseDir);
+    }
+
+    @Test
+    public void testPickCompactionSkipsRunningCompactions()
+            throws Exception
+    {
+        // two groups of overlapping level-0 files, only the first of which
+        // overlaps a level-1 file
+        VersionEdit edit = new VersionEdit(new DefaultInternalKeyFactory());
+        edit.addFile(0, file(1, "a", "c"));
+        edit.addFile(0, file(2, "b", "d"));
+        edit.addFile(0, file(3, "x", "y"));
+        edit.addFile(0, file(4, "w", "z"));
+        edit.addFile(1, file(5, "a", "d"));
+        versions.logAndApply(edit);
+
+        Compaction first = versions.pickCompaction();
+        assertEquals(numbers(first.getLevelInputs()), ImmutableSet.of(1L, 2L));
+        assertEquals(numbers(first.getLevelUpInputs()), ImmutableSet.of(5L));
+
+        // the other group runs at the same time, as it shares no file or key range
+        Compaction second = versions.pickCompaction();
+        assertEquals(numbers(second.getLevelInputs()), ImmutableSet.of(3L, 4L));
+        assertTrue(second.getLevelUpInputs().isEmpty());
+
+        // every file is being compacted now
+        assertNull(versions.pickCompaction());
+        try {
+            versions.compactRange(0, key("a"), key("b"));
+            fail("expected the manual compaction to conflict");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        // the inputs of a finished compaction may be picked again
+        versions.finishCompaction(first);
+        Compaction third = versions.pickCompaction();
+        assertEquals(numbers(third.getLevelInputs()), ImmutableSet.of(1L, 2L));
+        versions.finishCompaction(second);
+        versions.finishCompaction(third);
+        assertFalse(versions.hasCompactionsInProgress());
+    }
+
+    @Test
+    public void testPickCompactionSkipsOverlappingKeyRange()
+            throws Exception
+    {
+        // the level-0 files share no file with the compaction of the level-1
+        // file, but they overlap the level-2 file it writes into
+        VersionEdit edit = new VersionEdit(new DefaultInternalKeyFactory());
+        edit.addFile(0, file(1, "a", "g"));
+        edit.addFile(0, file(2, "b", "c"));
+        edit.addFile(0, file(3, "d", "e"));
+        edit.addFile(0, file(4, "f", "g"));
+        edit.addFile(1, file(5, "h", "i"));
+        edit.addFile(2, file(6, "g", "k"));
+        versions.logAndApply(edit);
+
+        Compaction first = versions.compactRange(1, key("h"), key("i"));
+        assertEquals(numbers(first.getLevelInputs()), ImmutableSet.of(5L));
+        assertEquals(numbers(first.getLevelUpInputs()), ImmutableSet.of(6L));
+        assertNull(versions.pickCompaction());
+
+        versions.finishCompaction(first);
+        Compaction second = versions.pickCompaction();
+        assertEquals(second.getLevel(), 0);
+        assertEquals(numbers(second.getLevelInputs()), ImmutableSet.of(1L, 2L, 3L, 4L));
+        assertTrue(second.getLevelUpInputs().isEmpty());
+        versions.finishCompaction(second);
+    }
+
+    private static FileMetaData file(long number, String smallest, String largest)
+    {
+        return new FileMetaData(number, 1000, key(smallest), key(largest));
+    }
+
+    private static InternalKey key(String userKey)
+    {
+        return new InternalKey(Slices.copiedBuffer(userKey, UTF_8), 1, ValueType.VALUE);
+    }
+
+    private static Set<Long> numbers(List<FileMetaData> files)
+    {
+        Set<Long> numbers = new HashSet<>();
+        for (FileMetaData file : files) {
+            numbers.add(file.getNumber());
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.impl.WriteController.StallCause;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.PENDING_COMPACTION_BYTES_STOP_TRIGGER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class WriteControllerTest
+{
+    private static final long RATE = 1 << 20;
+
+    @Test
+    public void testStallCauses()
+    {
+        WriteController controller = new WriteController(RATE, 5);
+
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER, 0, 0);
+        assertFalse(controller.isDelayed());
+        assertNull(controller.getStopCause());
+        assertEquals(controller.getWriteRate(), 0);
+
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER + 1, 0, 0);
+        assertEquals(controller.getDelayCause(), StallCause.LEVEL0_FILES);
+        long level0Rate = controller.getWriteRate();
+        assertTrue(level0Rate < RATE);
+
+        // the rate drops further as the backlog approaches the stop trigger
+        controller.update(L0_STOP_WRITES_TRIGGER - 1, 0, 0);
+        assertTrue(controller.getWriteRate() < level0Rate);
+        assertTrue(controller.getWriteRate() >= RATE / 4);
+
+        controller.update(L0_STOP_WRITES_TRIGGER, 0, 0);
+        assertEquals(controller.getStopCause(), StallCause.LEVEL0_FILES);
+
+        controller.update(0, PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER, 0);
+        assertEquals(controller.getDelayCause(), StallCause.PENDING_COMPACTION_BYTES);
+        assertEquals(controller.getWriteRate(), RATE);
+        controller.update(0, PENDING_COMPACTION_BYTES_STOP_TRIGGER, 0);
+        assertEquals(controller.getStopCause(), StallCause.PENDING_COMPACTION_BYTES);
+
+        // one memtable left before writes stop
+        controller.update(0, 0, 3);
+        assertEquals(controller.getDelayCause(), StallCause.MEMTABLES);
+        assertNull(controller.getStopCause());
+    }
+
+    @Test
+    public void testSharedBudget()
+    {
+        WriteController controller = new WriteController(RATE, 2);
+        assertEquals(controller.reserve(RATE), 0);
+
+        controller.update(0, PENDING_COMPACTION_BYTES_SLOWDOWN_TRIGGER, 0);
+        // the first write goes ahead and the next one pays for it
+        assertEquals(controller.reserve(RATE / 10), 0);
+        controller.charge(RATE / 10);
+        long delay = controller.reserve(RATE / 10);
+        assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(150), "delay " + delay);
+        assertTrue(delay <= TimeUnit.MILLISECONDS.toNanos(200), "delay " + delay);
+    }
+}
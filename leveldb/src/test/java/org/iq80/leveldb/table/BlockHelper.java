@@ -17,6 +17,7 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.collect.Lists;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -83,6 +84,35 @@ public final class BlockHelper
         }
     }
 
+    /**
+     * Asserts that moving backwards from the current position returns
+     * {@code entries}, which are listed in ascending order.
+     */
+    public static <K, V> void assertReverseSequence(SeekingIterator<K, V> seekingIterator, List<? extends Entry<K, V>> entries)
+    {
+        Assert.assertNotNull(seekingIterator, "blockIterator is not null");
+
+        for (Entry<K, V> entry : Lists.reverse(entries)) {
+            assertTrue(seekingIterator.hasPrev());
+            assertEntryEquals(seekingIterator.peekPrev(), entry);
+            assertEntryEquals(seekingIterator.prev(), entry);
+        }
+        assertFalse(seekingIterator.hasPrev());
+
+        try {
+            seekingIterator.peekPrev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+        try {
+            seekingIterator.prev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+    }
+
     public static <K, V> void assertEntryEquals(Entry<K, V> actual, Entry<K, V> expected)
     {
         if (actual.getKey() instanceof Slice) {
@@ -128,9 +128,17 @@ public class BlockTest
 
         blockIterator.seekToFirst();
         BlockHelper.assertSequence(blockIterator, entries);
+        BlockHelper.assertReverseSequence(blockIterator, entries);
+        BlockHelper.assertSequence(blockIterator, entries);
+
+        blockIterator.seekToLast();
+        BlockHelper.assertReverseSequence(blockIterator, entries);
 
         for (BlockEntry entry : entries) {
             List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
+            blockIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(blockIterator, entries.subList(0, entries.indexOf(entry)));
+
             blockIterator.seek(entry.getKey());
             BlockHelper.assertSequence(blockIterator, nextEntries);
 
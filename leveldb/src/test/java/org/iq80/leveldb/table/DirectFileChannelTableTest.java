@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.util.Slice;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+
+/**
+ * Runs the table tests with {@code O_DIRECT} reads. Where the runtime or the
+ * file system can not read directly this falls back to buffered reads.
+ */
+public class DirectFileChannelTableTest
+        extends TableTest
+{
+    @Override
+    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, Options options)
+            throws IOException
+    {
+        return new FileChannelTable(name, fileChannel, comparator, options.useDirectReads(true));
+    }
+}
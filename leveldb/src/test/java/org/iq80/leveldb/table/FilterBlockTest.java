@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.BloomFilterPolicy;
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FilterBlockTest
+{
+    private final FilterPolicy policy = new BloomFilterPolicy(10);
+
+    @Test
+    public void testEmptyBuilder()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        Slice block = builder.finish();
+        assertEquals(block.getBytes(), new byte[] {0, 0, 0, 0, 11});
+
+        FilterBlockReader reader = new FilterBlockReader(policy, block);
+        assertTrue(reader.keyMayMatch(0, bytes("foo")));
+        assertTrue(reader.keyMayMatch(100000, bytes("foo")));
+    }
+
+    @Test
+    public void testSingleChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        builder.startBlock(100);
+        builder.addKey(slice("foo"));
+        builder.addKey(slice("bar"));
+        builder.addKey(slice("box"));
+        builder.startBlock(200);
+        builder.addKey(slice("box"));
+        builder.startBlock(300);
+        builder.addKey(slice("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+        assertTrue(reader.keyMayMatch(100, bytes("foo")));
+        assertTrue(reader.keyMayMatch(100, bytes("bar")));
+        assertTrue(reader.keyMayMatch(100, bytes("box")));
+        assertTrue(reader.keyMayMatch(100, bytes("hello")));
+        assertFalse(reader.keyMayMatch(100, bytes("missing")));
+        assertFalse(reader.keyMayMatch(100, bytes("other")));
+    }
+
+    @Test
+    public void testMultiChunk()
+    {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+
+        // First filter
+        builder.startBlock(0);
+        builder.addKey(slice("foo"));
+        builder.startBlock(2000);
+        builder.addKey(slice("bar"));
+
+        // Second filter
+        builder.startBlock(3100);
+        builder.addKey(slice("box"));
+
+        // Third filter is empty
+
+        // Last filter
+        builder.startBlock(9000);
+        builder.addKey(slice("box"));
+        builder.addKey(slice("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+
+        // Check first filter
+        assertTrue(reader.keyMayMatch(0, bytes("foo")));
+        assertTrue(reader.keyMayMatch(2000, bytes("bar")));
+        assertFalse(reader.keyMayMatch(0, bytes("box")));
+        assertFalse(reader.keyMayMatch(0, bytes("hello")));
+
+        // Check second filter
+        assertTrue(reader.keyMayMatch(3100, bytes("box")));
+        assertFalse(reader.keyMayMatch(3100, bytes("foo")));
+        assertFalse(reader.keyMayMatch(3100, bytes("bar")));
+        assertFalse(reader.keyMayMatch(3100, bytes("hello")));
+
+        // Check third filter (empty)
+        assertFalse(reader.keyMayMatch(4100, bytes("foo")));
+        assertFalse(reader.keyMayMatch(4100, bytes("bar")));
+        assertFalse(reader.keyMayMatch(4100, bytes("box")));
+        assertFalse(reader.keyMayMatch(4100, bytes("hello")));
+
+        // Check last filter
+        assertTrue(reader.keyMayMatch(9000, bytes("box")));
+        assertTrue(reader.keyMayMatch(9000, bytes("hello")));
+        assertFalse(reader.keyMayMatch(9000, bytes("foo")));
+        assertFalse(reader.keyMayMatch(9000, bytes("bar")));
+    }
+
+    @Test
+    public void testBloomFilterFalsePositiveRate()
+    {
+        List<byte[]> keys = newArrayList();
+        for (int i = 0; i < 10000; i++) {
+            keys.add(intKey(i));
+        }
+        byte[] filter = policy.createFilter(keys);
+
+        // no false negatives
+        for (byte[] key : keys) {
+            assertTrue(policy.keyMayMatch(key, filter, 0, filter.length));
+        }
+
+        // about one percent false positives with ten bits per key
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = intKey(i + 1000000000);
+            if (policy.keyMayMatch(key, filter, 0, filter.length)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives <= 200, "false positives: " + falsePositives);
+    }
+
+    private static byte[] intKey(int i)
+    {
+        return new byte[] {(byte) i, (byte) (i >>> 8), (byte) (i >>> 16), (byte) (i >>> 24)};
+    }
+
+    private static Slice slice(String key)
+    {
+        return Slices.copiedBuffer(key, UTF_8);
+    }
+
+    private static byte[] bytes(String key)
+    {
+        return key.getBytes(UTF_8);
+    }
+}
@@ -18,6 +18,9 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.iq80.leveldb.BloomFilterPolicy;
+import org.iq80.leveldb.FixedLengthPrefixExtractor;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Closeables;
@@ -30,13 +33,21 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.iq80.leveldb.CompressionType.NONE;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public abstract class TableTest
 {
@@ -105,6 +116,197 @@ public abstract class TableTest
         tableTest(BlockHelper.estimateBlockSize(Integer.MAX_VALUE, entries) / 3, Integer.MAX_VALUE, entries);
     }
 
+    @Test
+    public void testSeekUncompressedBlock()
+            throws Exception
+    {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("beer/stout", "Lagunitas Imperial Stout"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/medium", "Highland Park"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        TableBuilder builder = new TableBuilder(new Options().blockRestartInterval(2).compressionType(NONE), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options());
+        if (table instanceof MMapTable) {
+            // uncompressed data blocks are read in place
+            assertTrue(table.openBlock(table.indexBlock.iterator().next().getValue()) instanceof MappedBlock);
+        }
+
+        SeekingIterator<Slice, Slice> seekingIterator = table.iterator();
+        BlockHelper.assertSequence(seekingIterator, entries);
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+        for (int i = 0; i < entries.size(); i++) {
+            seekingIterator.seek(BlockHelper.before(entries.get(i)));
+            BlockHelper.assertSequence(seekingIterator, entries.subList(i, entries.size()));
+            seekingIterator.seek(entries.get(i).getKey());
+            BlockHelper.assertSequence(seekingIterator, entries.subList(i, entries.size()));
+        }
+        seekingIterator.seek(BlockHelper.after(entries.get(entries.size() - 1)));
+        BlockHelper.assertSequence(seekingIterator, Collections.<BlockEntry>emptyList());
+    }
+
+    @Test
+    public void testIteratorBounds()
+            throws Exception
+    {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("beer/stout", "Lagunitas Imperial Stout"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/medium", "Highland Park"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        // one entry per block
+        TableBuilder builder = new TableBuilder(new Options().blockSize(1), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options());
+        SeekingIterator<Slice, Slice> seekingIterator = table.iterator(true, entries.get(2).getKey(), entries.get(4).getKey());
+
+        // blocks are skipped once their index key passes a bound, so the
+        // block holding the bound is the last one read
+        seekingIterator.seekToFirst();
+        BlockHelper.assertSequence(seekingIterator, entries.subList(0, 5));
+        seekingIterator.seekToLast();
+        BlockHelper.assertReverseSequence(seekingIterator, entries.subList(2, 6));
+    }
+
+    @Test
+    public void testReadahead()
+            throws Exception
+    {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%04d", i), "value" + i));
+        }
+
+        // one entry per block
+        TableBuilder builder = new TableBuilder(new Options().blockSize(1), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // a small maximum makes the window fill up and move along
+            SeekingIterator<Slice, Slice> seekingIterator = table.iterator(true, null, entries.get(150).getKey(), executor, 256);
+            // the block holding the bound is the last one read
+            seekingIterator.seekToFirst();
+            BlockHelper.assertSequence(seekingIterator, entries.subList(0, 151));
+
+            // seeks drop the blocks read ahead
+            seekingIterator.seek(entries.get(100).getKey());
+            BlockHelper.assertSequence(seekingIterator, entries.subList(100, 151));
+            seekingIterator.seek(entries.get(20).getKey());
+            BlockHelper.assertSequence(seekingIterator, entries.subList(20, 151));
+            seekingIterator.seekToLast();
+            BlockHelper.assertReverseSequence(seekingIterator, entries);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSmallWriteBuffer()
+            throws Exception
+    {
+        // blocks both smaller and larger than the write buffer
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%04d", i), Strings.repeat("v", i * 3)));
+        }
+
+        Options options = new Options().blockSize(64).compressionType(NONE).tableWriteBufferSize(128).bytesPerSync(256);
+        TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options());
+        SeekingIterator<Slice, Slice> seekingIterator = table.iterator();
+        seekingIterator.seekToFirst();
+        BlockHelper.assertSequence(seekingIterator, entries);
+    }
+
+    @Test
+    public void testAbandonAfterFailedFinish()
+            throws Exception
+    {
+        TableBuilder builder = new TableBuilder(new Options(), fileChannel, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry("key", "value"));
+        fileChannel.close();
+        try {
+            builder.finish();
+            fail("expected finish to fail on a closed channel");
+        }
+        catch (IOException expected) {
+        }
+        builder.abandon();
+    }
+
+    @Test
+    public void testPrefixFilter()
+            throws Exception
+    {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        TableBuilder builder = new TableBuilder(new Options().prefixExtractor(new FixedLengthPrefixExtractor(5)), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options().prefixExtractor(new FixedLengthPrefixExtractor(5)));
+        assertTrue(table.prefixMayMatch(Slices.copiedBuffer("beer/stout", UTF_8)));
+        assertTrue(table.prefixMayMatch(Slices.copiedBuffer("scotch/medium", UTF_8)));
+        assertFalse(table.prefixMayMatch(Slices.copiedBuffer("wine/red", UTF_8)));
+        // keys without a prefix can not be ruled out
+        assertTrue(table.prefixMayMatch(Slices.copiedBuffer("rum", UTF_8)));
+
+        // the filter is ignored when read with another prefix extractor
+        table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options().prefixExtractor(new FixedLengthPrefixExtractor(4)));
+        assertTrue(table.prefixMayMatch(Slices.copiedBuffer("wine/red", UTF_8)));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = ".*checksum mismatch.*")
+    public void testCorruptedBlock()
+            throws Exception
+    {
+        TableBuilder builder = new TableBuilder(new Options(), fileChannel, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry("name", "dain sundstrom"));
+        builder.finish();
+
+        // flip the first byte of the data block
+        ByteBuffer data = ByteBuffer.allocate(1);
+        fileChannel.read(data, 0);
+        data.put(0, (byte) ~data.get(0));
+        data.flip();
+        fileChannel.write(data, 0);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options().verifyChecksums(true));
+        table.iterator().hasNext();
+    }
+
     private void tableTest(int blockSize, int blockRestartInterval, BlockEntry... entries)
             throws IOException
     {
@@ -115,7 +317,7 @@ public abstract class TableTest
             throws IOException
     {
         reopenFile();
-        Options options = new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval);
+        Options options = new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval).filterPolicy(new BloomFilterPolicy(10));
         TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
 
         for (BlockEntry entry : entries) {
@@ -123,18 +325,30 @@ public abstract class TableTest
         }
         builder.finish();
 
-        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options().verifyChecksums(true));
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), new Options().verifyChecksums(true).filterPolicy(new BloomFilterPolicy(10)));
 
         SeekingIterator<Slice, Slice> seekingIterator = table.iterator();
         BlockHelper.assertSequence(seekingIterator, entries);
 
         seekingIterator.seekToFirst();
         BlockHelper.assertSequence(seekingIterator, entries);
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+
+        seekingIterator.seekToLast();
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+        BlockHelper.assertSequence(seekingIterator, entries);
 
         long lastApproximateOffset = 0;
         for (BlockEntry entry : entries) {
-            List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
+            int index = entries.indexOf(entry);
+            List<BlockEntry> nextEntries = entries.subList(index, entries.size());
             seekingIterator.seek(entry.getKey());
+            if (index > 0) {
+                BlockHelper.assertEntryEquals(seekingIterator.peekPrev(), entries.get(index - 1));
+            }
+            else {
+                assertFalse(seekingIterator.hasPrev());
+            }
             BlockHelper.assertSequence(seekingIterator, nextEntries);
 
             seekingIterator.seek(BlockHelper.before(entry));
@@ -143,6 +357,8 @@ public abstract class TableTest
             seekingIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(seekingIterator, nextEntries.subList(1, nextEntries.size()));
 
+            assertTrue(table.keyMayMatch(entry.getKey()));
+
             long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
             assertTrue(approximateOffset >= lastApproximateOffset);
             lastApproximateOffset = approximateOffset;
@@ -151,6 +367,7 @@ public abstract class TableTest
         Slice endKey = Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
         seekingIterator.seek(endKey);
         BlockHelper.assertSequence(seekingIterator, Collections.<BlockEntry>emptyList());
+        assertFalse(table.keyMayMatch(endKey));
 
         long approximateOffset = table.getApproximateOffsetOf(endKey);
         assertTrue(approximateOffset >= lastApproximateOffset);
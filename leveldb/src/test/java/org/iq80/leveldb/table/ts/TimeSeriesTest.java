@@ -215,6 +215,52 @@ public class TimeSeriesTest {
 	db.close();
     }
 
+    @Test
+    public void testTimeSeriesPrev() throws IOException, DBException {
+	Options options = new Options().createIfMissing(true).compressionType(CompressionType.SNAPPY)
+		.blockRestartInterval(500);
+	options.timeSeriesMode(TIME_SERIES_MODE);
+
+	File path = getTestDirectory("testTimeSeriesPrev");
+	DB db = factory.open(path, options);
+
+	long startTime = 1478252048736L;
+	int nrOfValues = 20 * 1000;
+	List<Pair<byte[], byte[]>> entries = new ArrayList<>();
+	for (int i = 0; i < nrOfValues; i++) {
+	    byte[] keyBytes = bytes(startTime + i * 100);
+	    byte[] valueBytes = ByteBuffer.allocate(1 + Double.BYTES).order(ByteOrder.BIG_ENDIAN).put((byte) 'D')
+		    .putDouble(Math.sin(i / 1000.0 * Math.PI)).array();
+	    entries.add(new Pair<>(keyBytes, valueBytes));
+	    db.put(keyBytes, valueBytes);
+	}
+
+	db.close();
+	db = factory.open(path, options);
+
+	// delta encoded doubles are decoded backwards through whole restart runs
+	DBIterator it = db.iterator();
+	it.seekToLast();
+	for (int i = nrOfValues - 1; i >= 0; i--) {
+	    Entry<byte[], byte[]> dbEntry = it.prev();
+	    assertEquals(dbEntry.getKey(), entries.get(i).key);
+	    assertEquals(dbEntry.getValue(), entries.get(i).value);
+	}
+	Assert.assertFalse(it.hasPrev());
+
+	// change direction inside a restart run
+	Random rnd = new Random(200);
+	for (int n = 0; n < 100; n++) {
+	    int i = 1 + rnd.nextInt(nrOfValues - 2);
+	    it.seek(entries.get(i).key);
+	    assertEquals(it.prev().getValue(), entries.get(i - 1).value);
+	    assertEquals(it.next().getValue(), entries.get(i - 1).value);
+	    assertEquals(it.next().getValue(), entries.get(i).value);
+	    assertEquals(it.next().getValue(), entries.get(i + 1).value);
+	}
+	db.close();
+    }
+
     @Test
     public void testRandomTime() throws Exception {
 	Options options = new Options().createIfMissing(true).compressionType(CompressionType.SNAPPY)
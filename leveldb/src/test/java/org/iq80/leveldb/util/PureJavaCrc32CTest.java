@@ -22,6 +22,7 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.iq80.leveldb.util.PureJavaCrc32C.mask;
@@ -37,6 +38,28 @@ public class PureJavaCrc32CTest
         assertEquals(expectedCrc, computeCrc(data));
     }
 
+    @Test(dataProvider = "crcs")
+    public void testBufferCrc(int expectedCrc, byte[] data)
+    {
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 2);
+        direct.put((byte) 0xAB).put(data).put((byte) 0xCD);
+        direct.position(1).limit(data.length + 1);
+
+        PureJavaCrc32C pureJava = new PureJavaCrc32C();
+        pureJava.update(direct);
+        assertEquals(pureJava.getIntValue(), expectedCrc);
+        assertEquals(direct.position(), 1);
+
+        Crc32C crc32C = new Crc32C();
+        crc32C.update(direct);
+        assertEquals(crc32C.getIntValue(), expectedCrc);
+        assertEquals(direct.position(), 1);
+
+        crc32C.reset();
+        crc32C.update(data, 0, data.length);
+        assertEquals(crc32C.getIntValue(), expectedCrc);
+    }
+
     @DataProvider(name = "crcs")
     public Object[][] data()
     {